@@ -0,0 +1,35 @@
+/*
+ * Copyright (C) 2007-2015 FBReader.ORG Limited <contact@fbreader.org>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA.
+ */
+
+
+package android.os;
+
+/**
+ * JVM replacement of the android class for the benchmarks
+ */
+public class Build {
+	public static class VERSION {
+		public static final int SDK_INT = VERSION_CODES.KITKAT;
+	}
+
+	public static class VERSION_CODES {
+		public static final int GINGERBREAD = 9;
+		public static final int KITKAT = 19;
+	}
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright (C) 2007-2015 FBReader.ORG Limited <contact@fbreader.org>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA.
+ */
+
+
+package android.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParserFactory;
+
+import org.xml.sax.ContentHandler;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+
+/**
+ * JVM replacement of the android class for the benchmarks; parses with
+ * the JDK SAX parser instead of expat.
+ */
+public class Xml {
+	public enum Encoding {
+		UTF_8("UTF-8");
+
+		final String Name;
+
+		Encoding(String name) {
+			Name = name;
+		}
+	}
+
+	private static final SAXParserFactory ourFactory = SAXParserFactory.newInstance();
+	static {
+		ourFactory.setNamespaceAware(true);
+	}
+
+	public static void parse(String xml, ContentHandler contentHandler) throws SAXException {
+		try {
+			parse(new InputSource(new StringReader(xml)), contentHandler);
+		} catch (IOException e) {
+			throw new SAXException(e);
+		}
+	}
+
+	public static void parse(InputStream in, Encoding encoding, ContentHandler contentHandler) throws IOException, SAXException {
+		final InputSource source = new InputSource(in);
+		source.setEncoding(encoding.Name);
+		parse(source, contentHandler);
+	}
+
+	private static void parse(InputSource source, ContentHandler contentHandler) throws IOException, SAXException {
+		final XMLReader reader;
+		try {
+			reader = ourFactory.newSAXParser().getXMLReader();
+		} catch (ParserConfigurationException e) {
+			throw new SAXException(e);
+		}
+		reader.setContentHandler(contentHandler);
+		reader.parse(source);
+	}
+}
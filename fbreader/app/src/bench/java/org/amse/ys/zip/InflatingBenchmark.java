@@ -0,0 +1,169 @@
+package org.amse.ys.zip;
+
+import java.io.*;
+import java.util.*;
+import java.util.zip.CRC32;
+
+/**
+ * Reads every entry of the given archives through Decompressor with the
+ * native and with the java inflater, checks that both produce the same
+ * data and prints the times. Not a part of the application; the native
+ * inflater needs libDeflatingDecompressor-v4 built for the host, e.g.
+ *
+ *   g++ -shared -fPIC -O2 -I$JAVA_HOME/include -I$JAVA_HOME/include/linux \
+ *     -o /tmp/bench/libDeflatingDecompressor-v4.so jni/DeflatingDecompressor/DeflatingDecompressor.cpp -lz
+ *   javac -d /tmp/bench -sourcepath fbreader/app/src/main/java:fbreader/app/src/bench/java \
+ *     fbreader/app/src/bench/java/org/amse/ys/zip/InflatingBenchmark.java
+ *   java -Djava.library.path=/tmp/bench -cp /tmp/bench org.amse.ys.zip.InflatingBenchmark book1.epub ...
+ *
+ * Without the library only the java inflater is timed.
+ */
+public final class InflatingBenchmark {
+	private static final int WARMUP_ROUNDS = 3;
+	private static final int ROUNDS = 5;
+
+	private static final class Entry {
+		final String Name;
+		final long Size;
+		final long Checksum;
+
+		Entry(String name, long size, long checksum) {
+			Name = name;
+			Size = size;
+			Checksum = checksum;
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			if (!(other instanceof Entry)) {
+				return false;
+			}
+			final Entry entry = (Entry)other;
+			return Name.equals(entry.Name) && Size == entry.Size && Checksum == entry.Checksum;
+		}
+
+		@Override
+		public int hashCode() {
+			return Name.hashCode();
+		}
+
+		@Override
+		public String toString() {
+			return Name + ": " + Size + " bytes, crc " + Long.toHexString(Checksum);
+		}
+	}
+
+	public static void main(String[] args) throws IOException {
+		if (args.length == 0) {
+			System.err.println("Usage: InflatingBenchmark <archive> ...");
+			System.exit(1);
+		}
+		final boolean hasNative = DeflatingDecompressor.IsLibraryLoaded;
+		if (!hasNative) {
+			System.out.println("native library is not loaded, timing the java inflater only");
+		}
+
+		final byte[] buffer = new byte[16384];
+		long nativeTotal = 0;
+		long javaTotal = 0;
+		for (String path : args) {
+			final File file = new File(path);
+			final List<Entry> expected = readAll(file, false, buffer);
+			check(file, expected);
+			if (hasNative) {
+				final List<Entry> actual = readAll(file, true, buffer);
+				if (!expected.equals(actual)) {
+					throw new IllegalStateException(
+						"Native and java inflaters differ for " + path + ": " + actual + " vs " + expected
+					);
+				}
+			}
+
+			for (int i = 0; i < WARMUP_ROUNDS; ++i) {
+				if (hasNative) {
+					readAll(file, true, buffer);
+				}
+				readAll(file, false, buffer);
+			}
+			long nativeTime = 0;
+			long javaTime = 0;
+			for (int i = 0; i < ROUNDS; ++i) {
+				if (hasNative) {
+					final long start = System.nanoTime();
+					readAll(file, true, buffer);
+					nativeTime += System.nanoTime() - start;
+				}
+				final long start = System.nanoTime();
+				readAll(file, false, buffer);
+				javaTime += System.nanoTime() - start;
+			}
+			nativeTotal += nativeTime;
+			javaTotal += javaTime;
+
+			long size = 0;
+			for (Entry entry : expected) {
+				size += entry.Size;
+			}
+			report(file.getName(), expected.size(), size, hasNative, nativeTime, javaTime);
+		}
+		if (args.length > 1) {
+			report("total", -1, -1, hasNative, nativeTotal, javaTotal);
+		}
+	}
+
+	private static void report(String name, int entries, long size, boolean hasNative, long nativeTime, long javaTime) {
+		final StringBuilder line = new StringBuilder(String.format("%-32s", name));
+		if (entries >= 0) {
+			line.append(String.format(" %5d entries %10d bytes", entries, size));
+		}
+		if (hasNative) {
+			line.append(String.format("  native %8.2f ms", nativeTime / 1e6 / ROUNDS));
+		}
+		line.append(String.format("  java %8.2f ms", javaTime / 1e6 / ROUNDS));
+		System.out.println(line);
+	}
+
+	private static List<Entry> readAll(File file, boolean nativeInflating, byte[] buffer) throws IOException {
+		Decompressor.setNativeInflatingEnabled(nativeInflating);
+		final ZipFile zipFile = new ZipFile(file);
+		final List<Entry> entries = new ArrayList<Entry>();
+		for (LocalFileHeader header : zipFile.headers()) {
+			if (header.FileName.endsWith("/")) {
+				continue;
+			}
+			final CRC32 checksum = new CRC32();
+			long size = 0;
+			final InputStream stream = zipFile.getInputStream(header.FileName);
+			try {
+				for (int len = stream.read(buffer, 0, buffer.length); len > 0; len = stream.read(buffer, 0, buffer.length)) {
+					checksum.update(buffer, 0, len);
+					size += len;
+				}
+			} finally {
+				stream.close();
+			}
+			entries.add(new Entry(header.FileName, size, checksum.getValue()));
+		}
+		Collections.sort(entries, new Comparator<Entry>() {
+			public int compare(Entry e0, Entry e1) {
+				return e0.Name.compareTo(e1.Name);
+			}
+		});
+		return entries;
+	}
+
+	// the java inflater result against the checksums stored in the archive
+	private static void check(File file, List<Entry> entries) throws IOException {
+		final java.util.zip.ZipFile zipFile = new java.util.zip.ZipFile(file);
+		try {
+			for (Entry entry : entries) {
+				final java.util.zip.ZipEntry zipEntry = zipFile.getEntry(entry.Name);
+				if (zipEntry == null || zipEntry.getSize() != entry.Size || zipEntry.getCrc() != entry.Checksum) {
+					throw new IllegalStateException("Wrong data for " + entry + " in " + file);
+				}
+			}
+		} finally {
+			zipFile.close();
+		}
+	}
+}
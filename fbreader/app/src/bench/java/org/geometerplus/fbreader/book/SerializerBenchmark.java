@@ -0,0 +1,265 @@
+/*
+ * Copyright (C) 2007-2015 FBReader.ORG Limited <contact@fbreader.org>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA.
+ */
+
+
+package org.geometerplus.fbreader.book;
+
+import java.util.*;
+
+import org.fbreader.util.ComparisonUtil;
+
+import org.geometerplus.zlibrary.core.util.RationalNumber;
+
+/**
+ * Serialize/deserialize throughput of BinarySerializer and XMLSerializer
+ * on a generated library; every deserialized book is compared with the
+ * original one. Not a part of the application; android.util.Xml and the
+ * other android classes come from the bench source directory, so the XML
+ * numbers are for the JDK SAX parser. Run from the repository root with
+ *
+ *   javac -d /tmp/bench -cp "libs/*" -sourcepath fbreader/app/src/main/java:fbreader/app/src/bench/java \
+ *     fbreader/app/src/bench/java/org/geometerplus/fbreader/book/SerializerBenchmark.java
+ *   java -cp "/tmp/bench:libs/*" org.geometerplus.fbreader.book.SerializerBenchmark [books]
+ */
+public final class SerializerBenchmark {
+	private static final int PAGE_SIZE = 100;
+	private static final int WARMUP_ROUNDS = 3;
+	private static final int ROUNDS = 5;
+
+	private static final AbstractSerializer.BookCreator<Book> CREATOR = new AbstractSerializer.BookCreator<Book>() {
+		public Book createBook(long id, String url, String title, String encoding, String language) {
+			return new Book(id, url.substring("file://".length()), title, encoding, language);
+		}
+	};
+
+	public static void main(String[] args) {
+		final int count = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+		final List<Book> library = generateLibrary(count, new Random(239));
+		System.out.println("library: " + library.size() + " books");
+
+		run("binary", new BinarySerializer(), library);
+		run("xml", new XMLSerializer(), library);
+	}
+
+	private static void run(String name, AbstractSerializer serializer, List<Book> library) {
+		final List<String> books = serializeBooks(serializer, library);
+		checkBooks(library, deserializeBooks(serializer, books));
+		final List<String> pages = serializePages(serializer, library);
+		checkBooks(library, deserializePages(serializer, pages));
+
+		for (int i = 0; i < WARMUP_ROUNDS; ++i) {
+			deserializeBooks(serializer, serializeBooks(serializer, library));
+			deserializePages(serializer, serializePages(serializer, library));
+		}
+
+		final long[] times = new long[4];
+		for (int i = 0; i < ROUNDS; ++i) {
+			long start = System.nanoTime();
+			serializeBooks(serializer, library);
+			times[0] += System.nanoTime() - start;
+			start = System.nanoTime();
+			deserializeBooks(serializer, books);
+			times[1] += System.nanoTime() - start;
+			start = System.nanoTime();
+			serializePages(serializer, library);
+			times[2] += System.nanoTime() - start;
+			start = System.nanoTime();
+			deserializePages(serializer, pages);
+			times[3] += System.nanoTime() - start;
+		}
+
+		report(name + " book", library.size(), totalLength(books), times[0], times[1]);
+		report(name + " page", library.size(), totalLength(pages), times[2], times[3]);
+	}
+
+	private static void report(String name, int count, long length, long serializeTime, long deserializeTime) {
+		System.out.println(String.format(
+			"%-12s %9d chars  serialize %8.1f ms %9.0f books/s  deserialize %8.1f ms %9.0f books/s",
+			name, length,
+			serializeTime / 1e6 / ROUNDS, count * 1e9 * ROUNDS / serializeTime,
+			deserializeTime / 1e6 / ROUNDS, count * 1e9 * ROUNDS / deserializeTime
+		));
+	}
+
+	private static long totalLength(List<String> data) {
+		long length = 0;
+		for (String d : data) {
+			length += d.length();
+		}
+		return length;
+	}
+
+	// one record per book, as for single book calls
+	private static List<String> serializeBooks(AbstractSerializer serializer, List<Book> library) {
+		final List<String> data = new ArrayList<String>(library.size());
+		for (Book b : library) {
+			data.add(serializer.serialize(b));
+		}
+		return data;
+	}
+
+	private static List<Book> deserializeBooks(AbstractSerializer serializer, List<String> data) {
+		final List<Book> books = new ArrayList<Book>(data.size());
+		for (String d : data) {
+			books.add(serializer.deserializeBook(d, CREATOR));
+		}
+		return books;
+	}
+
+	// book lists of PAGE_SIZE, as for the library queries
+	private static List<String> serializePages(AbstractSerializer serializer, List<Book> library) {
+		final List<String> data = new ArrayList<String>();
+		for (int i = 0; i < library.size(); i += PAGE_SIZE) {
+			data.addAll(serializer.serializeBookList(
+				library.subList(i, Math.min(i + PAGE_SIZE, library.size()))
+			));
+		}
+		return data;
+	}
+
+	private static List<Book> deserializePages(AbstractSerializer serializer, List<String> data) {
+		final List<Book> books = new ArrayList<Book>();
+		for (String d : data) {
+			books.addAll(serializer.deserializeBookList(d, CREATOR));
+		}
+		return books;
+	}
+
+	private static void checkBooks(List<Book> expected, List<Book> actual) {
+		if (expected.size() != actual.size()) {
+			throw new IllegalStateException(actual.size() + " books instead of " + expected.size());
+		}
+		for (int i = 0; i < expected.size(); ++i) {
+			final Book e = expected.get(i);
+			final Book a = actual.get(i);
+			if (a == null ||
+				e.getId() != a.getId() ||
+				!e.getPath().equals(a.getPath()) ||
+				!ComparisonUtil.equal(e.getTitle(), a.getTitle()) ||
+				!ComparisonUtil.equal(e.getLanguage(), a.getLanguage()) ||
+				!ComparisonUtil.equal(e.getEncodingNoDetection(), a.getEncodingNoDetection()) ||
+				!e.uids().equals(a.uids()) ||
+				!e.authors().equals(a.authors()) ||
+				!e.tags().equals(a.tags()) ||
+				!labelsString(e).equals(labelsString(a)) ||
+				!ComparisonUtil.equal(e.getSeriesInfo(), a.getSeriesInfo()) ||
+				e.HasBookmark != a.HasBookmark ||
+				!ComparisonUtil.equal(e.getProgress(), a.getProgress())) {
+				throw new IllegalStateException("Book changed in round trip: " + e + " -> " + a);
+			}
+		}
+	}
+
+	// Label.equals() ignores the uid
+	private static String labelsString(Book book) {
+		return String.valueOf(book.labels());
+	}
+
+	private static List<Book> generateLibrary(int count, Random random) {
+		final List<Author> authors = new ArrayList<Author>();
+		for (int i = 0; i < Math.max(count / 12, 1); ++i) {
+			authors.add(Author.create(
+				word(random, i % 7 == 0) + " " + word(random, false), null
+			));
+		}
+
+		final List<Tag> tags = new ArrayList<Tag>();
+		for (int i = 0; i < 40; ++i) {
+			final Tag tag = Tag.getTag(null, word(random, false));
+			tags.add(tag);
+			for (int j = random.nextInt(4); j > 0; --j) {
+				tags.add(Tag.getTag(tag, word(random, false)));
+			}
+		}
+
+		final String[] labels = { "favorite", "to-read", "read", "lent & borrowed" };
+		final String[] labelUids = new String[labels.length];
+		for (int i = 0; i < labels.length; ++i) {
+			labelUids[i] = UUID.nameUUIDFromBytes(labels[i].getBytes()).toString();
+		}
+
+		final List<String> series = new ArrayList<String>();
+		for (int i = 0; i < Math.max(count / 20, 1); ++i) {
+			series.add(word(random, false) + " " + word(random, i % 5 == 0));
+		}
+
+		final String[] languages = { "en", "ru", "de", "fr", "uk" };
+		final List<Book> library = new ArrayList<Book>(count);
+		for (int i = 0; i < count; ++i) {
+			final StringBuilder title = new StringBuilder(word(random, i % 5 == 0));
+			for (int j = random.nextInt(5); j >= 0; --j) {
+				title.append(' ').append(word(random, i % 9 == 0));
+			}
+			if (i % 50 == 0) {
+				title.append(" <&> \"quoted\"");
+			}
+			final Book book = new Book(
+				i + 1,
+				"/sdcard/Books/" + Integer.toString(i, 36) + "/" + title + ".epub",
+				title.toString(),
+				i % 3 == 0 ? "utf-8" : "auto",
+				languages[random.nextInt(languages.length)]
+			);
+
+			book.addUid("SHA-256", String.format("%064x", new java.math.BigInteger(256, random)));
+			if (i % 4 == 0) {
+				book.addUid("ISBN", "978" + (1000000000L + random.nextInt(1000000000)));
+			}
+			for (int j = 1 + random.nextInt(random.nextInt(8) == 0 ? 4 : 2); j > 0; --j) {
+				book.addAuthor(authors.get(random.nextInt(authors.size())));
+			}
+			for (int j = random.nextInt(4); j > 0; --j) {
+				book.addTag(tags.get(random.nextInt(tags.size())));
+			}
+			for (int j = 0; j < labels.length; ++j) {
+				if (random.nextInt(6) == 0) {
+					book.addLabel(new Label(labelUids[j], labels[j]));
+				}
+			}
+			if (random.nextInt(3) == 0) {
+				book.setSeriesInfo(
+					series.get(random.nextInt(series.size())),
+					random.nextInt(10) == 0 ? (1 + random.nextInt(20)) + ".5" : String.valueOf(1 + random.nextInt(20))
+				);
+			}
+			book.HasBookmark = random.nextInt(5) == 0;
+			if (random.nextInt(2) == 0) {
+				book.setProgress(RationalNumber.create(random.nextInt(10000), 10000));
+			}
+			library.add(book);
+		}
+		return library;
+	}
+
+	private static final String LATIN = "abcdefghijklmnopqrstuvwxyz";
+	private static final String CYRILLIC =
+		"\u0430\u0431\u0432\u0433\u0434\u0435\u0436\u0437\u0438\u043a\u043b\u043c\u043d" +
+		"\u043e\u043f\u0440\u0441\u0442\u0443\u0444\u0445\u0446\u0447\u0448\u044d\u044f";
+
+	private static String word(Random random, boolean cyrillic) {
+		final String alphabet = cyrillic ? CYRILLIC : LATIN;
+		final int length = 3 + random.nextInt(8);
+		final StringBuilder word = new StringBuilder(length);
+		word.append(Character.toUpperCase(alphabet.charAt(random.nextInt(alphabet.length()))));
+		for (int i = 1; i < length; ++i) {
+			word.append(alphabet.charAt(random.nextInt(alphabet.length())));
+		}
+		return word.toString();
+	}
+}
@@ -0,0 +1,247 @@
+/*
+ * Copyright (C) 2007-2015 FBReader.ORG Limited <contact@fbreader.org>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA.
+ */
+
+
+package org.geometerplus.zlibrary.core.util;
+
+import java.util.*;
+
+/**
+ * Compares ZLSearchUtil with the per-character search it replaced on a
+ * generated text; both must report the same matches. Not a part of the
+ * application; run from the repository root with
+ *
+ *   javac -d /tmp/bench -sourcepath fbreader/app/src/main/java:fbreader/app/src/bench/java \
+ *     fbreader/app/src/bench/java/org/geometerplus/zlibrary/core/util/ZLSearchUtilBenchmark.java
+ *   java -cp /tmp/bench org.geometerplus.zlibrary.core.util.ZLSearchUtilBenchmark [megabytes]
+ */
+public final class ZLSearchUtilBenchmark {
+	private static final String[] WORDS = {
+		"the", "search", "pattern", "Reader", "FBReader", "book", "paragraph", "text",
+		"Search", "SEARCH", "theme", "there", "other", "patterned",
+		"\u0442\u0435\u043a\u0441\u0442", "\u0422\u0435\u043a\u0441\u0442", "\u043a\u043d\u0438\u0433\u0430",
+		"\u0161\u00e9arch", "\u00c9t\u00e9", "\u00e9t\u00e9"
+	};
+
+	private static final String[] PATTERNS = {
+		"the", "search", "pattern", "book paragraph", "\u0442\u0435\u043a\u0441\u0442", "\u00e9t\u00e9", "xyz",
+		"the search pattern paragraph", "FBReader book text"
+	};
+
+	private static final int WARMUP_ROUNDS = 3;
+	private static final int ROUNDS = 10;
+
+	public static void main(String[] args) {
+		final int megabytes = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+		final char[] text = generateText(megabytes * 1024 * 1024, new Random(239));
+		System.out.println("text: " + text.length + " chars");
+
+		for (String p : PATTERNS) {
+			for (boolean ignoreCase : new boolean[] { false, true }) {
+				final ZLSearchPattern pattern = new ZLSearchPattern(p, ignoreCase);
+				final OldPattern oldPattern = new OldPattern(p, ignoreCase);
+
+				final int[] expected = oldFindAll(text, oldPattern);
+				final int[] actual = findAll(text, pattern);
+				if (!Arrays.equals(expected, actual)) {
+					throw new IllegalStateException(
+						"Different matches for '" + p + "', ignoreCase = " + ignoreCase +
+						": " + expected.length / 2 + " vs " + actual.length / 2
+					);
+				}
+
+				for (int i = 0; i < WARMUP_ROUNDS; ++i) {
+					oldFindAll(text, oldPattern);
+					findAll(text, pattern);
+				}
+				// the best of the rounds, the order alternates
+				long oldTime = Long.MAX_VALUE;
+				long newTime = Long.MAX_VALUE;
+				for (int i = 0; i < ROUNDS; ++i) {
+					for (int j = 0; j < 2; ++j) {
+						final long start = System.nanoTime();
+						if ((i + j) % 2 == 0) {
+							oldFindAll(text, oldPattern);
+							oldTime = Math.min(oldTime, System.nanoTime() - start);
+						} else {
+							findAll(text, pattern);
+							newTime = Math.min(newTime, System.nanoTime() - start);
+						}
+					}
+				}
+				System.out.println(String.format(
+					"%-16s %-11s %7d matches  old %8.2f ms  new %8.2f ms  x%.2f",
+					"'" + p + "'", ignoreCase ? "ignoreCase" : "exactCase", expected.length / 2,
+					oldTime / 1e6, newTime / 1e6, (double)oldTime / newTime
+				));
+			}
+		}
+	}
+
+	// words of mixed case, some of them broken by zero-width spaces
+	private static char[] generateText(int length, Random random) {
+		final StringBuilder builder = new StringBuilder(length + 32);
+		while (builder.length() < length) {
+			final String word = WORDS[random.nextInt(WORDS.length)];
+			for (int i = 0; i < word.length(); ++i) {
+				if (i > 0 && random.nextInt(16) == 0) {
+					builder.append('\u200b');
+				}
+				builder.append(word.charAt(i));
+			}
+			builder.append(random.nextInt(10) == 0 ? ". " : " ");
+		}
+		// the old search reads past the end after a trailing zero-width space
+		builder.setLength(length);
+		while (builder.charAt(builder.length() - 1) == '\u200b') {
+			builder.setLength(builder.length() - 1);
+		}
+		final char[] text = new char[builder.length()];
+		builder.getChars(0, text.length, text, 0);
+		return text;
+	}
+
+	// start, length pairs
+	private static int[] findAll(char[] text, ZLSearchPattern pattern) {
+		final IntBuffer matches = new IntBuffer();
+		ZLSearchUtil.findAll(text, 0, text.length, pattern, new ZLSearchUtil.MatchConsumer() {
+			public boolean onMatch(int start, int length) {
+				matches.add(start);
+				matches.add(length);
+				return true;
+			}
+		});
+		return matches.toArray();
+	}
+
+	private static int[] oldFindAll(char[] text, OldPattern pattern) {
+		final IntBuffer matches = new IntBuffer();
+		for (int pos = 0; ; ) {
+			final long match = oldFind(text, 0, text.length, pattern, pos);
+			if (match == -1) {
+				break;
+			}
+			matches.add((int)(match >>> 32));
+			matches.add((int)match);
+			pos = (int)(match >>> 32) + 1;
+		}
+		return matches.toArray();
+	}
+
+	private static final class IntBuffer {
+		private int[] myData = new int[1024];
+		private int mySize;
+
+		void add(int value) {
+			if (mySize == myData.length) {
+				myData = Arrays.copyOf(myData, 2 * mySize);
+			}
+			myData[mySize++] = value;
+		}
+
+		int[] toArray() {
+			return Arrays.copyOf(myData, mySize);
+		}
+	}
+
+	// ZLSearchPattern and ZLSearchUtil.find as they were before the Horspool search
+	private static final class OldPattern {
+		final boolean IgnoreCase;
+		final char[] LowerCasePattern;
+		final char[] UpperCasePattern;
+
+		OldPattern(String pattern, boolean ignoreCase) {
+			pattern = pattern.replace("\u200b", "");
+			IgnoreCase = ignoreCase;
+			if (IgnoreCase) {
+				LowerCasePattern = pattern.toLowerCase().toCharArray();
+				UpperCasePattern = pattern.toUpperCase().toCharArray();
+			} else {
+				LowerCasePattern = pattern.toCharArray();
+				UpperCasePattern = null;
+			}
+		}
+	}
+
+	// returns (start << 32) | length, or -1; allocates nothing so that only the matching is timed
+	private static long oldFind(char[] text, int offset, int length, final OldPattern pattern, int pos) {
+		if (pos < 0) {
+			pos = 0;
+		}
+		final char[] lower = pattern.LowerCasePattern;
+		final int patternLength = lower.length;
+		final int end = offset + length;
+		final int lastStart = end - patternLength;
+		if (pattern.IgnoreCase) {
+			final char[] upper = pattern.UpperCasePattern;
+			final char firstCharLower = lower[0];
+			final char firstCharUpper = upper[0];
+			for (int i = offset + pos; i <= lastStart; ++i) {
+				final char current = text[i];
+				if (current == firstCharLower || current == firstCharUpper) {
+					int j = 1;
+					int k = i + 1;
+					for (; j < patternLength; ++k) {
+						final char symbol = text[k];
+						if (symbol == '\u200b') {
+							if (patternLength - j > end - k) {
+								break;
+							} else {
+								continue;
+							}
+						}
+						if (lower[j] != symbol && upper[j] != symbol) {
+							break;
+						}
+						++j;
+					}
+					if (j == patternLength) {
+						return ((long)(i - offset) << 32) | (k - i);
+					}
+				}
+			}
+		} else {
+			final char firstChar = lower[0];
+			for (int i = offset + pos; i <= lastStart; i++) {
+				if (text[i] == firstChar) {
+					int j = 1;
+					int k = i + 1;
+					for (; j < patternLength; ++k) {
+						final char symbol = text[k];
+						if (symbol == '\u200b') {
+							if (patternLength - j > end - k) {
+								break;
+							} else {
+								continue;
+							}
+						}
+						if (lower[j] != text[k]) {
+							break;
+						}
+						++j;
+					}
+					if (j >= patternLength) {
+						return ((long)(i - offset) << 32) | (k - i);
+					}
+				}
+			}
+		}
+		return -1;
+	}
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2007-2015 FBReader.ORG Limited <contact@fbreader.org>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA.
+ */
+
+
+package org.geometerplus.zlibrary.text.view;
+
+import java.io.*;
+import java.util.*;
+
+import org.geometerplus.zlibrary.core.fonts.FontManager;
+import org.geometerplus.zlibrary.core.image.ZLImage;
+
+import org.geometerplus.zlibrary.text.model.*;
+
+/**
+ * Builds paragraph cursors over a model with memory-mapped storage, for
+ * paragraphs of several text entries, and checks the words against the
+ * written text. The text sizes of the second paragraph are too small, so
+ * its text copy is reallocated for every entry. Not a part of the
+ * application; needs libLineBreak-v2 built for the host, e.g.
+ *
+ *   gcc -shared -fPIC -O2 -I$JAVA_HOME/include -I$JAVA_HOME/include/linux \
+ *     -o /tmp/bench/libLineBreak-v2.so jni/LineBreak/LineBreaker.cpp \
+ *     jni/LineBreak/liblinebreak-2.0/linebreak.c jni/LineBreak/liblinebreak-2.0/linebreakdata.c \
+ *     jni/LineBreak/liblinebreak-2.0/linebreakdef.c
+ *   javac -d /tmp/bench -cp "libs/*" -sourcepath fbreader/app/src/main/java:fbreader/app/src/bench/java \
+ *     fbreader/app/src/bench/java/org/geometerplus/zlibrary/text/view/MappedTextCheck.java
+ *   java -Djava.library.path=/tmp/bench -cp "/tmp/bench:libs/*" org.geometerplus.zlibrary.text.view.MappedTextCheck
+ */
+public final class MappedTextCheck {
+	private static final String[][] PARAGRAPHS = {
+		{ "First entry of", " the paragraph,", " then the third", " and the last one." },
+		{ "Reallocated", " copy for", " every entry", " of this paragraph" }
+	};
+
+	public static void main(String[] args) throws IOException {
+		final File directory = new File(System.getProperty("java.io.tmpdir"), "mapped-text-check");
+		directory.mkdirs();
+
+		final StringBuilder block = new StringBuilder();
+		final int[] entryOffsets = new int[PARAGRAPHS.length];
+		final int[] paragraphLengths = new int[PARAGRAPHS.length];
+		final int[] textSizes = new int[PARAGRAPHS.length];
+		int textSize = 0;
+		for (int i = 0; i < PARAGRAPHS.length; ++i) {
+			entryOffsets[i] = block.length();
+			for (String text : PARAGRAPHS[i]) {
+				if (paragraphLengths[i] > 0) {
+					// italic start, so the text entries are not adjacent
+					block.append((char)ZLTextParagraph.Entry.CONTROL).append((char)0x0103);
+					++paragraphLengths[i];
+				}
+				block.append((char)ZLTextParagraph.Entry.TEXT);
+				block.append((char)(text.length() & 0xFFFF)).append((char)(text.length() >>> 16));
+				block.append(text);
+				++paragraphLengths[i];
+				textSize += text.length();
+			}
+			// the first paragraph has the right size, the second one is one entry long
+			textSizes[i] = i == 0 ? textSize : textSizes[i - 1] + PARAGRAPHS[i][0].length();
+		}
+
+		final File file = new File(directory, "0.ncache");
+		final OutputStream stream = new FileOutputStream(file);
+		try {
+			for (int i = 0; i < block.length(); ++i) {
+				final char ch = block.charAt(i);
+				stream.write(ch & 0xFF);
+				stream.write(ch >>> 8);
+			}
+		} finally {
+			stream.close();
+		}
+
+		final byte[] kinds = new byte[PARAGRAPHS.length];
+		Arrays.fill(kinds, ZLTextParagraph.Kind.TEXT_PARAGRAPH);
+		final ZLTextModel model = new ZLTextPlainModel(
+			"check", "en", PARAGRAPHS.length,
+			new int[PARAGRAPHS.length], entryOffsets, paragraphLengths, textSizes, kinds,
+			directory.getPath(), "ncache", 1, true,
+			new HashMap<String,ZLImage>(), new FontManager()
+		);
+
+		for (int i = 0; i < PARAGRAPHS.length; ++i) {
+			final StringBuilder expected = new StringBuilder();
+			for (String text : PARAGRAPHS[i]) {
+				expected.append(text);
+			}
+			final List<String> expectedWords = Arrays.asList(expected.toString().split(" "));
+
+			final ZLTextParagraphCursor cursor = new ZLTextParagraphCursor(model, i);
+			final List<String> words = new ArrayList<String>();
+			for (int j = 0; j < cursor.getParagraphLength(); ++j) {
+				final ZLTextElement element = cursor.getElement(j);
+				if (element instanceof ZLTextWord) {
+					final ZLTextWord word = (ZLTextWord)element;
+					words.add(new String(word.Data, word.Offset, word.Length));
+				}
+			}
+			if (!expectedWords.equals(words)) {
+				throw new IllegalStateException("Paragraph " + i + ": " + words + " instead of " + expectedWords);
+			}
+			System.out.println("paragraph " + i + ": " + words.size() + " words OK");
+		}
+
+		file.delete();
+		directory.delete();
+	}
+}
@@ -14,16 +14,47 @@ public abstract class Decompressor {
 
 	public abstract int read() throws IOException;
 
+	/**
+	 * Returns the number of uncompressed bytes read so far
+	 */
+	public abstract int position();
+
+	/**
+	 * Moves to the given position in uncompressed data; positions beyond the end
+	 * move to the end of data
+	 */
+	public abstract void seek(int position) throws IOException;
+
 	protected Decompressor() {
 	}
 
+	private static volatile boolean ourNativeInflatingEnabled = true;
+
+	/**
+	 * Selects inflater for deflated entries: the native one (default) or
+	 * java.util.zip.Inflater; the java inflater is used anyway if the native
+	 * library cannot be loaded
+	 */
+	public static void setNativeInflatingEnabled(boolean enabled) {
+		ourNativeInflatingEnabled = enabled;
+	}
+
+	public static boolean isNativeInflatingEnabled() {
+		return ourNativeInflatingEnabled && DeflatingDecompressor.IsLibraryLoaded;
+	}
+
 	private static Queue<DeflatingDecompressor> ourDeflators = new LinkedList<DeflatingDecompressor>();
+	private static Queue<JavaDeflatingDecompressor> ourJavaDeflators = new LinkedList<JavaDeflatingDecompressor>();
 
 	static void storeDecompressor(Decompressor decompressor) {
 		if (decompressor instanceof DeflatingDecompressor) {
 			synchronized (ourDeflators) {
 				ourDeflators.add((DeflatingDecompressor)decompressor);
 			}
+		} else if (decompressor instanceof JavaDeflatingDecompressor) {
+			synchronized (ourJavaDeflators) {
+				ourJavaDeflators.add((JavaDeflatingDecompressor)decompressor);
+			}
 		}
 	}
 
@@ -32,6 +63,16 @@ public abstract class Decompressor {
 			case 0:
 				return new NoCompressionDecompressor(is, header);
 			case 8:
+				if (!isNativeInflatingEnabled()) {
+					synchronized (ourJavaDeflators) {
+						if (!ourJavaDeflators.isEmpty()) {
+							JavaDeflatingDecompressor decompressor = ourJavaDeflators.poll();
+							decompressor.reset(is, header);
+							return decompressor;
+						}
+					}
+					return new JavaDeflatingDecompressor(is, header);
+				}
 				synchronized (ourDeflators) {
 					if (!ourDeflators.isEmpty()) {
 						DeflatingDecompressor decompressor = ourDeflators.poll();
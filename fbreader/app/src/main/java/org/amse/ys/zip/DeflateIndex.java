@@ -0,0 +1,80 @@
+package org.amse.ys.zip;
+
+import java.util.ArrayList;
+
+/**
+ * Sparse index of a deflated entry: inflater states saved at deflate block
+ * boundaries, approximately every SPAN bytes of uncompressed data. The index
+ * is filled during the first sequential pass and lets the decompressor
+ * restart inflating near any position instead of inflating from the beginning.
+ */
+final class DeflateIndex {
+	static final int SPAN = 1 << 20;
+	static final int WINDOW_SIZE = 1 << 15;
+
+	static final class Checkpoint {
+		// offset of the first compressed byte to be fed after restart
+		final int In;
+		// offset of the first uncompressed byte produced after restart
+		final int Out;
+		// number of unused bits in the byte In - 1, and the byte itself
+		final int Bits;
+		final int Value;
+		// uncompressed data preceding the checkpoint, up to WINDOW_SIZE bytes
+		final byte[] Window;
+
+		Checkpoint(int in, int out, int bits, int value, byte[] window) {
+			In = in;
+			Out = out;
+			Bits = bits;
+			Value = value;
+			Window = window;
+		}
+	}
+
+	private final ArrayList<Checkpoint> myCheckpoints = new ArrayList<Checkpoint>();
+	private volatile boolean myIsComplete;
+
+	boolean isComplete() {
+		return myIsComplete;
+	}
+
+	void setComplete() {
+		myIsComplete = true;
+	}
+
+	synchronized boolean needsCheckpoint(int out) {
+		if (myIsComplete) {
+			return false;
+		}
+		final int size = myCheckpoints.size();
+		final int last = size > 0 ? myCheckpoints.get(size - 1).Out : 0;
+		return out >= last + SPAN;
+	}
+
+	synchronized void add(Checkpoint checkpoint) {
+		if (needsCheckpoint(checkpoint.Out)) {
+			myCheckpoints.add(checkpoint);
+		}
+	}
+
+	/**
+	 * Returns the last checkpoint before the position (inclusive), or null
+	 */
+	synchronized Checkpoint find(int position) {
+		int low = 0;
+		int high = myCheckpoints.size() - 1;
+		Checkpoint found = null;
+		while (low <= high) {
+			final int middle = (low + high) >>> 1;
+			final Checkpoint checkpoint = myCheckpoints.get(middle);
+			if (checkpoint.Out <= position) {
+				found = checkpoint;
+				low = middle + 1;
+			} else {
+				high = middle - 1;
+			}
+		}
+		return found;
+	}
+}
@@ -3,15 +3,33 @@ package org.amse.ys.zip;
 import java.io.*;
 
 class DeflatingDecompressor extends Decompressor {
+	static final boolean IsLibraryLoaded;
+
 	static {
-		System.loadLibrary("DeflatingDecompressor-v3");
+		boolean loaded = false;
+		try {
+			System.loadLibrary("DeflatingDecompressor-v4");
+			loaded = true;
+		} catch (UnsatisfiedLinkError e) {
+		}
+		IsLibraryLoaded = loaded;
 	}
 
 	// common variables
 	private MyBufferedInputStream myStream;
+	private LocalFileHeader myHeader;
 	private int myCompressedAvailable;
 	private int myAvailable;
 
+	// numbers of bytes consumed and produced by the inflater
+	private int myTotalIn;
+	private int myTotalOut;
+
+	// last uncompressed bytes (cyclic buffer), kept while the entry index is not complete
+	private final byte[] myWindow = new byte[DeflateIndex.WINDOW_SIZE];
+	private int myWindowEnd;
+	private int myWindowLength;
+
 	private static final int IN_BUFFER_SIZE = 2048;
 	private static final int OUT_BUFFER_SIZE = 32768;
 
@@ -21,6 +39,12 @@ class DeflatingDecompressor extends Decompressor {
 	private final byte[] myOutBuffer = new byte[OUT_BUFFER_SIZE];
 	private int myOutBufferOffset;
 	private int myOutBufferLength;
+	// the last compressed byte fed to the inflater, kept over in buffer refills
+	private int myLastInByte;
+	// set if the last inflate() call stopped at a block boundary; the next call
+	// does not stop there again (with Z_BLOCK, some zlib versions return
+	// Z_BUF_ERROR instead of moving past the boundary)
+	private boolean myIsAtBlockBoundary;
 
 	private volatile int myInflatorId = -1;
 
@@ -36,12 +60,27 @@ class DeflatingDecompressor extends Decompressor {
 		}
 
 		myStream = inputStream;
-		myCompressedAvailable = header.CompressedSize;
-		if (myCompressedAvailable <= 0) {
+		myHeader = header;
+		setOffsets(0, 0);
+		myWindowEnd = 0;
+		myWindowLength = 0;
+
+		myInflatorId = startInflating();
+		if (myInflatorId == -1) {
+			throw new ZipException("cannot start inflating");
+		}
+	}
+
+	private void setOffsets(int in, int out) {
+		myTotalIn = in;
+		myTotalOut = out;
+
+		myCompressedAvailable = myHeader.CompressedSize - in;
+		if (myHeader.CompressedSize <= 0) {
 			myCompressedAvailable = Integer.MAX_VALUE;
 		}
-		myAvailable = header.UncompressedSize;
-		if (myAvailable <= 0) {
+		myAvailable = myHeader.UncompressedSize - out;
+		if (myHeader.UncompressedSize <= 0) {
 			myAvailable = Integer.MAX_VALUE;
 		}
 
@@ -49,11 +88,77 @@ class DeflatingDecompressor extends Decompressor {
 		myInBufferLength = 0;
 		myOutBufferOffset = OUT_BUFFER_SIZE;
 		myOutBufferLength = 0;
+		myLastInByte = 0;
+		myIsAtBlockBoundary = false;
+	}
 
-		myInflatorId = startInflating();
+	@Override
+	public int position() {
+		return myTotalOut - myOutBufferLength;
+	}
+
+	@Override
+	public void seek(int position) throws IOException {
+		if (position < 0) {
+			position = 0;
+		}
+		int current = position();
+		final DeflateIndex.Checkpoint checkpoint = myHeader.deflateIndex().find(position);
+		if (checkpoint != null && (position < current || checkpoint.Out > current + OUT_BUFFER_SIZE)) {
+			restart(checkpoint);
+		} else if (position < current) {
+			myStream.setPosition(myHeader.DataOffset);
+			reset(myStream, myHeader);
+		}
+		current = position();
+		if (position > current) {
+			read(null, 0, position - current);
+		}
+	}
+
+	private void restart(DeflateIndex.Checkpoint checkpoint) throws IOException {
 		if (myInflatorId == -1) {
-			throw new ZipException("cannot start inflating");
+			myInflatorId = startInflating();
+			if (myInflatorId == -1) {
+				throw new ZipException("cannot start inflating");
+			}
+		}
+		final int code = resumeInflating(myInflatorId, checkpoint.Bits, checkpoint.Value, checkpoint.Window);
+		if (code != 0) {
+			throw new ZipException("Cannot resume inflating, code = " + code);
+		}
+		myStream.setPosition(myHeader.DataOffset + checkpoint.In);
+		setOffsets(checkpoint.In, checkpoint.Out);
+		myLastInByte = checkpoint.Value;
+		myWindowLength = checkpoint.Window.length;
+		System.arraycopy(checkpoint.Window, 0, myWindow, 0, myWindowLength);
+		myWindowEnd = myWindowLength % DeflateIndex.WINDOW_SIZE;
+	}
+
+	private void addToWindow(byte[] data, int length) {
+		final int size = DeflateIndex.WINDOW_SIZE;
+		int offset = 0;
+		if (length > size) {
+			offset = length - size;
+			length = size;
 		}
+		final int first = Math.min(length, size - myWindowEnd);
+		System.arraycopy(data, offset, myWindow, myWindowEnd, first);
+		System.arraycopy(data, offset + first, myWindow, 0, length - first);
+		myWindowEnd = (myWindowEnd + length) % size;
+		myWindowLength = Math.min(myWindowLength + length, size);
+	}
+
+	private byte[] window() {
+		final byte[] window = new byte[myWindowLength];
+		final int start = myWindowEnd - myWindowLength;
+		if (start >= 0) {
+			System.arraycopy(myWindow, start, window, 0, myWindowLength);
+		} else {
+			System.arraycopy(myWindow, myWindow.length + start, window, 0, -start);
+			System.arraycopy(myWindow, 0, window, -start, myWindowEnd);
+		}
+		return window;
 	}
 
 	@Override
@@ -108,7 +213,7 @@ class DeflatingDecompressor extends Decompressor {
 		}
 		--myAvailable;
 		--myOutBufferLength;
-		return myOutBuffer[myOutBufferOffset++];
+		return myOutBuffer[myOutBufferOffset++] & 0xFF;
 	}
 
 	private void fillOutBuffer() throws IOException {
@@ -116,6 +221,7 @@ class DeflatingDecompressor extends Decompressor {
 			return;
 		}
 
+		final DeflateIndex index = myHeader.deflateIndex();
 		while (myOutBufferLength == 0) {
 			if (myInBufferLength == 0) {
 				myInBufferOffset = 0;
@@ -130,7 +236,9 @@ class DeflatingDecompressor extends Decompressor {
 			if (myInBufferLength <= 0) {
 				break;
 			}
-			final long result = inflate(myInflatorId, myInBuffer, myInBufferOffset, myInBufferLength, myOutBuffer);
+			final boolean indexing = !index.isComplete();
+			final boolean stopAtBlock = indexing && !myIsAtBlockBoundary && index.needsCheckpoint(myTotalOut);
+			final long result = inflate(myInflatorId, myInBuffer, myInBufferOffset, myInBufferLength, myOutBuffer, stopAtBlock);
 			if (result <= 0) {
 				final StringBuilder extraInfo = new StringBuilder()
 					.append(myStream.offset()).append(":")
@@ -147,11 +255,26 @@ class DeflatingDecompressor extends Decompressor {
 				throw new ZipException("Invalid inflating result, code = " + result + "; buffer length = " + myInBufferLength);
 			}
 			final int out = (int)result & 0xFFFF;
+			if (in > 0) {
+				myLastInByte = myInBuffer[myInBufferOffset + in - 1] & 0xFF;
+			}
 			myInBufferOffset += in;
 			myInBufferLength -= in;
 			myOutBufferOffset = 0;
 			myOutBufferLength = out;
+			myTotalIn += in;
+			myTotalOut += out;
+			myIsAtBlockBoundary = stopAtBlock && (result & (1L << 33)) != 0;
+			if (indexing) {
+				addToWindow(myOutBuffer, out);
+				if (myIsAtBlockBoundary && index.needsCheckpoint(myTotalOut)) {
+					final int bits = (int)(result >> 34) & 7;
+					final int value = bits > 0 ? myLastInByte : 0;
+					index.add(new DeflateIndex.Checkpoint(myTotalIn, myTotalOut, bits, value, window()));
+				}
+			}
 			if ((result & (1L << 32)) != 0) {
+				index.setComplete();
 				endInflating(myInflatorId);
 				myInflatorId = -1;
 				myStream.backSkip(myInBufferLength);
@@ -162,5 +285,6 @@ class DeflatingDecompressor extends Decompressor {
 
 	private native int startInflating();
 	private native void endInflating(int inflatorId);
-	private native long inflate(int inflatorId, byte[] in, int inOffset, int inLength, byte[] out);
+	private native long inflate(int inflatorId, byte[] in, int inOffset, int inLength, byte[] out, boolean stopAtBlock);
+	private native int resumeInflating(int inflatorId, int bits, int value, byte[] window);
 }
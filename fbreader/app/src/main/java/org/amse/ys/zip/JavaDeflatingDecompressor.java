@@ -0,0 +1,166 @@
+package org.amse.ys.zip;
+
+import java.io.*;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Decompressor based on java.util.zip.Inflater; works without the native library.
+ * It does not build the deflate index, so backward seeks restart inflating
+ * from the beginning of the entry
+ */
+class JavaDeflatingDecompressor extends Decompressor {
+	private static final int IN_BUFFER_SIZE = 16384;
+	private static final int OUT_BUFFER_SIZE = 32768;
+
+	private final Inflater myInflater = new Inflater(true);
+	private final byte[] myInBuffer = new byte[IN_BUFFER_SIZE];
+	private final byte[] myOutBuffer = new byte[OUT_BUFFER_SIZE];
+	private int myOutBufferOffset;
+	private int myOutBufferLength;
+
+	private MyBufferedInputStream myStream;
+	private LocalFileHeader myHeader;
+	private int myCompressedAvailable;
+	private int myAvailable;
+	private int myPosition;
+	private boolean myDummyByteIsSent;
+	private boolean myIsFinished;
+
+	public JavaDeflatingDecompressor(MyBufferedInputStream inputStream, LocalFileHeader header) {
+		super();
+		reset(inputStream, header);
+	}
+
+	void reset(MyBufferedInputStream inputStream, LocalFileHeader header) {
+		myInflater.reset();
+		myStream = inputStream;
+		myHeader = header;
+
+		myCompressedAvailable = header.CompressedSize;
+		if (myCompressedAvailable <= 0) {
+			myCompressedAvailable = Integer.MAX_VALUE;
+		}
+		myAvailable = header.UncompressedSize;
+		if (myAvailable <= 0) {
+			myAvailable = Integer.MAX_VALUE;
+		}
+		myPosition = 0;
+		myOutBufferOffset = 0;
+		myOutBufferLength = 0;
+		myDummyByteIsSent = false;
+		myIsFinished = false;
+	}
+
+	@Override
+	public int available() {
+		return myAvailable;
+	}
+
+	@Override
+	public int position() {
+		return myPosition;
+	}
+
+	@Override
+	public void seek(int position) throws IOException {
+		if (position < 0) {
+			position = 0;
+		}
+		if (position < myPosition) {
+			myStream.setPosition(myHeader.DataOffset);
+			reset(myStream, myHeader);
+		}
+		if (position > myPosition) {
+			read(null, 0, position - myPosition);
+		}
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (myAvailable <= 0) {
+			return -1;
+		}
+		if (len > myAvailable) {
+			len = myAvailable;
+		}
+		for (int toFill = len; toFill > 0; ) {
+			if (myOutBufferLength == 0) {
+				fillOutBuffer();
+			}
+			if (myOutBufferLength == 0) {
+				len -= toFill;
+				break;
+			}
+			final int ready = (toFill < myOutBufferLength) ? toFill : myOutBufferLength;
+			if (b != null) {
+				System.arraycopy(myOutBuffer, myOutBufferOffset, b, off, ready);
+			}
+			off += ready;
+			myOutBufferOffset += ready;
+			toFill -= ready;
+			myOutBufferLength -= ready;
+		}
+		if (len > 0) {
+			myAvailable -= len;
+			myPosition += len;
+		} else {
+			myAvailable = 0;
+		}
+		return len;
+	}
+
+	@Override
+	public int read() throws IOException {
+		if (myAvailable <= 0) {
+			return -1;
+		}
+		if (myOutBufferLength == 0) {
+			fillOutBuffer();
+		}
+		if (myOutBufferLength == 0) {
+			myAvailable = 0;
+			return -1;
+		}
+		--myAvailable;
+		++myPosition;
+		--myOutBufferLength;
+		return myOutBuffer[myOutBufferOffset++] & 0xFF;
+	}
+
+	private void fillOutBuffer() throws IOException {
+		myOutBufferOffset = 0;
+		while (myOutBufferLength == 0 && !myIsFinished) {
+			if (myInflater.needsInput()) {
+				final int toRead = Math.min(myCompressedAvailable, IN_BUFFER_SIZE);
+				final int ready = toRead > 0 ? myStream.read(myInBuffer, 0, toRead) : -1;
+				if (ready > 0) {
+					myCompressedAvailable -= ready;
+					myInflater.setInput(myInBuffer, 0, ready);
+				} else if (!myDummyByteIsSent) {
+					// "nowrap" inflater might need an extra byte after the compressed data
+					myDummyByteIsSent = true;
+					myCompressedAvailable = 0;
+					myInBuffer[0] = 0;
+					myInflater.setInput(myInBuffer, 0, 1);
+				} else {
+					myIsFinished = true;
+					break;
+				}
+			}
+			try {
+				myOutBufferLength = myInflater.inflate(myOutBuffer, 0, OUT_BUFFER_SIZE);
+			} catch (DataFormatException e) {
+				throw new ZipException("Cannot inflate zip-compressed block: " + e.getMessage());
+			}
+			if (myInflater.finished()) {
+				myIsFinished = true;
+				if (!myDummyByteIsSent) {
+					myStream.backSkip(myInflater.getRemaining());
+				}
+			} else if (myOutBufferLength == 0 && myInflater.needsDictionary()) {
+				throw new ZipException("Cannot inflate zip-compressed block: dictionary is required");
+			}
+		}
+	}
+}
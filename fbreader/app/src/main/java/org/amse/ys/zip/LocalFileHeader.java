@@ -28,10 +28,21 @@ public class LocalFileHeader {
 
 	public String FileName;
 	int DataOffset;
+	// offset of the local header, for entries read from the central directory
+	int HeaderOffset = -1;
+
+	private DeflateIndex myDeflateIndex;
 
 	LocalFileHeader() {
 	}
 
+	synchronized DeflateIndex deflateIndex() {
+		if (myDeflateIndex == null) {
+			myDeflateIndex = new DeflateIndex();
+		}
+		return myDeflateIndex;
+	}
+
 	void readFrom(MyBufferedInputStream stream) throws IOException {
 		Signature = stream.read4Bytes();
 		switch (Signature) {
@@ -91,4 +102,81 @@ public class LocalFileHeader {
 		}
 		DataOffset = stream.offset();
 	}
+
+	/**
+	 * Reads central directory record; DataOffset is unknown (-1) after this call,
+	 * it depends on the local header extra field length.
+	 */
+	boolean readFromCentralDirectory(MyBufferedInputStream stream) throws IOException {
+		Signature = stream.read4Bytes();
+		if (Signature != FOLDER_HEADER_SIGNATURE) {
+			return false;
+		}
+		stream.skip(2); // version made by
+		Version = stream.read2Bytes();
+		Flags = stream.read2Bytes();
+		CompressionMethod = stream.read2Bytes();
+		ModificationTime = stream.read2Bytes();
+		ModificationDate = stream.read2Bytes();
+		CRC32 = stream.read4Bytes();
+		long compressedSize = stream.read4Bytes() & 0xFFFFFFFFL;
+		long uncompressedSize = stream.read4Bytes() & 0xFFFFFFFFL;
+		NameLength = stream.read2Bytes();
+		ExtraLength = stream.read2Bytes();
+		final int commentLength = stream.read2Bytes();
+		stream.skip(8); // disk number, internal & external attributes
+		long headerOffset = stream.read4Bytes() & 0xFFFFFFFFL;
+		FileName = stream.readString(NameLength);
+
+		int extraLeft = ExtraLength;
+		while (extraLeft >= 4) {
+			final int id = stream.read2Bytes();
+			final int size = stream.read2Bytes();
+			extraLeft -= 4;
+			if (id == 0x0001) { // Zip64 extended information
+				int sizeLeft = size;
+				if (uncompressedSize == 0xFFFFFFFFL && sizeLeft >= 8) {
+					uncompressedSize = read8Bytes(stream);
+					sizeLeft -= 8;
+				}
+				if (compressedSize == 0xFFFFFFFFL && sizeLeft >= 8) {
+					compressedSize = read8Bytes(stream);
+					sizeLeft -= 8;
+				}
+				if (headerOffset == 0xFFFFFFFFL && sizeLeft >= 8) {
+					headerOffset = read8Bytes(stream);
+					sizeLeft -= 8;
+				}
+				stream.skip(sizeLeft);
+			} else {
+				stream.skip(size);
+			}
+			extraLeft -= size;
+		}
+		if (extraLeft > 0) {
+			stream.skip(extraLeft);
+		}
+		stream.skip(commentLength);
+
+		// positions are int in this implementation
+		if (compressedSize > Integer.MAX_VALUE ||
+			uncompressedSize > Integer.MAX_VALUE ||
+			headerOffset > Integer.MAX_VALUE) {
+			throw new ZipException("Entry " + FileName + " is too large");
+		}
+		CompressedSize = (int)compressedSize;
+		UncompressedSize = (int)uncompressedSize;
+		if (CompressionMethod == 0 && CompressedSize != UncompressedSize) {
+			CompressedSize = UncompressedSize;
+		}
+		HeaderOffset = (int)headerOffset;
+		DataOffset = -1;
+		return true;
+	}
+
+	static long read8Bytes(MyBufferedInputStream stream) throws IOException {
+		final long low = stream.read4Bytes() & 0xFFFFFFFFL;
+		final long high = stream.read4Bytes() & 0xFFFFFFFFL;
+		return (high << 32) + low;
+	}
 }
@@ -37,6 +37,22 @@ public final class NoCompressionDecompressor extends Decompressor {
 		}
 	}
 
+	@Override
+	public int position() {
+		return myCurrentPosition;
+	}
+
+	@Override
+	public void seek(int position) throws IOException {
+		if (position < 0) {
+			position = 0;
+		} else if (position > myHeader.UncompressedSize) {
+			position = myHeader.UncompressedSize;
+		}
+		myStream.setPosition(myHeader.DataOffset + position);
+		myCurrentPosition = position;
+	}
+
 	@Override
 	public int available() throws IOException {
 		return myHeader.UncompressedSize - myCurrentPosition;
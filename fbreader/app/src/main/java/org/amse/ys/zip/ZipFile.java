@@ -6,18 +6,20 @@ import java.util.*;
 import org.geometerplus.zlibrary.core.util.InputStreamHolder;
 
 public final class ZipFile {
-	private final static Comparator<String> ourIgnoreCaseComparator = new Comparator<String>() {
-		@Override
-		public final int compare(String s0, String s1) {
-			return s0.compareToIgnoreCase(s1);
-		}
-	};
+	private static final int END_OF_CENTRAL_DIRECTORY_SIZE = 22;
+	private static final int MAX_COMMENT_LENGTH = 0xFFFF;
+	private static final int ZIP64_LOCATOR_SIGNATURE = 0x07064b50;
+	private static final int ZIP64_LOCATOR_SIZE = 20;
+	private static final int ZIP64_END_OF_CENTRAL_DIRECTORY_SIGNATURE = 0x06064b50;
+	private static final int ZIP64_END_OF_CENTRAL_DIRECTORY_SIZE = 56;
 
 	private final InputStreamHolder myStreamHolder;
+	// keys are lower-cased entry names, entry names are case-insensitive
 	private final Map<String,LocalFileHeader> myFileHeaders =
-		new TreeMap<String,LocalFileHeader>(ourIgnoreCaseComparator);
+		new LinkedHashMap<String,LocalFileHeader>();
 
 	private boolean myAllFilesAreRead;
+	private boolean myCentralDirectoryIsRead;
 
 	public ZipFile(final String fileName) {
 		this(new InputStreamHolder() {
@@ -39,12 +41,16 @@ public final class ZipFile {
 		myStreamHolder = streamHolder;
 	}
 
-	public Collection<LocalFileHeader> headers() {
+	private static String key(String entryName) {
+		return entryName.toLowerCase(Locale.ENGLISH);
+	}
+
+	public synchronized Collection<LocalFileHeader> headers() {
 		try {
 			readAllHeaders();
 		} catch (IOException e) {
 		}
-		return myFileHeaders.values();
+		return new ArrayList<LocalFileHeader>(myFileHeaders.values());
 	}
 
 	private boolean readFileHeader(MyBufferedInputStream baseStream, String fileToFind) throws IOException {
@@ -55,7 +61,7 @@ public final class ZipFile {
 			return false;
 		}
 		if (header.FileName != null) {
-			myFileHeaders.put(header.FileName, header);
+			myFileHeaders.put(key(header.FileName), header);
 			if (header.FileName.equalsIgnoreCase(fileToFind)) {
 				return true;
 			}
@@ -72,6 +78,9 @@ public final class ZipFile {
 		if (myAllFilesAreRead) {
 			return;
 		}
+		if (readCentralDirectory()) {
+			return;
+		}
 		myAllFilesAreRead = true;
 
 		MyBufferedInputStream baseStream = getBaseStream();
@@ -87,6 +96,156 @@ public final class ZipFile {
 		}
 	}
 
+	private static int get2Bytes(byte[] data, int offset) {
+		return (data[offset] & 0xFF) + ((data[offset + 1] & 0xFF) << 8);
+	}
+
+	private static long get4Bytes(byte[] data, int offset) {
+		return get2Bytes(data, offset) + ((long)get2Bytes(data, offset + 2) << 16);
+	}
+
+	private static long get8Bytes(byte[] data, int offset) {
+		return get4Bytes(data, offset) + (get4Bytes(data, offset + 4) << 32);
+	}
+
+	private static boolean readFully(MyBufferedInputStream stream, byte[] data) throws IOException {
+		int offset = 0;
+		while (offset < data.length) {
+			final int ready = stream.read(data, offset, data.length - offset);
+			if (ready <= 0) {
+				return false;
+			}
+			offset += ready;
+		}
+		return true;
+	}
+
+	/**
+	 * Builds the index from the central directory (zip64 archives are supported too);
+	 * entry data offsets are resolved from local headers on demand.
+	 * Returns false if the archive has no consistent central directory; in this case
+	 * headers should be collected by scanning the archive from the beginning
+	 */
+	private boolean readCentralDirectory() {
+		if (myCentralDirectoryIsRead) {
+			return myAllFilesAreRead;
+		}
+		myCentralDirectoryIsRead = true;
+
+		final Map<String,LocalFileHeader> headers = new LinkedHashMap<String,LocalFileHeader>();
+		MyBufferedInputStream baseStream = null;
+		try {
+			baseStream = getBaseStream();
+			baseStream.setPosition(0);
+			final int length = baseStream.available();
+			if (length < END_OF_CENTRAL_DIRECTORY_SIZE || length == Integer.MAX_VALUE) {
+				return false;
+			}
+
+			final int tailLength =
+				Math.min(length, END_OF_CENTRAL_DIRECTORY_SIZE + MAX_COMMENT_LENGTH);
+			final int tailOffset = length - tailLength;
+			final byte[] tail = new byte[tailLength];
+			baseStream.setPosition(tailOffset);
+			if (!readFully(baseStream, tail)) {
+				return false;
+			}
+
+			int end = -1;
+			for (int i = tailLength - END_OF_CENTRAL_DIRECTORY_SIZE; i >= 0; --i) {
+				if (get4Bytes(tail, i) == LocalFileHeader.END_OF_CENTRAL_DIRECTORY_SIGNATURE &&
+					i + END_OF_CENTRAL_DIRECTORY_SIZE + get2Bytes(tail, i + 20) <= tailLength) {
+					end = i;
+					break;
+				}
+			}
+			if (end == -1) {
+				return false;
+			}
+
+			long directoryEnd = tailOffset + end;
+			long directorySize = get4Bytes(tail, end + 12);
+			long directoryOffset = get4Bytes(tail, end + 16);
+			if (get2Bytes(tail, end + 10) == 0xFFFF ||
+				directorySize == 0xFFFFFFFFL ||
+				directoryOffset == 0xFFFFFFFFL) {
+				final int locator = end - ZIP64_LOCATOR_SIZE;
+				if (locator < 0 || get4Bytes(tail, locator) != ZIP64_LOCATOR_SIGNATURE) {
+					return false;
+				}
+				final long zip64End = get8Bytes(tail, locator + 8);
+				if (zip64End < 0 || zip64End + ZIP64_END_OF_CENTRAL_DIRECTORY_SIZE > directoryEnd) {
+					return false;
+				}
+				final byte[] record = new byte[ZIP64_END_OF_CENTRAL_DIRECTORY_SIZE];
+				baseStream.setPosition((int)zip64End);
+				if (!readFully(baseStream, record) ||
+					get4Bytes(record, 0) != ZIP64_END_OF_CENTRAL_DIRECTORY_SIGNATURE) {
+					return false;
+				}
+				directoryEnd = zip64End;
+				directorySize = get8Bytes(record, 40);
+				directoryOffset = get8Bytes(record, 48);
+			}
+
+			// non-zero for archives with prepended data (e.g. self-extracting ones)
+			final long shift = directoryEnd - directoryOffset - directorySize;
+			if (directorySize < 0 || directoryOffset < 0 || shift < 0) {
+				return false;
+			}
+			final int directoryStart = (int)(directoryOffset + shift);
+
+			baseStream.setPosition(directoryStart);
+			while (baseStream.offset() < directoryEnd) {
+				final LocalFileHeader header = new LocalFileHeader();
+				if (!header.readFromCentralDirectory(baseStream)) {
+					return false;
+				}
+				final long headerOffset = header.HeaderOffset + shift;
+				if (headerOffset >= directoryStart) {
+					return false;
+				}
+				header.HeaderOffset = (int)headerOffset;
+				if (header.FileName != null) {
+					headers.put(key(header.FileName), header);
+				}
+			}
+			if (baseStream.offset() != directoryEnd) {
+				return false;
+			}
+		} catch (IOException e) {
+			return false;
+		} finally {
+			if (baseStream != null) {
+				storeBaseStream(baseStream);
+			}
+		}
+
+		myFileHeaders.clear();
+		myFileHeaders.putAll(headers);
+		myAllFilesAreRead = true;
+		return true;
+	}
+
+	private void resolveDataOffset(LocalFileHeader header) throws IOException {
+		if (header.DataOffset >= 0) {
+			return;
+		}
+		final MyBufferedInputStream baseStream = getBaseStream();
+		try {
+			baseStream.setPosition(header.HeaderOffset);
+			if (baseStream.read4Bytes() != LocalFileHeader.FILE_HEADER_SIGNATURE) {
+				throw new ZipException("Local header for " + header.FileName + " is not found");
+			}
+			baseStream.skip(22);
+			final int nameLength = baseStream.read2Bytes();
+			final int extraLength = baseStream.read2Bytes();
+			header.DataOffset = header.HeaderOffset + 30 + nameLength + extraLength;
+		} finally {
+			storeBaseStream(baseStream);
+		}
+	}
+
 	/**
 	 * Finds descriptor of the last header and installs sizes of files
 	 */
@@ -119,6 +278,7 @@ public final class ZipFile {
 	}
 
 	private ZipInputStream createZipInputStream(LocalFileHeader header) throws IOException {
+		resolveDataOffset(header);
 		return new ZipInputStream(this, header);
 	}
 
@@ -138,9 +298,11 @@ public final class ZipFile {
 		return createZipInputStream(getHeader(entryName));
 	}
 
-	public LocalFileHeader getHeader(String entryName) throws IOException {
+	public synchronized LocalFileHeader getHeader(String entryName) throws IOException {
+		final String key = key(entryName);
+		readCentralDirectory();
 		if (!myFileHeaders.isEmpty()) {
-			LocalFileHeader header = myFileHeaders.get(entryName);
+			LocalFileHeader header = myFileHeaders.get(key);
 			if (header != null) {
 				return header;
 			}
@@ -154,7 +316,7 @@ public final class ZipFile {
 		try {
 			while (baseStream.available() > 0 && !readFileHeader(baseStream, entryName)) {
 			}
-			final LocalFileHeader header = myFileHeaders.get(entryName);
+			final LocalFileHeader header = myFileHeaders.get(key);
 			if (header != null) {
 				return header;
 			}
@@ -38,6 +38,28 @@ class ZipInputStream extends InputStream {
 		return myDecompressor.read();
 	}
 
+	@Override
+	public long skip(long n) throws IOException {
+		if (n <= 0) {
+			return 0;
+		}
+		final int start = myDecompressor.position();
+		myDecompressor.seek((int)Math.min(start + n, Integer.MAX_VALUE));
+		return myDecompressor.position() - start;
+	}
+
+	public int position() {
+		return myDecompressor.position();
+	}
+
+	/**
+	 * Moves to the given offset in the entry; for deflated entries
+	 * this is cheap for backward moves and for positions read before
+	 */
+	public void seek(int position) throws IOException {
+		myDecompressor.seek(position);
+	}
+
 	@Override
 	public void close() throws IOException {
 		if (!myIsClosed) {
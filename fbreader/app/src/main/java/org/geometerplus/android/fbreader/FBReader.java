@@ -41,6 +41,7 @@ import org.geometerplus.zlibrary.core.resources.ZLResource;
 import org.geometerplus.zlibrary.core.view.ZLViewWidget;
 
 import org.geometerplus.zlibrary.text.view.ZLTextRegion;
+import org.geometerplus.zlibrary.text.view.ZLTextSearchSession;
 import org.geometerplus.zlibrary.text.view.ZLTextView;
 
 import org.geometerplus.zlibrary.ui.android.R;
@@ -373,18 +374,26 @@ public final class FBReader extends FBReaderMainActivity implements ZLApplicatio
 			new RunPluginAction(this, myFBReaderApp, data).run();
 		} else if (Intent.ACTION_SEARCH.equals(action)) {
 			final String pattern = intent.getStringExtra(SearchManager.QUERY);
-			final Runnable runnable = new Runnable() {
-				public void run() {
-					final TextSearchPopup popup = (TextSearchPopup)myFBReaderApp.getPopupById(TextSearchPopup.ID);
-					popup.initPosition();
-					myFBReaderApp.MiscOptions.TextSearchPattern.setValue(pattern);
-					if (myFBReaderApp.getTextView().search(pattern, true, false, false, false) != 0) {
+			final TextSearchPopup popup = (TextSearchPopup)myFBReaderApp.getPopupById(TextSearchPopup.ID);
+			popup.initPosition();
+			myFBReaderApp.MiscOptions.TextSearchPattern.setValue(pattern);
+			myFBReaderApp.getTextView().startSearch(pattern, true, new ZLTextSearchSession.Listener() {
+				private boolean myPopupIsShown;
+
+				public void onMarksFound(ZLTextSearchSession session, int totalCount) {
+					if (!myPopupIsShown) {
+						myPopupIsShown = true;
+						myFBReaderApp.getTextView().gotoNearestMark();
 						runOnUiThread(new Runnable() {
 							public void run() {
 								myFBReaderApp.showPopup(popup.getId());
 							}
 						});
-					} else {
+					}
+				}
+
+				public void onFinished(ZLTextSearchSession session, int totalCount) {
+					if (totalCount == 0 && !session.isCancelled()) {
 						runOnUiThread(new Runnable() {
 							public void run() {
 								UIMessageUtil.showErrorMessage(FBReader.this, "textNotFound");
@@ -393,8 +402,7 @@ public final class FBReader extends FBReaderMainActivity implements ZLApplicatio
 						});
 					}
 				}
-			};
-			UIUtil.wait("search", runnable, this);
+			});
 		} else if (FBReaderIntents.Action.CLOSE.equals(intent.getAction())) {
 			myCancelIntent = intent;
 			myOpenBookIntent = null;
@@ -85,8 +85,9 @@ public abstract class FBReaderIntents {
 		return new Intent(action).setPackage(DEFAULT_PACKAGE);
 	}
 
+	// intents may be received by plugins, so they carry XML
 	public static void putBookExtra(Intent intent, String key, Book book) {
-		intent.putExtra(key, SerializerUtil.serialize(book));
+		intent.putExtra(key, SerializerUtil.serializeAsXml(book));
 	}
 
 	public static void putBookExtra(Intent intent, Book book) {
@@ -102,7 +103,7 @@ public abstract class FBReaderIntents {
 	}
 
 	public static void putBookmarkExtra(Intent intent, String key, Bookmark bookmark) {
-		intent.putExtra(key, SerializerUtil.serialize(bookmark));
+		intent.putExtra(key, SerializerUtil.serializeAsXml(bookmark));
 	}
 
 	public static void putBookmarkExtra(Intent intent, Bookmark bookmark) {
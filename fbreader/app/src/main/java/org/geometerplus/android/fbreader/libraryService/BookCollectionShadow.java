@@ -144,6 +144,39 @@ public class BookCollectionShadow extends AbstractBookCollection<Book> implement
 		});
 	}
 
+	public synchronized BookQuery books(BookQuery query, List<Book> books) {
+		if (myInterface == null) {
+			return null;
+		}
+		try {
+			final List<String> portion = new ArrayList<String>();
+			final String next = myInterface.booksPortion(SerializerUtil.serialize(query), portion);
+			books.addAll(SerializerUtil.deserializeBookList(portion, this));
+			return next != null ? SerializerUtil.deserializeBookQuery(next) : null;
+		} catch (RemoteException e) {
+			return null;
+		}
+	}
+
+	public synchronized void streamBooks(BookQuery query, final BooksConsumer<Book> consumer) {
+		if (myInterface == null) {
+			return;
+		}
+		try {
+			// the portions are delivered by nested calls on this thread
+			// before streamBooks() returns
+			myInterface.streamBooks(SerializerUtil.serialize(query), new BookListConsumer.Stub() {
+				public boolean onBooks(List<String> books) {
+					return consumer.onBooks(
+						SerializerUtil.deserializeBookList(books, BookCollectionShadow.this)
+					);
+				}
+			});
+		} catch (RemoteException e) {
+			// ignore
+		}
+	}
+
 	public synchronized boolean hasBooks(Filter filter) {
 		if (myInterface == null) {
 			return false;
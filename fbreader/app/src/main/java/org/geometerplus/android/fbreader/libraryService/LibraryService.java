@@ -24,8 +24,12 @@ import java.util.*;
 import android.app.Service;
 import android.content.Intent;
 import android.graphics.Bitmap;
-import android.os.IBinder;
+import android.os.Binder;
 import android.os.FileObserver;
+import android.os.IBinder;
+import android.os.Parcel;
+import android.os.Process;
+import android.os.RemoteException;
 
 import org.geometerplus.zlibrary.core.options.Config;
 
@@ -103,6 +107,20 @@ public class LibraryService extends Service {
 			reset(true);
 		}
 
+		@Override
+		public boolean onTransact(int code, Parcel data, Parcel reply, int flags) throws RemoteException {
+			if (Binder.getCallingUid() == Process.myUid()) {
+				return super.onTransact(code, data, reply, flags);
+			}
+			// a call from a plugin; plugins can read XML only
+			SerializerUtil.setXmlMode(true);
+			try {
+				return super.onTransact(code, data, reply, flags);
+			} finally {
+				SerializerUtil.setXmlMode(false);
+			}
+		}
+
 		public void reset(final boolean force) {
 			Config.Instance().runOnConnect(new Runnable() {
 				public void run() {
@@ -136,7 +154,8 @@ public class LibraryService extends Service {
 				public void onBookEvent(BookEvent event, DbBook book) {
 					final Intent intent = new Intent(FBReaderIntents.Event.LIBRARY_BOOK);
 					intent.putExtra("type", event.toString());
-					intent.putExtra("book", SerializerUtil.serialize(book));
+					// broadcasts are received by plugins too
+					intent.putExtra("book", SerializerUtil.serializeAsXml(book));
 					sendBroadcast(intent);
 				}
 
@@ -169,6 +188,28 @@ public class LibraryService extends Service {
 			);
 		}
 
+		public String booksPortion(String query, List<String> books) {
+			final List<DbBook> portion = new ArrayList<DbBook>();
+			final BookQuery next = myCollection.books(SerializerUtil.deserializeBookQuery(query), portion);
+			books.addAll(SerializerUtil.serializeBookList(portion));
+			return next != null ? SerializerUtil.serialize(next) : null;
+		}
+
+		public void streamBooks(String query, final BookListConsumer consumer) {
+			myCollection.streamBooks(
+				SerializerUtil.deserializeBookQuery(query),
+				new IBookCollection.BooksConsumer<DbBook>() {
+					public boolean onBooks(List<DbBook> books) {
+						try {
+							return consumer.onBooks(SerializerUtil.serializeBookList(books));
+						} catch (RemoteException e) {
+							return false;
+						}
+					}
+				}
+			);
+		}
+
 		public boolean hasBooks(String query) {
 			return myCollection.hasBooks(SerializerUtil.deserializeBookQuery(query).Filter);
 		}
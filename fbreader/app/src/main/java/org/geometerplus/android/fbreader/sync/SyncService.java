@@ -234,15 +234,17 @@ public class SyncService extends Service implements IBookCollection.Listener<Boo
 						final Map<Status,Integer> statusCounts = new HashMap<Status,Integer>();
 						try {
 							myHashesFromServer.clear();
-							for (BookQuery q = new BookQuery(new Filter.Empty(), 20);; q = q.next()) {
-								final List<Book> books = myCollection.books(q);
-								if (books.isEmpty()) {
-									break;
-								}
-								for (Book b : books) {
-									addBook(b);
+							myCollection.streamBooks(
+								new BookQuery(new Filter.Empty(), 20),
+								new IBookCollection.BooksConsumer<Book>() {
+									public boolean onBooks(List<Book> books) {
+										for (Book b : books) {
+											addBook(b);
+										}
+										return true;
+									}
 								}
-							}
+							);
 							Status status = null;
 							while (!myQueue.isEmpty() && status != Status.AuthenticationError) {
 								final Book book = myQueue.remove(0);
@@ -381,23 +381,25 @@ public abstract class AbstractBook extends TitledEntity<AbstractBook> {
 		myProgress = progress;
 	}
 
+	// case and diacritics insensitive, consistent with the library search index
 	public boolean matches(String pattern) {
-		if (MiscUtil.matchesIgnoreCase(getTitle(), pattern)) {
+		pattern = BookSearchIndex.normalize(pattern);
+		if (matchesNormalized(getTitle(), pattern)) {
 			return true;
 		}
-		if (mySeriesInfo != null && MiscUtil.matchesIgnoreCase(mySeriesInfo.Series.getTitle(), pattern)) {
+		if (mySeriesInfo != null && matchesNormalized(mySeriesInfo.Series.getTitle(), pattern)) {
 			return true;
 		}
 		if (myAuthors != null) {
 			for (Author author : myAuthors) {
-				if (MiscUtil.matchesIgnoreCase(author.DisplayName, pattern)) {
+				if (matchesNormalized(author.DisplayName, pattern)) {
 					return true;
 				}
 			}
 		}
 		if (myTags != null) {
 			for (Tag tag : myTags) {
-				if (MiscUtil.matchesIgnoreCase(tag.Name, pattern)) {
+				if (matchesNormalized(tag.Name, pattern)) {
 					return true;
 				}
 			}
@@ -413,12 +415,18 @@ public abstract class AbstractBook extends TitledEntity<AbstractBook> {
 			index = fileName.lastIndexOf("/", index);
 		}
 		fileName = fileName.substring(index + 1);
-		if (MiscUtil.matchesIgnoreCase(fileName, pattern)) {
+		if (matchesNormalized(fileName, pattern)) {
 			return true;
 		}
 		return false;
 	}
 
+	private static boolean matchesNormalized(String text, String normalizedPattern) {
+		// normalization keeps the length
+		return text.length() >= normalizedPattern.length() &&
+			BookSearchIndex.normalize(text).contains(normalizedPattern);
+	}
+
 	@Override
 	public String toString() {
 		return getClass().getName() + "[" + getPath() + ", " + myId + ", " + getTitle() + "]";
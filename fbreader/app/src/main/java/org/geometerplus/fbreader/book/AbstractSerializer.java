@@ -19,6 +19,8 @@
 
 package org.geometerplus.fbreader.book;
 
+import java.util.*;
+
 public abstract class AbstractSerializer {
 	public interface BookCreator<B extends AbstractBook> {
 		B createBook(long id, String url, String title, String encoding, String language);
@@ -33,6 +35,19 @@ public abstract class AbstractSerializer {
 	public abstract String serialize(AbstractBook book);
 	public abstract <B extends AbstractBook> B deserializeBook(String data, BookCreator<B> creator);
 
+	public List<String> serializeBookList(List<? extends AbstractBook> books) {
+		final List<String> serialized = new ArrayList<String>(books.size());
+		for (AbstractBook b : books) {
+			serialized.add(serialize(b));
+		}
+		return serialized;
+	}
+
+	public <B extends AbstractBook> List<B> deserializeBookList(String data, BookCreator<B> creator) {
+		final B book = deserializeBook(data, creator);
+		return book != null ? Collections.singletonList(book) : Collections.<B>emptyList();
+	}
+
 	public abstract String serialize(Bookmark bookmark);
 	public abstract Bookmark deserializeBookmark(String data);
 
@@ -0,0 +1,662 @@
+/*
+ * Copyright (C) 2007-2015 FBReader.ORG Limited <contact@fbreader.org>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA.
+ */
+
+package org.geometerplus.fbreader.book;
+
+import java.util.*;
+
+import org.geometerplus.zlibrary.core.util.RationalNumber;
+import org.geometerplus.zlibrary.core.util.ZLColor;
+
+import org.geometerplus.zlibrary.text.view.ZLTextPosition;
+
+/**
+ * Compact serializer for the library service calls. The data are packed
+ * into the 16-bit chars of a string, so they cross the binder as is,
+ * without any encoding. Every record starts with a signature, the format
+ * version and the record type; strings, authors and tags are written once
+ * per record and referenced by index after that.
+ */
+class BinarySerializer extends AbstractSerializer {
+	private static final char SIGNATURE = '\uFBFB';
+	private static final char VERSION = 1;
+
+	private static final char BOOK = 1;
+	private static final char BOOK_LIST = 2;
+	private static final char BOOK_QUERY = 3;
+	private static final char BOOKMARK_QUERY = 4;
+	private static final char BOOKMARK = 5;
+	private static final char STYLE = 6;
+
+	private static final char FILTER_EMPTY = 0;
+	private static final char FILTER_NOT = 1;
+	private static final char FILTER_AND = 2;
+	private static final char FILTER_OR = 3;
+	private static final char FILTER_AUTHOR = 4;
+	private static final char FILTER_TAG = 5;
+	private static final char FILTER_LABEL = 6;
+	private static final char FILTER_SERIES = 7;
+	private static final char FILTER_PATTERN = 8;
+	private static final char FILTER_TITLE_PREFIX = 9;
+	private static final char FILTER_HAS_BOOKMARK = 10;
+	private static final char FILTER_HAS_PHYSICAL_FILE = 11;
+
+	static boolean isBinary(String data) {
+		return data.length() > 0 && data.charAt(0) == SIGNATURE;
+	}
+
+	@Override
+	public String serialize(BookQuery query) {
+		final Writer writer = new Writer(BOOK_QUERY);
+		writeFilter(writer, query.Filter);
+		writer.writeInt(query.Limit);
+		writer.writeInt(query.Page);
+		writer.writeLong(query.Cursor);
+		return writer.toString();
+	}
+
+	private void writeFilter(Writer writer, Filter filter) {
+		if (filter instanceof Filter.Empty) {
+			writer.writeChar(FILTER_EMPTY);
+		} else if (filter instanceof Filter.Not) {
+			writer.writeChar(FILTER_NOT);
+			writeFilter(writer, ((Filter.Not)filter).Base);
+		} else if (filter instanceof Filter.And) {
+			writer.writeChar(FILTER_AND);
+			writeFilter(writer, ((Filter.And)filter).First);
+			writeFilter(writer, ((Filter.And)filter).Second);
+		} else if (filter instanceof Filter.Or) {
+			writer.writeChar(FILTER_OR);
+			writeFilter(writer, ((Filter.Or)filter).First);
+			writeFilter(writer, ((Filter.Or)filter).Second);
+		} else if (filter instanceof Filter.ByAuthor) {
+			writer.writeChar(FILTER_AUTHOR);
+			writer.writeAuthor(((Filter.ByAuthor)filter).Author);
+		} else if (filter instanceof Filter.ByTag) {
+			writer.writeChar(FILTER_TAG);
+			writer.writeTag(((Filter.ByTag)filter).Tag);
+		} else if (filter instanceof Filter.ByLabel) {
+			writer.writeChar(FILTER_LABEL);
+			writer.writeString(((Filter.ByLabel)filter).Label);
+		} else if (filter instanceof Filter.BySeries) {
+			writer.writeChar(FILTER_SERIES);
+			writer.writeString(((Filter.BySeries)filter).Series.getTitle());
+		} else if (filter instanceof Filter.ByPattern) {
+			writer.writeChar(FILTER_PATTERN);
+			writer.writeString(((Filter.ByPattern)filter).Pattern);
+		} else if (filter instanceof Filter.ByTitlePrefix) {
+			writer.writeChar(FILTER_TITLE_PREFIX);
+			writer.writeString(((Filter.ByTitlePrefix)filter).Prefix);
+		} else if (filter instanceof Filter.HasBookmark) {
+			writer.writeChar(FILTER_HAS_BOOKMARK);
+		} else if (filter instanceof Filter.HasPhysicalFile) {
+			writer.writeChar(FILTER_HAS_PHYSICAL_FILE);
+		} else {
+			throw new RuntimeException("Unsupported filter type: " + filter.getClass());
+		}
+	}
+
+	@Override
+	public BookQuery deserializeBookQuery(String data) {
+		try {
+			final Reader reader = new Reader(data, BOOK_QUERY);
+			final Filter filter = readFilter(reader);
+			final int limit = reader.readInt();
+			final int page = reader.readInt();
+			final long cursor = reader.readLong();
+			return limit > 0 && page >= 0 ? new BookQuery(filter, limit, page, cursor) : null;
+		} catch (FormatException e) {
+			e.printStackTrace();
+			return null;
+		}
+	}
+
+	private Filter readFilter(Reader reader) throws FormatException {
+		switch (reader.readChar()) {
+			case FILTER_EMPTY:
+				return new Filter.Empty();
+			case FILTER_NOT:
+				return new Filter.Not(readFilter(reader));
+			case FILTER_AND:
+			{
+				final Filter first = readFilter(reader);
+				return new Filter.And(first, readFilter(reader));
+			}
+			case FILTER_OR:
+			{
+				final Filter first = readFilter(reader);
+				return new Filter.Or(first, readFilter(reader));
+			}
+			case FILTER_AUTHOR:
+				return new Filter.ByAuthor(reader.readAuthor());
+			case FILTER_TAG:
+				return new Filter.ByTag(reader.readTag());
+			case FILTER_LABEL:
+				return new Filter.ByLabel(reader.readString());
+			case FILTER_SERIES:
+				return new Filter.BySeries(new Series(reader.readString()));
+			case FILTER_PATTERN:
+				return new Filter.ByPattern(reader.readString());
+			case FILTER_TITLE_PREFIX:
+				return new Filter.ByTitlePrefix(reader.readString());
+			case FILTER_HAS_BOOKMARK:
+				return new Filter.HasBookmark();
+			case FILTER_HAS_PHYSICAL_FILE:
+				return new Filter.HasPhysicalFile();
+			default:
+				throw new FormatException("Unknown filter type");
+		}
+	}
+
+	@Override
+	public String serialize(BookmarkQuery query) {
+		final Writer writer = new Writer(BOOKMARK_QUERY);
+		writer.writeBoolean(query.Book != null);
+		if (query.Book != null) {
+			writeBook(writer, query.Book);
+		}
+		writer.writeBoolean(query.Visible);
+		writer.writeInt(query.Limit);
+		writer.writeInt(query.Page);
+		return writer.toString();
+	}
+
+	@Override
+	public BookmarkQuery deserializeBookmarkQuery(String data, BookCreator<? extends AbstractBook> creator) {
+		try {
+			final Reader reader = new Reader(data, BOOKMARK_QUERY);
+			final AbstractBook book = reader.readBoolean() ? readBook(reader, creator) : null;
+			final boolean visible = reader.readBoolean();
+			final int limit = reader.readInt();
+			return new BookmarkQuery(book, visible, limit, reader.readInt());
+		} catch (FormatException e) {
+			e.printStackTrace();
+			return null;
+		}
+	}
+
+	@Override
+	public String serialize(AbstractBook book) {
+		final Writer writer = new Writer(BOOK);
+		writeBook(writer, book);
+		return writer.toString();
+	}
+
+	@Override
+	public List<String> serializeBookList(List<? extends AbstractBook> books) {
+		if (books.isEmpty()) {
+			return Collections.emptyList();
+		}
+		// a single record shares the string, author and tag tables between the books
+		final Writer writer = new Writer(BOOK_LIST);
+		writer.writeSize(books.size());
+		for (AbstractBook b : books) {
+			writeBook(writer, b);
+		}
+		return Collections.singletonList(writer.toString());
+	}
+
+	private void writeBook(Writer writer, AbstractBook book) {
+		writer.writeLong(book.getId());
+		writer.writeString(book.getPath());
+		writer.writeString(book.getTitle());
+		writer.writeString(book.getLanguage());
+		writer.writeString(book.getEncodingNoDetection());
+
+		final List<UID> uids = book.uids();
+		writer.writeSize(uids.size());
+		for (UID uid : uids) {
+			writer.writeString(uid.Type);
+			writer.writeString(uid.Id);
+		}
+
+		final List<Author> authors = book.authors();
+		writer.writeSize(authors.size());
+		for (Author author : authors) {
+			writer.writeAuthor(author);
+		}
+
+		final List<Tag> tags = book.tags();
+		writer.writeSize(tags.size());
+		for (Tag tag : tags) {
+			writer.writeTag(tag);
+		}
+
+		final List<Label> labels = book.labels();
+		writer.writeSize(labels.size());
+		for (Label label : labels) {
+			writer.writeString(label.Uid);
+			writer.writeString(label.Name);
+		}
+
+		final SeriesInfo seriesInfo = book.getSeriesInfo();
+		writer.writeString(seriesInfo != null ? seriesInfo.Series.getTitle() : null);
+		writer.writeString(seriesInfo != null && seriesInfo.Index != null
+			? seriesInfo.Index.toPlainString() : null);
+
+		writer.writeBoolean(book.HasBookmark);
+
+		final RationalNumber progress = book.getProgress();
+		writer.writeBoolean(progress != null);
+		if (progress != null) {
+			writer.writeLong(progress.Numerator);
+			writer.writeLong(progress.Denominator);
+		}
+	}
+
+	@Override
+	public <B extends AbstractBook> B deserializeBook(String data, BookCreator<B> creator) {
+		try {
+			return readBook(new Reader(data, BOOK), creator);
+		} catch (FormatException e) {
+			e.printStackTrace();
+			return null;
+		}
+	}
+
+	@Override
+	public <B extends AbstractBook> List<B> deserializeBookList(String data, BookCreator<B> creator) {
+		if (data.length() > 2 && data.charAt(2) == BOOK) {
+			return super.deserializeBookList(data, creator);
+		}
+		try {
+			final Reader reader = new Reader(data, BOOK_LIST);
+			final int count = reader.readSize();
+			final List<B> books = new ArrayList<B>(Math.min(count, data.length()));
+			for (int i = 0; i < count; ++i) {
+				books.add(readBook(reader, creator));
+			}
+			return books;
+		} catch (FormatException e) {
+			e.printStackTrace();
+			return Collections.emptyList();
+		}
+	}
+
+	private <B extends AbstractBook> B readBook(Reader reader, BookCreator<B> creator) throws FormatException {
+		final long id = reader.readLong();
+		final String path = reader.readString();
+		final String title = reader.readString();
+		final String language = reader.readString();
+		final String encoding = reader.readString();
+		final B book = creator.createBook(id, "file://" + path, title, encoding, language);
+
+		for (int count = reader.readSize(); count > 0; --count) {
+			final String type = reader.readString();
+			book.addUidWithNoCheck(new UID(type, reader.readString()));
+		}
+		for (int count = reader.readSize(); count > 0; --count) {
+			book.addAuthorWithNoCheck(reader.readAuthor());
+		}
+		for (int count = reader.readSize(); count > 0; --count) {
+			book.addTagWithNoCheck(reader.readTag());
+		}
+		for (int count = reader.readSize(); count > 0; --count) {
+			final String uid = reader.readString();
+			final String name = reader.readString();
+			book.addLabelWithNoCheck(uid != null ? new Label(uid, name) : new Label(name));
+		}
+
+		final String seriesTitle = reader.readString();
+		book.setSeriesInfoWithNoCheck(seriesTitle, reader.readString());
+
+		book.HasBookmark = reader.readBoolean();
+
+		if (reader.readBoolean()) {
+			final long numerator = reader.readLong();
+			book.setProgressWithNoCheck(RationalNumber.create(numerator, reader.readLong()));
+		}
+		return book;
+	}
+
+	@Override
+	public String serialize(Bookmark bookmark) {
+		final Writer writer = new Writer(BOOKMARK);
+		writer.writeLong(bookmark.getId());
+		writer.writeString(bookmark.Uid);
+		writer.writeString(bookmark.getVersionUid());
+		writer.writeBoolean(bookmark.IsVisible);
+		writer.writeLong(bookmark.BookId);
+		writer.writeString(bookmark.BookTitle);
+		writer.writeString(bookmark.getText());
+		writer.writeString(bookmark.getOriginalText());
+		writer.writeLong(bookmark.getTimestamp(Bookmark.DateType.Creation));
+		writer.writeNullableLong(bookmark.getTimestamp(Bookmark.DateType.Modification));
+		writer.writeNullableLong(bookmark.getTimestamp(Bookmark.DateType.Access));
+		writer.writeString(bookmark.ModelId);
+		writer.writeInt(bookmark.getParagraphIndex());
+		writer.writeInt(bookmark.getElementIndex());
+		writer.writeInt(bookmark.getCharIndex());
+		final ZLTextPosition end = bookmark.getEnd();
+		writer.writeBoolean(end != null);
+		if (end != null) {
+			writer.writeInt(end.getParagraphIndex());
+			writer.writeInt(end.getElementIndex());
+			writer.writeInt(end.getCharIndex());
+		} else {
+			writer.writeInt(bookmark.getLength());
+		}
+		writer.writeInt(bookmark.getStyleId());
+		return writer.toString();
+	}
+
+	@Override
+	public Bookmark deserializeBookmark(String data) {
+		try {
+			final Reader reader = new Reader(data, BOOKMARK);
+			final long id = reader.readLong();
+			final String uid = reader.readString();
+			final String versionUid = reader.readString();
+			final boolean visible = reader.readBoolean();
+			final long bookId = reader.readLong();
+			final String bookTitle = reader.readString();
+			final String text = reader.readString();
+			final String originalText = reader.readString();
+			final long creationTimestamp = reader.readLong();
+			final Long modificationTimestamp = reader.readNullableLong();
+			final Long accessTimestamp = reader.readNullableLong();
+			final String modelId = reader.readString();
+			final int startParagraphIndex = reader.readInt();
+			final int startElementIndex = reader.readInt();
+			final int startCharIndex = reader.readInt();
+			final int endParagraphIndex;
+			final int endElementIndex;
+			final int endCharIndex;
+			if (reader.readBoolean()) {
+				endParagraphIndex = reader.readInt();
+				endElementIndex = reader.readInt();
+				endCharIndex = reader.readInt();
+			} else {
+				endParagraphIndex = reader.readInt();
+				endElementIndex = -1;
+				endCharIndex = -1;
+			}
+			return new Bookmark(
+				id, uid, versionUid,
+				bookId, bookTitle, text, originalText,
+				creationTimestamp, modificationTimestamp, accessTimestamp,
+				modelId,
+				startParagraphIndex, startElementIndex, startCharIndex,
+				endParagraphIndex, endElementIndex, endCharIndex,
+				visible,
+				reader.readInt()
+			);
+		} catch (FormatException e) {
+			e.printStackTrace();
+			return null;
+		}
+	}
+
+	@Override
+	public String serialize(HighlightingStyle style) {
+		final Writer writer = new Writer(STYLE);
+		final ZLColor bgColor = style.getBackgroundColor();
+		final ZLColor fgColor = style.getForegroundColor();
+		writer.writeInt(style.Id);
+		writer.writeLong(style.LastUpdateTimestamp);
+		writer.writeString(style.getNameOrNull());
+		writer.writeInt(bgColor != null ? bgColor.intValue() : -1);
+		writer.writeInt(fgColor != null ? fgColor.intValue() : -1);
+		return writer.toString();
+	}
+
+	@Override
+	public HighlightingStyle deserializeStyle(String data) {
+		try {
+			final Reader reader = new Reader(data, STYLE);
+			final int id = reader.readInt();
+			final long timestamp = reader.readLong();
+			final String name = reader.readString();
+			final int bg = reader.readInt();
+			final int fg = reader.readInt();
+			return new HighlightingStyle(
+				id, timestamp, name,
+				bg != -1 ? new ZLColor(bg) : null,
+				fg != -1 ? new ZLColor(fg) : null
+			);
+		} catch (FormatException e) {
+			e.printStackTrace();
+			return null;
+		}
+	}
+
+	private static final class FormatException extends Exception {
+		FormatException(String message) {
+			super(message);
+		}
+	}
+
+	// references: 0 is null, 1 is a new value written in place, n + 2 is the n-th value seen before
+	private static final class Writer {
+		private final StringBuilder myBuffer = new StringBuilder();
+		private final Map<String,Integer> myStrings = new HashMap<String,Integer>();
+		private final Map<Author,Integer> myAuthors = new HashMap<Author,Integer>();
+		private final Map<Tag,Integer> myTags = new HashMap<Tag,Integer>();
+
+		Writer(char type) {
+			myBuffer.append(SIGNATURE).append(VERSION).append(type);
+		}
+
+		void writeChar(char ch) {
+			myBuffer.append(ch);
+		}
+
+		void writeBoolean(boolean value) {
+			myBuffer.append(value ? (char)1 : (char)0);
+		}
+
+		// non-negative values, 15 bits per char
+		void writeSize(int value) {
+			for (; value >= 0x8000; value >>>= 15) {
+				myBuffer.append((char)(0x8000 | (value & 0x7FFF)));
+			}
+			myBuffer.append((char)value);
+		}
+
+		void writeInt(int value) {
+			myBuffer.append((char)(value >>> 16)).append((char)value);
+		}
+
+		void writeLong(long value) {
+			writeInt((int)(value >>> 32));
+			writeInt((int)value);
+		}
+
+		void writeNullableLong(Long value) {
+			writeBoolean(value != null);
+			if (value != null) {
+				writeLong(value);
+			}
+		}
+
+		void writeString(String str) {
+			if (str == null) {
+				writeSize(0);
+				return;
+			}
+			final Integer index = myStrings.get(str);
+			if (index != null) {
+				writeSize(index + 2);
+			} else {
+				writeSize(1);
+				writeSize(str.length());
+				myBuffer.append(str);
+				myStrings.put(str, myStrings.size());
+			}
+		}
+
+		void writeAuthor(Author author) {
+			if (author == null) {
+				writeSize(0);
+				return;
+			}
+			final Integer index = myAuthors.get(author);
+			if (index != null) {
+				writeSize(index + 2);
+			} else {
+				writeSize(1);
+				writeString(author.DisplayName);
+				writeString(author.SortKey);
+				myAuthors.put(author, myAuthors.size());
+			}
+		}
+
+		void writeTag(Tag tag) {
+			if (tag == null) {
+				writeSize(0);
+				return;
+			}
+			final Integer index = myTags.get(tag);
+			if (index != null) {
+				writeSize(index + 2);
+			} else {
+				writeSize(1);
+				writeTag(tag.Parent);
+				writeString(tag.Name);
+				myTags.put(tag, myTags.size());
+			}
+		}
+
+		@Override
+		public String toString() {
+			return myBuffer.toString();
+		}
+	}
+
+	private static final class Reader {
+		private final String myData;
+		private int myOffset;
+		private final List<String> myStrings = new ArrayList<String>();
+		private final List<Author> myAuthors = new ArrayList<Author>();
+		private final List<Tag> myTags = new ArrayList<Tag>();
+
+		Reader(String data, char type) throws FormatException {
+			myData = data;
+			if (readChar() != SIGNATURE) {
+				throw new FormatException("Not a binary record");
+			}
+			final char version = readChar();
+			if (version != VERSION) {
+				throw new FormatException("Unsupported format version " + (int)version);
+			}
+			if (readChar() != type) {
+				throw new FormatException("Unexpected record type");
+			}
+		}
+
+		char readChar() throws FormatException {
+			if (myOffset >= myData.length()) {
+				throw new FormatException("Unexpected end of data");
+			}
+			return myData.charAt(myOffset++);
+		}
+
+		boolean readBoolean() throws FormatException {
+			return readChar() != 0;
+		}
+
+		int readSize() throws FormatException {
+			int value = 0;
+			for (int shift = 0; shift < 31; shift += 15) {
+				final char ch = readChar();
+				value |= (ch & 0x7FFF) << shift;
+				if ((ch & 0x8000) == 0) {
+					return value;
+				}
+			}
+			throw new FormatException("Invalid size");
+		}
+
+		int readInt() throws FormatException {
+			final int high = readChar();
+			return (high << 16) | readChar();
+		}
+
+		long readLong() throws FormatException {
+			final long high = readInt();
+			return (high << 32) | (readInt() & 0xFFFFFFFFL);
+		}
+
+		Long readNullableLong() throws FormatException {
+			return readBoolean() ? readLong() : null;
+		}
+
+		String readString() throws FormatException {
+			final int ref = readSize();
+			switch (ref) {
+				case 0:
+					return null;
+				case 1:
+				{
+					final int length = readSize();
+					if (length > myData.length() - myOffset) {
+						throw new FormatException("Unexpected end of data");
+					}
+					final String str = myData.substring(myOffset, myOffset + length);
+					myOffset += length;
+					myStrings.add(str);
+					return str;
+				}
+				default:
+					return get(myStrings, ref - 2);
+			}
+		}
+
+		Author readAuthor() throws FormatException {
+			final int ref = readSize();
+			switch (ref) {
+				case 0:
+					return null;
+				case 1:
+				{
+					final String name = readString();
+					final Author author = new Author(name, readString());
+					myAuthors.add(author);
+					return author;
+				}
+				default:
+					return get(myAuthors, ref - 2);
+			}
+		}
+
+		Tag readTag() throws FormatException {
+			final int ref = readSize();
+			switch (ref) {
+				case 0:
+					return null;
+				case 1:
+				{
+					final Tag parent = readTag();
+					final Tag tag = Tag.getTag(parent, readString());
+					myTags.add(tag);
+					return tag;
+				}
+				default:
+					return get(myTags, ref - 2);
+			}
+		}
+
+		private static <T> T get(List<T> table, int index) throws FormatException {
+			if (index >= table.size()) {
+				throw new FormatException("Invalid reference");
+			}
+			return table.get(index);
+		}
+	}
+}
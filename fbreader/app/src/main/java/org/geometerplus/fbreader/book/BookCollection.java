@@ -21,6 +21,7 @@ package org.geometerplus.fbreader.book;
 
 import java.io.File;
 import java.util.*;
+import java.util.concurrent.*;
 
 import org.geometerplus.zlibrary.core.filesystem.*;
 import org.geometerplus.zlibrary.core.image.ZLImage;
@@ -35,6 +36,13 @@ import org.geometerplus.fbreader.formats.*;
 public class BookCollection extends AbstractBookCollection<DbBook> {
 	private static final String ZERO_HASH = String.format("%040d", 0);
 
+	// library build: books are saved into database by portions of this size
+	private static final int SCAN_BATCH_SIZE = 50;
+	private static final int WALKER_THREADS_NUMBER = 3;
+	private static final int READER_THREADS_NUMBER =
+		Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors()));
+	private static final int MAX_RUNNING_JOBS = 4 * READER_THREADS_NUMBER;
+
 	private final SystemInfo mySystemInfo;
 	public final PluginCollection PluginCollection;
 	private final BooksDatabase myDatabase;
@@ -48,6 +56,11 @@ public class BookCollection extends AbstractBookCollection<DbBook> {
 	private final List<String> myFilesToRescan =
 		Collections.synchronizedList(new LinkedList<String>());
 	private final DuplicateResolver myDuplicateResolver = new DuplicateResolver();
+	// guarded by myBooksByFile
+	private final BookIndex myIndex = new BookIndex();
+	// books read from the snapshot and not yet replaced by the database ones;
+	// guarded by myBooksByFile
+	private final Map<ZLFile,DbBook> mySnapshotBooks = new HashMap<ZLFile,DbBook>();
 
 	private volatile Status myStatus = Status.NotStarted;
 
@@ -83,6 +96,58 @@ public class BookCollection extends AbstractBookCollection<DbBook> {
 	}
 
 	private DbBook getBookByFile(ZLFile bookFile, final FormatPlugin plugin) {
+		final BookLookup lookup = lookupBook(bookFile, plugin);
+		if (lookup == null) {
+			return null;
+		}
+		final DbBook book = lookup.NeedsReading ? lookup.read() : lookup.Book;
+		if (book != null && (lookup.NeedsReading || lookup.NeedsSaving)) {
+			saveBook(book);
+		}
+		return book;
+	}
+
+	// the book as it is found in the library or in the database;
+	// if NeedsReading is set, the book file is to be read by read() call
+	private static final class BookLookup {
+		final DbBook Book;
+		final boolean NeedsSaving;
+		final boolean NeedsReading;
+		final ZLFile File;
+		final FormatPlugin Plugin;
+
+		BookLookup(DbBook book, boolean needsSaving) {
+			Book = book;
+			NeedsSaving = needsSaving;
+			NeedsReading = false;
+			File = null;
+			Plugin = null;
+		}
+
+		BookLookup(DbBook book, ZLFile file, FormatPlugin plugin) {
+			Book = book;
+			NeedsSaving = true;
+			NeedsReading = true;
+			File = file;
+			Plugin = plugin;
+		}
+
+		// does not use the database, so can be called from any thread
+		DbBook read() {
+			try {
+				if (Book == null) {
+					return new DbBook(File, Plugin);
+				} else {
+					BookUtil.readMetainfo(Book, Plugin);
+					return Book;
+				}
+			} catch (BookReadingException e) {
+				return null;
+			}
+		}
+	}
+
+	private BookLookup lookupBook(ZLFile bookFile, final FormatPlugin plugin) {
 		if (plugin == null || !isFormatActive(plugin)) {
 			return null;
 		}
@@ -95,14 +160,14 @@ public class BookCollection extends AbstractBookCollection<DbBook> {
 
 		DbBook book = myBooksByFile.get(bookFile);
 		if (book != null) {
-			return book;
+			return new BookLookup(book, false);
 		}
 
 		final ZLFile otherFile = myDuplicateResolver.findDuplicate(bookFile);
 		if (otherFile != null) {
 			book = myBooksByFile.get(otherFile);
 			if (book != null) {
-				return book;
+				return new BookLookup(book, false);
 			}
 		}
 
@@ -119,23 +184,11 @@ public class BookCollection extends AbstractBookCollection<DbBook> {
 		}
 
 		if (book != null && fileInfos.check(physicalFile, physicalFile != bookFile)) {
-			saveBook(book);
-			return book;
+			return new BookLookup(book, true);
 		}
 		fileInfos.save();
 
-		try {
-			if (book == null) {
-				book = new DbBook(bookFile, plugin);
-			} else {
-				BookUtil.readMetainfo(book, plugin);
-			}
-		} catch (BookReadingException e) {
-			return null;
-		}
-
-		saveBook(book);
-		return book;
+		return new BookLookup(book, bookFile, plugin);
 	}
 
 	public DbBook getBookById(long id) {
@@ -219,17 +272,20 @@ public class BookCollection extends AbstractBookCollection<DbBook> {
 				final DbBook original = duplicate != null ? myBooksByFile.get(duplicate) : null;
 				if (original != null) {
 					if (new BookMergeHelper(this).merge(original, book)) {
+						myIndex.add(original);
 						fireBookEvent(BookEvent.Updated, original);
 					}
 				} else {
 					myBooksByFile.put(book.File, book);
 					myDuplicateResolver.addFile(book.File);
 					myBooksById.put(book.getId(), book);
+					myIndex.add(book);
 					fireBookEvent(BookEvent.Added, book);
 				}
 				return true;
 			} else if (force) {
 				existing.updateFrom(book);
+				myIndex.add(existing);
 				switch (existing.save(myDatabase, false)) {
 					case Everything:
 						fireBookEvent(BookEvent.Updated, existing);
@@ -249,7 +305,10 @@ public class BookCollection extends AbstractBookCollection<DbBook> {
 
 	public void removeBook(DbBook book, boolean deleteFromDisk) {
 		synchronized (myBooksByFile) {
-			myBooksByFile.remove(book.File);
+			final DbBook stored = myBooksByFile.remove(book.File);
+			if (stored != null) {
+				myIndex.remove(stored);
+			}
 			myDuplicateResolver.removeFile(book.File);
 			myBooksById.remove(book.getId());
 
@@ -288,42 +347,66 @@ public class BookCollection extends AbstractBookCollection<DbBook> {
 		if (query == null) {
 			return Collections.emptyList();
 		}
+		final List<DbBook> books = new ArrayList<DbBook>(query.Limit);
+		books(query, books);
+		return books;
+	}
 
-		final List<DbBook> allBooks;
-		synchronized (myBooksByFile) {
-			//allBooks = new ArrayList<DbBook>(new LinkedHashSet<DbBook>(myBooksByFile.values()));
-			allBooks = new ArrayList<DbBook>(myBooksByFile.values());
+	public BookQuery books(BookQuery query, List<DbBook> books) {
+		if (query == null) {
+			return null;
 		}
-		final int start = query.Page * query.Limit;
-		if (start >= allBooks.size()) {
-			return Collections.emptyList();
+		long from = query.Cursor;
+		int toSkip = 0;
+		if (from == BookQuery.NO_CURSOR) {
+			from = 0;
+			toSkip = query.Page * query.Limit;
 		}
-		final int end = start + query.Limit;
-		if (query.Filter instanceof Filter.Empty) {
-			return allBooks.subList(start, Math.min(end, allBooks.size()));
-		} else {
+		synchronized (myBooksByFile) {
+			final List<DbBook> candidates = myIndex.candidates(query.Filter, from);
+			final Collection<DbBook> source = candidates != null ? candidates : myIndex.books(from);
 			int count = 0;
-			final List<DbBook> filtered = new ArrayList<DbBook>(query.Limit);
-			for (DbBook b : allBooks) {
-				if (query.Filter.matches(b)) {
-					if (count >= start) {
-						filtered.add(b);
-					}
-					if (++count == end) {
-						break;
+			for (DbBook b : source) {
+				if (!query.Filter.matches(b)) {
+					continue;
+				}
+				if (toSkip > 0) {
+					--toSkip;
+				} else if (count < query.Limit) {
+					books.add(b);
+					++count;
+				} else {
+					return query.resume(myIndex.sequence(b));
+				}
+			}
+		}
+		return null;
+	}
+
+	public void streamBooks(BookQuery query, BooksConsumer<DbBook> consumer) {
+		if (query == null) {
+			return;
+		}
+		final long from = query.Cursor != BookQuery.NO_CURSOR ? query.Cursor : 0;
+		List<DbBook> portion = new ArrayList<DbBook>(query.Limit);
+		for (DbBook b : snapshot(query.Filter, from)) {
+			if (query.Filter.matches(b)) {
+				portion.add(b);
+				if (portion.size() == query.Limit) {
+					if (!consumer.onBooks(portion)) {
+						return;
 					}
+					portion = new ArrayList<DbBook>(query.Limit);
 				}
 			}
-			return filtered;
+		}
+		if (!portion.isEmpty()) {
+			consumer.onBooks(portion);
 		}
 	}
 
 	public boolean hasBooks(Filter filter) {
-		final List<DbBook> allBooks;
-		synchronized (myBooksByFile) {
-			allBooks = new ArrayList<DbBook>(myBooksByFile.values());
-		}
-		for (DbBook b : allBooks) {
+		for (DbBook b : snapshot(filter, 0)) {
 			if (filter.matches(b)) {
 				return true;
 			}
@@ -331,6 +414,13 @@ public class BookCollection extends AbstractBookCollection<DbBook> {
 		return false;
 	}
 
+	private List<DbBook> snapshot(Filter filter, long from) {
+		synchronized (myBooksByFile) {
+			final List<DbBook> candidates = myIndex.candidates(filter, from);
+			return candidates != null ? candidates : new ArrayList<DbBook>(myIndex.books(from));
+		}
+	}
+
 	public List<String> titles(BookQuery query) {
 		final List<DbBook> books = books(query);
 		final List<String> titles = new ArrayList<String>(books.size());
@@ -360,37 +450,15 @@ public class BookCollection extends AbstractBookCollection<DbBook> {
 	}
 
 	public List<Author> authors() {
-		final Set<Author> authors = new TreeSet<Author>();
 		synchronized (myBooksByFile) {
-			for (DbBook book : myBooksByFile.values()) {
-				final List<Author> bookAuthors = book.authors();
-				if (bookAuthors.isEmpty()) {
-					authors.add(Author.NULL);
-				} else {
-					authors.addAll(bookAuthors);
-				}
-			}
+			return myIndex.authors();
 		}
-		return new ArrayList<Author>(authors);
 	}
 
 	public List<Tag> tags() {
-		final Set<Tag> tags = new HashSet<Tag>();
 		synchronized (myBooksByFile) {
-			for (DbBook book : myBooksByFile.values()) {
-				final List<Tag> bookTags = book.tags();
-				if (bookTags.isEmpty()) {
-					tags.add(Tag.NULL);
-				} else {
-					for (Tag t : bookTags) {
-						for (; t != null; t = t.Parent) {
-							tags.add(t);
-						}
-					}
-				}
-			}
+			return myIndex.tags();
 		}
-		return new ArrayList<Tag>(tags);
 	}
 
 	public List<String> labels() {
@@ -399,38 +467,19 @@ public class BookCollection extends AbstractBookCollection<DbBook> {
 
 	public boolean hasSeries() {
 		synchronized (myBooksByFile) {
-			for (DbBook book : myBooksByFile.values()) {
-				if (book.getSeriesInfo() != null) {
-					return true;
-				}
-			}
+			return myIndex.hasSeries();
 		}
-		return false;
 	}
 
 	public List<String> series() {
-		final Set<String> series = new TreeSet<String>();
 		synchronized (myBooksByFile) {
-			for (DbBook book : myBooksByFile.values()) {
-				final SeriesInfo info = book.getSeriesInfo();
-				if (info != null) {
-					series.add(info.Series.getTitle());
-				}
-			}
+			return myIndex.series();
 		}
-		return new ArrayList<String>(series);
 	}
 
 	public List<String> firstTitleLetters() {
 		synchronized (myBooksByFile) {
-			final TreeSet<String> letters = new TreeSet<String>();
-			for (DbBook book : myBooksByFile.values()) {
-				final String l = book.firstTitleLetter();
-				if (l != null) {
-					letters.add(l);
-				}
-			}
-			return new ArrayList<String>(letters);
+			return myIndex.firstTitleLetters();
 		}
 	}
 
@@ -465,6 +514,14 @@ public class BookCollection extends AbstractBookCollection<DbBook> {
 				try {
 					build();
 					setStatus(Status.Succeeded);
+					final byte[] books;
+					final BookSearchIndex.Snapshot snapshot;
+					synchronized (myBooksByFile) {
+						books = BookSnapshot.serialize(myBooksByFile.values());
+						snapshot = myIndex.searchSnapshot();
+					}
+					BookSnapshot.write(bookSnapshotFile(), books);
+					snapshot.write(searchSnapshotFile());
 				} catch (Throwable t) {
 					setStatus(Status.Failed);
 					t.printStackTrace();
@@ -525,6 +582,7 @@ public class BookCollection extends AbstractBookCollection<DbBook> {
 					myDuplicateResolver.removeFile(f);
 					if (book != null) {
 						myBooksById.remove(book.getId());
+						myIndex.remove(book);
 						fireBookEvent(BookEvent.Removed, book);
 					}
 				}
@@ -534,7 +592,79 @@ public class BookCollection extends AbstractBookCollection<DbBook> {
 		}
 	}
 
+	private File searchSnapshotFile() {
+		return new File(mySystemInfo.tempDirectory(), "library/search.index");
+	}
+
+	private File bookSnapshotFile() {
+		return new File(mySystemInfo.tempDirectory(), "library/books.snapshot");
+	}
+
+	private void loadSnapshot() {
+		final List<DbBook> books = BookSnapshot.read(bookSnapshotFile());
+		synchronized (myBooksByFile) {
+			myIndex.readSearchSnapshot(searchSnapshotFile());
+			for (DbBook book : books) {
+				if (myBooksByFile.containsKey(book.File)) {
+					continue;
+				}
+				book.loadUidsOnDemand(myDatabase);
+				myBooksByFile.put(book.File, book);
+				myDuplicateResolver.addFile(book.File);
+				myBooksById.put(book.getId(), book);
+				myIndex.add(book);
+				mySnapshotBooks.put(book.File, book);
+				fireBookEvent(BookEvent.Added, book);
+			}
+		}
+	}
+
+	/**
+	 * Puts the database book to the place of its snapshot copy;
+	 * returns false if there is no such copy
+	 */
+	private boolean replaceSnapshotBook(DbBook book) {
+		synchronized (myBooksByFile) {
+			final DbBook copy = mySnapshotBooks.remove(book.File);
+			if (copy == null || myBooksByFile.get(book.File) != copy) {
+				return false;
+			}
+			myBooksByFile.put(book.File, book);
+			myBooksById.remove(copy.getId());
+			myBooksById.put(book.getId(), book);
+			myIndex.replace(copy, book);
+			if (!copy.hasSameLibraryInfoAs(book)) {
+				fireBookEvent(BookEvent.Updated, book);
+			}
+			return true;
+		}
+	}
+
+	/**
+	 * Removes the snapshot books that have no existing database copy;
+	 * the database is not changed
+	 */
+	private void removeSnapshotBooks() {
+		synchronized (myBooksByFile) {
+			for (DbBook copy : mySnapshotBooks.values()) {
+				if (myBooksByFile.get(copy.File) != copy) {
+					continue;
+				}
+				myBooksByFile.remove(copy.File);
+				myDuplicateResolver.removeFile(copy.File);
+				myBooksById.remove(copy.getId());
+				myIndex.remove(copy);
+				fireBookEvent(BookEvent.Removed, copy);
+			}
+			mySnapshotBooks.clear();
+		}
+	}
+
 	private void build() {
+		// Snapshot: show the books stored after the previous successful build
+		//           at once; they are replaced by the database books in step 1
+		loadSnapshot();
+
 		// Step 0: get database books marked as "existing"
 		final FileInfoSet fileInfos = new FileInfoSet(myDatabase);
 		final Map<Long,DbBook> savedBooksByFileId = myDatabase.loadBooks(fileInfos, true);
@@ -570,13 +700,14 @@ public class BookCollection extends AbstractBookCollection<DbBook> {
 				if (!fileInfos.check(file, true)) {
 					try {
 						BookUtil.readMetainfo(book, PluginCollection);
+						replaceSnapshotBook(book);
 						saveBook(book);
 					} catch (BookReadingException e) {
 						doAdd = false;
 					}
 					file.setCached(false);
 				}
-				if (doAdd) {
+				if (doAdd && !replaceSnapshotBook(book)) {
 					// loaded from db
 					addBook(book, false);
 				}
@@ -584,25 +715,30 @@ public class BookCollection extends AbstractBookCollection<DbBook> {
 				orphanedBooks.add(book);
 			}
 		}
+		removeSnapshotBooks();
 		myDatabase.setExistingFlag(orphanedBooks, false);
 
 		// Step 2: collect books from physical files; add new, update already added,
-		//         unmark orphaned as existing again, collect newly added
+		//         unmark orphaned as existing again, collect newly added;
+		//         new books are saved by portions, so they appear in the library
+		//         while the build is in progress
 		final Map<Long,DbBook> orphanedBooksByFileId = myDatabase.loadBooks(fileInfos, false);
-		final Set<DbBook> newBooks = new HashSet<DbBook>();
-
-		final List<ZLPhysicalFile> physicalFilesList = collectPhysicalFiles(BookDirectories);
-		for (ZLPhysicalFile file : physicalFilesList) {
-			if (physicalFiles.contains(file)) {
-				continue;
+		final Scanner scanner = new Scanner(fileInfos, savedBooksByFileId, orphanedBooksByFileId);
+		final DirectoryWalker walker = new DirectoryWalker(BookDirectories, WALKER_THREADS_NUMBER);
+		try {
+			for (ZLPhysicalFile file = walker.next(); file != null; file = walker.next()) {
+				if (physicalFiles.contains(file)) {
+					continue;
+				}
+				file.setCached(true);
+				scanner.scan(file, !fileInfos.check(file, true));
 			}
-			collectBooks(
-				file, fileInfos,
-				savedBooksByFileId, orphanedBooksByFileId,
-				newBooks,
-				!fileInfos.check(file, true)
-			);
-			file.setCached(false);
+			scanner.finish();
+		} catch (InterruptedException e) {
+			throw new RuntimeException(e);
+		} finally {
+			walker.cancel();
+			scanner.cancel();
 		}
 
 		// Step 3: add help file
@@ -615,15 +751,193 @@ public class BookCollection extends AbstractBookCollection<DbBook> {
 
 		// Step 4: save changes into database
 		fileInfos.save();
+	}
+
+	/**
+	 * Library build pipeline: book files are read in a pool of threads
+	 * (native plugin calls are serialized anyway, so they have an own thread);
+	 * everything related to the database is done in the build thread
+	 */
+	private final class Scanner {
+		private final class Job implements Runnable {
+			final ZLPhysicalFile PhysicalFile;
+			final ZLFile File;
+			final FormatPlugin Plugin;
+			final boolean DoReadMetaInfo;
+			final DbBook Orphan;
+			final BookLookup Lookup;
+			volatile DbBook Result;
+
+			Job(ZLPhysicalFile physicalFile, ZLFile file, FormatPlugin plugin, boolean doReadMetaInfo, DbBook orphan, BookLookup lookup) {
+				PhysicalFile = physicalFile;
+				File = file;
+				Plugin = plugin;
+				DoReadMetaInfo = doReadMetaInfo;
+				Orphan = orphan;
+				Lookup = lookup;
+			}
 
-		myDatabase.executeAsTransaction(new Runnable() {
 			public void run() {
-				for (DbBook book : newBooks) {
-					saveBook(book);
+				try {
+					if (Orphan != null) {
+						BookUtil.readMetainfo(Orphan, PluginCollection);
+						Result = Orphan;
+					} else {
+						Result = Lookup.read();
+					}
+				} catch (Throwable t) {
+					// ignore
+				} finally {
+					myCompletedJobs.add(this);
+				}
+			}
+		}
+
+		private final FileInfoSet myFileInfos;
+		private final Map<Long,DbBook> mySavedBooksByFileId;
+		private final Map<Long,DbBook> myOrphanedBooksByFileId;
+
+		private final ExecutorService myPool = Executors.newFixedThreadPool(
+			READER_THREADS_NUMBER, new DirectoryWalker.MinPriorityThreadFactory()
+		);
+		private final ExecutorService myNativePool =
+			Executors.newSingleThreadExecutor(new DirectoryWalker.MinPriorityThreadFactory());
+		private final BlockingQueue<Job> myCompletedJobs = new LinkedBlockingQueue<Job>();
+		private final Map<ZLPhysicalFile,Integer> myJobCounters = new HashMap<ZLPhysicalFile,Integer>();
+		private int myRunningJobsCount;
+
+		private final Set<DbBook> myNewBooks = new HashSet<DbBook>();
+		private final List<DbBook> myBatch = new ArrayList<DbBook>(SCAN_BATCH_SIZE);
+
+		Scanner(FileInfoSet fileInfos, Map<Long,DbBook> savedBooksByFileId, Map<Long,DbBook> orphanedBooksByFileId) {
+			myFileInfos = fileInfos;
+			mySavedBooksByFileId = savedBooksByFileId;
+			myOrphanedBooksByFileId = orphanedBooksByFileId;
+		}
+
+		void scan(ZLPhysicalFile file, boolean doReadMetaInfo) throws InterruptedException {
+			while (myRunningJobsCount >= MAX_RUNNING_JOBS) {
+				onJobCompleted(myCompletedJobs.take());
+			}
+			for (Job job = myCompletedJobs.poll(); job != null; job = myCompletedJobs.poll()) {
+				onJobCompleted(job);
+			}
+
+			collectBooks(file, file, doReadMetaInfo);
+			if (!myJobCounters.containsKey(file)) {
+				file.setCached(false);
+			}
+		}
+
+		void finish() throws InterruptedException {
+			while (myRunningJobsCount > 0) {
+				onJobCompleted(myCompletedJobs.take());
+			}
+			saveBatch();
+		}
+
+		void cancel() {
+			myPool.shutdownNow();
+			myNativePool.shutdownNow();
+		}
+
+		private void collectBooks(ZLPhysicalFile physicalFile, ZLFile file, boolean doReadMetaInfo) {
+			final long fileId = myFileInfos.getId(file);
+			if (mySavedBooksByFileId.get(fileId) != null) {
+				return;
+			}
+
+			final FormatPlugin plugin = PluginCollection.getPlugin(file);
+			if (plugin != null && !isFormatActive(plugin)) {
+				return;
+			}
+
+			final DbBook book = myOrphanedBooksByFileId.get(fileId);
+			if (book != null) {
+				if (doReadMetaInfo) {
+					submit(new Job(physicalFile, file, plugin, doReadMetaInfo, book, null));
+				} else {
+					addNewBook(book);
 				}
+				return;
 			}
-		});
-		myDatabase.setExistingFlag(newBooks, true);
+
+			collectNewBooks(physicalFile, file, plugin, doReadMetaInfo);
+		}
+
+		private void collectNewBooks(ZLPhysicalFile physicalFile, ZLFile file, FormatPlugin plugin, boolean doReadMetaInfo) {
+			final BookLookup lookup = lookupBook(file, plugin);
+			if (lookup != null && lookup.NeedsReading) {
+				submit(new Job(physicalFile, file, plugin, doReadMetaInfo, null, lookup));
+			} else {
+				onBookFound(physicalFile, file, lookup != null ? lookup.Book : null, doReadMetaInfo);
+			}
+		}
+
+		private void onBookFound(ZLPhysicalFile physicalFile, ZLFile file, DbBook book, boolean doReadMetaInfo) {
+			if (book != null) {
+				addNewBook(book);
+			} else if (file.isArchive()) {
+				for (ZLFile entry : myFileInfos.archiveEntries(file)) {
+					collectBooks(physicalFile, entry, doReadMetaInfo);
+				}
+			}
+		}
+
+		private void submit(Job job) {
+			final Integer counter = myJobCounters.get(job.PhysicalFile);
+			myJobCounters.put(job.PhysicalFile, counter != null ? counter + 1 : 1);
+			++myRunningJobsCount;
+			if (job.Plugin instanceof NativeFormatPlugin) {
+				myNativePool.execute(job);
+			} else {
+				myPool.execute(job);
+			}
+		}
+
+		private void onJobCompleted(Job job) {
+			--myRunningJobsCount;
+			if (job.Orphan != null && job.Result == null) {
+				collectNewBooks(job.PhysicalFile, job.File, job.Plugin, job.DoReadMetaInfo);
+			} else {
+				onBookFound(job.PhysicalFile, job.File, job.Result, job.DoReadMetaInfo);
+			}
+
+			final int counter = myJobCounters.get(job.PhysicalFile) - 1;
+			if (counter > 0) {
+				myJobCounters.put(job.PhysicalFile, counter);
+			} else {
+				myJobCounters.remove(job.PhysicalFile);
+				job.PhysicalFile.setCached(false);
+			}
+		}
+
+		private void addNewBook(DbBook book) {
+			if (myNewBooks.add(book)) {
+				myBatch.add(book);
+				if (myBatch.size() >= SCAN_BATCH_SIZE) {
+					saveBatch();
+				}
+			}
+		}
+
+		private void saveBatch() {
+			if (myBatch.isEmpty()) {
+				return;
+			}
+			final List<DbBook> batch = new ArrayList<DbBook>(myBatch);
+			myBatch.clear();
+
+			myFileInfos.save();
+			myDatabase.executeAsTransaction(new Runnable() {
+				public void run() {
+					for (DbBook book : batch) {
+						saveBook(book);
+					}
+				}
+			});
+			myDatabase.setExistingFlag(batch, true);
+		}
 	}
 
 	private List<ZLPhysicalFile> collectPhysicalFiles(List<String> paths) {
@@ -657,50 +971,6 @@ public class BookCollection extends AbstractBookCollection<DbBook> {
 		return fileList;
 	}
 
-	private void collectBooks(
-		ZLFile file, FileInfoSet fileInfos,
-		Map<Long,DbBook> savedBooksByFileId, Map<Long,DbBook> orphanedBooksByFileId,
-		Set<DbBook> newBooks,
-		boolean doReadMetaInfo
-	) {
-		final long fileId = fileInfos.getId(file);
-		if (savedBooksByFileId.get(fileId) != null) {
-			return;
-		}
-
-		final FormatPlugin plugin = PluginCollection.getPlugin(file);
-		if (plugin != null && !isFormatActive(plugin)) {
-			return;
-		}
-
-		try {
-			final DbBook book = orphanedBooksByFileId.get(fileId);
-			if (book != null) {
-				if (doReadMetaInfo) {
-					BookUtil.readMetainfo(book, PluginCollection);
-				}
-				newBooks.add(book);
-				return;
-			}
-		} catch (BookReadingException e) {
-			// ignore
-		}
-
-		final DbBook book = getBookByFile(file, plugin);
-		if (book != null) {
-			newBooks.add(book);
-		} else if (file.isArchive()) {
-			for (ZLFile entry : fileInfos.archiveEntries(file)) {
-				collectBooks(
-					entry, fileInfos,
-					savedBooksByFileId, orphanedBooksByFileId,
-					newBooks,
-					doReadMetaInfo
-				);
-			}
-		}
-	}
-
 	@Override
 	public String getCoverUrl(DbBook book) {
 		// not implemented in non-shadow collection
@@ -0,0 +1,304 @@
+/*
+ * Copyright (C) 2007-2015 FBReader.ORG Limited <contact@fbreader.org>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA.
+ */
+
+package org.geometerplus.fbreader.book;
+
+import java.io.File;
+import java.util.*;
+
+/**
+ * Inverted indexes of the collection books by author, tag, series, label,
+ * first title letter and title/metadata words (see BookSearchIndex).
+ * The keys of every book are remembered when it is indexed, so an updated
+ * book can be removed from the old postings.
+ * All the methods must be called under the collection's books lock.
+ */
+final class BookIndex {
+	private static final class Keys {
+		final long Sequence;
+		final List<Author> Authors;
+		final List<Tag> Tags;
+		final Series Series;
+		final List<String> Labels;
+		final String Letter;
+
+		Keys(long sequence, DbBook book) {
+			Sequence = sequence;
+			final List<Author> authors = book.authors();
+			Authors = authors.isEmpty()
+				? Collections.singletonList(Author.NULL) : new ArrayList<Author>(authors);
+			final List<Tag> tags = book.tags();
+			Tags = tags.isEmpty()
+				? Collections.singletonList(Tag.NULL) : new ArrayList<Tag>(tags);
+			final SeriesInfo info = book.getSeriesInfo();
+			Series = info != null ? info.Series : null;
+			final List<Label> labels = book.labels();
+			Labels = new ArrayList<String>(labels.size());
+			for (Label l : labels) {
+				Labels.add(l.Name);
+			}
+			Letter = book.firstTitleLetter();
+		}
+	}
+
+	// DbBook.equals() treats books sharing a UID as equal, so books are compared by identity
+	private final Map<DbBook,Keys> myKeys = new IdentityHashMap<DbBook,Keys>();
+	private final Map<Author,Set<DbBook>> myByAuthor = new HashMap<Author,Set<DbBook>>();
+	private final Map<Tag,Set<DbBook>> myByTag = new HashMap<Tag,Set<DbBook>>();
+	private final Map<Series,Set<DbBook>> myBySeries = new HashMap<Series,Set<DbBook>>();
+	private final Map<String,Set<DbBook>> myByLabel = new HashMap<String,Set<DbBook>>();
+	private final Map<String,Set<DbBook>> myByLetter = new HashMap<String,Set<DbBook>>();
+	private final TreeMap<Long,DbBook> myBySequence = new TreeMap<Long,DbBook>();
+	private final BookSearchIndex mySearchIndex = new BookSearchIndex();
+	private long myNextSequence;
+
+	private final Comparator<DbBook> myOrder = new Comparator<DbBook>() {
+		public int compare(DbBook b0, DbBook b1) {
+			final long s0 = myKeys.get(b0).Sequence;
+			final long s1 = myKeys.get(b1).Sequence;
+			return s0 < s1 ? -1 : (s0 == s1 ? 0 : 1);
+		}
+	};
+
+	private static Set<DbBook> newBookSet() {
+		return Collections.newSetFromMap(new IdentityHashMap<DbBook,Boolean>());
+	}
+
+	private static <K> void put(Map<K,Set<DbBook>> index, K key, DbBook book) {
+		if (key == null) {
+			return;
+		}
+		Set<DbBook> books = index.get(key);
+		if (books == null) {
+			books = newBookSet();
+			index.put(key, books);
+		}
+		books.add(book);
+	}
+
+	private static <K> void remove(Map<K,Set<DbBook>> index, K key, DbBook book) {
+		if (key == null) {
+			return;
+		}
+		final Set<DbBook> books = index.get(key);
+		if (books != null && books.remove(book) && books.isEmpty()) {
+			index.remove(key);
+		}
+	}
+
+	void add(DbBook book) {
+		final Keys old = myKeys.get(book);
+		if (old != null) {
+			removeKeys(book, old);
+		}
+		// an updated book keeps its place in the collection order
+		index(book, old != null ? old.Sequence : myNextSequence++);
+		mySearchIndex.add(book);
+	}
+
+	/**
+	 * Puts the book to the place of the old one, e.g. the complete book
+	 * loaded from the database to the place of its snapshot copy
+	 */
+	void replace(DbBook old, DbBook book) {
+		final Keys keys = myKeys.remove(old);
+		if (keys == null) {
+			add(book);
+			return;
+		}
+		removeKeys(old, keys);
+		index(book, keys.Sequence);
+		mySearchIndex.replace(old, book);
+	}
+
+	private void index(DbBook book, long sequence) {
+		final Keys keys = new Keys(sequence, book);
+		myKeys.put(book, keys);
+		myBySequence.put(keys.Sequence, book);
+		for (Author a : keys.Authors) {
+			put(myByAuthor, a, book);
+		}
+		for (Tag t : keys.Tags) {
+			put(myByTag, t, book);
+		}
+		put(myBySeries, keys.Series, book);
+		for (String l : keys.Labels) {
+			put(myByLabel, l, book);
+		}
+		put(myByLetter, keys.Letter, book);
+	}
+
+	void remove(DbBook book) {
+		final Keys keys = myKeys.remove(book);
+		if (keys != null) {
+			myBySequence.remove(keys.Sequence);
+			removeKeys(book, keys);
+		}
+		mySearchIndex.remove(book);
+	}
+
+	private void removeKeys(DbBook book, Keys keys) {
+		for (Author a : keys.Authors) {
+			remove(myByAuthor, a, book);
+		}
+		for (Tag t : keys.Tags) {
+			remove(myByTag, t, book);
+		}
+		remove(myBySeries, keys.Series, book);
+		for (String l : keys.Labels) {
+			remove(myByLabel, l, book);
+		}
+		remove(myByLetter, keys.Letter, book);
+	}
+
+	void clear() {
+		myKeys.clear();
+		myByAuthor.clear();
+		myByTag.clear();
+		myBySeries.clear();
+		myByLabel.clear();
+		myByLetter.clear();
+		myBySequence.clear();
+		mySearchIndex.clear();
+	}
+
+	void readSearchSnapshot(File file) {
+		mySearchIndex.read(file);
+	}
+
+	BookSearchIndex.Snapshot searchSnapshot() {
+		return mySearchIndex.snapshot();
+	}
+
+	long sequence(DbBook book) {
+		return myKeys.get(book).Sequence;
+	}
+
+	/**
+	 * Returns a live view of the books starting from the sequence number, in the collection order
+	 */
+	Collection<DbBook> books(long from) {
+		return myBySequence.tailMap(from).values();
+	}
+
+	/**
+	 * Returns the books that may match the filter, in the collection order,
+	 * or null if the filter cannot be answered from the indexes.
+	 * The result is a superset of the matching books for And filters
+	 * with a non-indexed part, so it must be checked with Filter.matches().
+	 */
+	List<DbBook> candidates(Filter filter) {
+		return candidates(filter, 0);
+	}
+
+	List<DbBook> candidates(Filter filter, long from) {
+		final Set<DbBook> books = lookup(filter);
+		if (books == null) {
+			return null;
+		}
+		final List<DbBook> sorted = new ArrayList<DbBook>(books.size());
+		for (DbBook b : books) {
+			if (myKeys.get(b).Sequence >= from) {
+				sorted.add(b);
+			}
+		}
+		Collections.sort(sorted, myOrder);
+		return sorted;
+	}
+
+	private Set<DbBook> lookup(Filter filter) {
+		if (filter instanceof Filter.ByAuthor) {
+			return postings(myByAuthor, ((Filter.ByAuthor)filter).Author);
+		} else if (filter instanceof Filter.ByTag) {
+			return postings(myByTag, ((Filter.ByTag)filter).Tag);
+		} else if (filter instanceof Filter.BySeries) {
+			return postings(myBySeries, ((Filter.BySeries)filter).Series);
+		} else if (filter instanceof Filter.ByLabel) {
+			return postings(myByLabel, ((Filter.ByLabel)filter).Label);
+		} else if (filter instanceof Filter.ByTitlePrefix) {
+			return postings(myByLetter, ((Filter.ByTitlePrefix)filter).Prefix);
+		} else if (filter instanceof Filter.ByPattern) {
+			return mySearchIndex.lookup(((Filter.ByPattern)filter).Pattern);
+		} else if (filter instanceof Filter.And) {
+			final Set<DbBook> first = lookup(((Filter.And)filter).First);
+			final Set<DbBook> second = lookup(((Filter.And)filter).Second);
+			if (first == null || second == null) {
+				return first != null ? first : second;
+			}
+			final Set<DbBook> smaller = first.size() <= second.size() ? first : second;
+			final Set<DbBook> larger = smaller == first ? second : first;
+			final Set<DbBook> intersection = newBookSet();
+			for (DbBook b : smaller) {
+				if (larger.contains(b)) {
+					intersection.add(b);
+				}
+			}
+			return intersection;
+		} else if (filter instanceof Filter.Or) {
+			final Set<DbBook> first = lookup(((Filter.Or)filter).First);
+			if (first == null) {
+				return null;
+			}
+			final Set<DbBook> second = lookup(((Filter.Or)filter).Second);
+			if (second == null) {
+				return null;
+			}
+			final Set<DbBook> union = newBookSet();
+			union.addAll(first);
+			union.addAll(second);
+			return union;
+		}
+		return null;
+	}
+
+	private static <K> Set<DbBook> postings(Map<K,Set<DbBook>> index, K key) {
+		final Set<DbBook> books = key != null ? index.get(key) : null;
+		return books != null ? books : Collections.<DbBook>emptySet();
+	}
+
+	List<Author> authors() {
+		return new ArrayList<Author>(new TreeSet<Author>(myByAuthor.keySet()));
+	}
+
+	List<Tag> tags() {
+		final Set<Tag> tags = new HashSet<Tag>();
+		for (Tag t : myByTag.keySet()) {
+			for (; t != null; t = t.Parent) {
+				tags.add(t);
+			}
+		}
+		return new ArrayList<Tag>(tags);
+	}
+
+	boolean hasSeries() {
+		return !myBySeries.isEmpty();
+	}
+
+	List<String> series() {
+		final Set<String> titles = new TreeSet<String>();
+		for (Series s : myBySeries.keySet()) {
+			titles.add(s.getTitle());
+		}
+		return new ArrayList<String>(titles);
+	}
+
+	List<String> firstTitleLetters() {
+		return new ArrayList<String>(new TreeSet<String>(myByLetter.keySet()));
+	}
+}
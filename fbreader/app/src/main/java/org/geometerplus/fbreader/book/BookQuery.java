@@ -20,21 +20,35 @@
 package org.geometerplus.fbreader.book;
 
 public final class BookQuery {
+	public static final long NO_CURSOR = -1;
+
 	public final Filter Filter;
 	public final int Limit;
 	public final int Page;
+	// continuation token issued by the collection: position of the first book
+	// of the portion in the collection order; if set, Page is ignored
+	public final long Cursor;
 
 	public BookQuery(Filter filter, int limit) {
 		this(filter, limit, 0);
 	}
 
 	BookQuery(Filter filter, int limit, int page) {
+		this(filter, limit, page, NO_CURSOR);
+	}
+
+	BookQuery(Filter filter, int limit, int page, long cursor) {
 		Filter = filter;
 		Limit = limit;
 		Page = page;
+		Cursor = cursor;
 	}
 
 	public BookQuery next() {
 		return new BookQuery(Filter, Limit, Page + 1);
 	}
+
+	BookQuery resume(long cursor) {
+		return new BookQuery(Filter, Limit, Page + 1, cursor);
+	}
 }
@@ -0,0 +1,397 @@
+/*
+ * Copyright (C) 2007-2015 FBReader.ORG Limited <contact@fbreader.org>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA.
+ */
+
+package org.geometerplus.fbreader.book;
+
+import java.io.*;
+import java.text.Normalizer;
+import java.util.*;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+
+import org.geometerplus.zlibrary.core.util.ZLSearchUtil;
+
+/**
+ * Token index for Filter.ByPattern: normalized words of the book titles,
+ * series, authors, tags and file names. Normalization is char by char
+ * (case folding and diacritics stripping), so a pattern contained in a text
+ * stays contained in it after normalization, and the books found by the index
+ * are a superset of the matching ones. The tokens of every book can be saved
+ * to a snapshot; an unchanged book takes its tokens from the snapshot
+ * instead of tokenizing its metadata again.
+ * All the methods but normalize() must be called under the collection's books lock.
+ */
+final class BookSearchIndex {
+	private static final int FORMAT_VERSION = 1;
+	private static final int FOLDING_TABLE_SIZE = 0x3000;
+
+	private static final char[] ourFolding = new char[FOLDING_TABLE_SIZE];
+
+	private static final class Entry {
+		final long Id;
+		final long Fingerprint;
+		final String[] Tokens;
+
+		Entry(long id, long fingerprint, String[] tokens) {
+			Id = id;
+			Fingerprint = fingerprint;
+			Tokens = tokens;
+		}
+	}
+
+	private final Map<DbBook,Entry> myEntries = new IdentityHashMap<DbBook,Entry>();
+	private final TreeMap<String,Set<DbBook>> myBooksByToken = new TreeMap<String,Set<DbBook>>();
+	// entries read from the snapshot, by book id; every entry is used once
+	private final Map<Long,Entry> mySnapshot = new HashMap<Long,Entry>();
+
+	static String normalize(String text) {
+		final int len = text.length();
+		char[] data = null;
+		for (int i = 0; i < len; ++i) {
+			final char ch = text.charAt(i);
+			final char folded = fold(ch);
+			if (folded != ch) {
+				if (data == null) {
+					data = text.toCharArray();
+				}
+				data[i] = folded;
+			}
+		}
+		return data != null ? new String(data) : text;
+	}
+
+	private static char fold(char ch) {
+		if (ch < 128 || ch >= FOLDING_TABLE_SIZE) {
+			return ZLSearchUtil.foldCase(ch);
+		}
+		char folded = ourFolding[ch];
+		if (folded == 0) {
+			folded = stripDiacritics(ZLSearchUtil.foldCase(ch));
+			ourFolding[ch] = folded;
+		}
+		return folded;
+	}
+
+	private static char stripDiacritics(char ch) {
+		if (Build.VERSION.SDK_INT < Build.VERSION_CODES.GINGERBREAD) {
+			return ch;
+		}
+		final String decomposed = decompose(ch);
+		if (decomposed.length() == 0 || isMark(decomposed.charAt(0))) {
+			return ch;
+		}
+		for (int i = 1; i < decomposed.length(); ++i) {
+			if (!isMark(decomposed.charAt(i))) {
+				// a ligature or a syllable, not a letter with marks
+				return ch;
+			}
+		}
+		return ZLSearchUtil.foldCase(decomposed.charAt(0));
+	}
+
+	private static boolean isMark(char ch) {
+		return Character.getType(ch) == Character.NON_SPACING_MARK;
+	}
+
+	@TargetApi(Build.VERSION_CODES.GINGERBREAD)
+	private static String decompose(char ch) {
+		return Normalizer.normalize(String.valueOf(ch), Normalizer.Form.NFKD);
+	}
+
+	private static boolean isTokenChar(char ch) {
+		return Character.isLetterOrDigit(ch);
+	}
+
+	private static String fileName(DbBook book) {
+		final String path = book.getPath();
+		// last path delimiter before first archive delimiter, as in AbstractBook.matches()
+		final int index = path.indexOf(":");
+		return path.substring((index == -1 ? path.lastIndexOf("/") : path.lastIndexOf("/", index)) + 1);
+	}
+
+	private static long fingerprint(DbBook book) {
+		long hash = hash(book.getTitle());
+		final SeriesInfo info = book.getSeriesInfo();
+		hash = 31 * hash + (info != null ? hash(info.Series.getTitle()) : 0);
+		for (Author a : book.authors()) {
+			hash = 31 * hash + hash(a.DisplayName);
+		}
+		// separates the authors from the tags
+		hash = 31 * hash + 17;
+		for (Tag t : book.tags()) {
+			hash = 31 * hash + hash(t.Name);
+		}
+		return 31 * hash + hash(book.getPath());
+	}
+
+	private static int hash(String str) {
+		return str != null ? str.hashCode() : 0;
+	}
+
+	private static String[] tokenize(DbBook book) {
+		final Set<String> tokens = new HashSet<String>();
+		addTokens(tokens, book.getTitle());
+		final SeriesInfo info = book.getSeriesInfo();
+		if (info != null) {
+			addTokens(tokens, info.Series.getTitle());
+		}
+		for (Author a : book.authors()) {
+			addTokens(tokens, a.DisplayName);
+		}
+		for (Tag t : book.tags()) {
+			addTokens(tokens, t.Name);
+		}
+		addTokens(tokens, fileName(book));
+		return tokens.toArray(new String[tokens.size()]);
+	}
+
+	private static void addTokens(Set<String> tokens, String text) {
+		if (text == null) {
+			return;
+		}
+		final String normalized = normalize(text);
+		final int len = normalized.length();
+		for (int start = 0; start < len; ) {
+			while (start < len && !isTokenChar(normalized.charAt(start))) {
+				++start;
+			}
+			int end = start;
+			while (end < len && isTokenChar(normalized.charAt(end))) {
+				++end;
+			}
+			if (end > start) {
+				tokens.add(normalized.substring(start, end));
+			}
+			start = end;
+		}
+	}
+
+	void add(DbBook book) {
+		remove(book);
+
+		final long fingerprint = fingerprint(book);
+		final Entry saved = mySnapshot.remove(book.getId());
+		final Entry entry = saved != null && saved.Fingerprint == fingerprint
+			? saved : new Entry(book.getId(), fingerprint, tokenize(book));
+		myEntries.put(book, entry);
+		for (String token : entry.Tokens) {
+			Set<DbBook> books = myBooksByToken.get(token);
+			if (books == null) {
+				books = Collections.newSetFromMap(new IdentityHashMap<DbBook,Boolean>());
+				myBooksByToken.put(token, books);
+			}
+			books.add(book);
+		}
+	}
+
+	void replace(DbBook old, DbBook book) {
+		final Entry entry = myEntries.get(old);
+		remove(old);
+		if (entry != null && entry.Id == book.getId()) {
+			// the tokens are reused if the fingerprint is not changed
+			mySnapshot.put(entry.Id, entry);
+		}
+		add(book);
+	}
+
+	void remove(DbBook book) {
+		final Entry entry = myEntries.remove(book);
+		if (entry == null) {
+			return;
+		}
+		for (String token : entry.Tokens) {
+			final Set<DbBook> books = myBooksByToken.get(token);
+			if (books != null && books.remove(book) && books.isEmpty()) {
+				myBooksByToken.remove(token);
+			}
+		}
+	}
+
+	void clear() {
+		myEntries.clear();
+		myBooksByToken.clear();
+	}
+
+	/**
+	 * Returns the books that may match the pattern,
+	 * or null if the pattern contains no letters or digits
+	 */
+	Set<DbBook> lookup(String pattern) {
+		final String normalized = normalize(pattern);
+		final int len = normalized.length();
+		if (len == 0) {
+			return Collections.emptySet();
+		}
+		Set<DbBook> result = null;
+		for (int start = 0; start < len; ) {
+			while (start < len && !isTokenChar(normalized.charAt(start))) {
+				++start;
+			}
+			int end = start;
+			while (end < len && isTokenChar(normalized.charAt(end))) {
+				++end;
+			}
+			if (end == start) {
+				break;
+			}
+			// a piece of the pattern surrounded by separators is a whole token,
+			// a piece at the pattern start may be a token end, etc.
+			final Set<DbBook> books = lookup(normalized.substring(start, end), start > 0, end < len);
+			if (result == null) {
+				result = books;
+			} else {
+				result.retainAll(books);
+			}
+			if (result.isEmpty()) {
+				break;
+			}
+			start = end;
+		}
+		return result;
+	}
+
+	private Set<DbBook> lookup(String piece, boolean tokenStart, boolean tokenEnd) {
+		final Set<DbBook> books = Collections.newSetFromMap(new IdentityHashMap<DbBook,Boolean>());
+		if (tokenStart && tokenEnd) {
+			final Set<DbBook> exact = myBooksByToken.get(piece);
+			if (exact != null) {
+				books.addAll(exact);
+			}
+		} else if (tokenStart) {
+			for (Set<DbBook> s : myBooksByToken.subMap(piece, piece + Character.MAX_VALUE).values()) {
+				books.addAll(s);
+			}
+		} else {
+			// the dictionary is much smaller than the list of books
+			for (Map.Entry<String,Set<DbBook>> entry : myBooksByToken.entrySet()) {
+				final String token = entry.getKey();
+				if (tokenEnd ? token.endsWith(piece) : token.contains(piece)) {
+					books.addAll(entry.getValue());
+				}
+			}
+		}
+		return books;
+	}
+
+	Snapshot snapshot() {
+		mySnapshot.clear();
+		final List<Entry> entries = new ArrayList<Entry>(myEntries.size());
+		for (Entry e : myEntries.values()) {
+			if (e.Id != -1) {
+				entries.add(e);
+			}
+		}
+		return new Snapshot(entries);
+	}
+
+	/**
+	 * Immutable copy of the index entries; can be written outside the books lock
+	 */
+	static final class Snapshot {
+		private final List<Entry> myEntries;
+
+		private Snapshot(List<Entry> entries) {
+			myEntries = entries;
+		}
+
+		void write(File file) {
+			file.getParentFile().mkdirs();
+			final File tempFile = new File(file.getPath() + ".tmp");
+			DataOutputStream stream = null;
+			try {
+				stream = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+				final Map<String,Integer> tokens = new HashMap<String,Integer>();
+				final List<String> table = new ArrayList<String>();
+				for (Entry e : myEntries) {
+					for (String t : e.Tokens) {
+						if (!tokens.containsKey(t)) {
+							tokens.put(t, table.size());
+							table.add(t);
+						}
+					}
+				}
+				stream.writeInt(FORMAT_VERSION);
+				stream.writeInt(table.size());
+				for (String t : table) {
+					stream.writeUTF(t);
+				}
+				stream.writeInt(myEntries.size());
+				for (Entry e : myEntries) {
+					stream.writeLong(e.Id);
+					stream.writeLong(e.Fingerprint);
+					stream.writeInt(e.Tokens.length);
+					for (String t : e.Tokens) {
+						stream.writeInt(tokens.get(t));
+					}
+				}
+				stream.close();
+				stream = null;
+				tempFile.renameTo(file);
+			} catch (IOException e) {
+				// snapshot is optional
+			} finally {
+				if (stream != null) {
+					try {
+						stream.close();
+					} catch (IOException e) {
+					}
+				}
+				tempFile.delete();
+			}
+		}
+	}
+
+	void read(File file) {
+		mySnapshot.clear();
+		if (!file.exists()) {
+			return;
+		}
+		DataInputStream stream = null;
+		try {
+			stream = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+			if (stream.readInt() != FORMAT_VERSION) {
+				return;
+			}
+			final String[] table = new String[stream.readInt()];
+			for (int i = 0; i < table.length; ++i) {
+				table[i] = stream.readUTF();
+			}
+			for (int count = stream.readInt(); count > 0; --count) {
+				final long id = stream.readLong();
+				final long fingerprint = stream.readLong();
+				final String[] tokens = new String[stream.readInt()];
+				for (int i = 0; i < tokens.length; ++i) {
+					tokens[i] = table[stream.readInt()];
+				}
+				mySnapshot.put(id, new Entry(id, fingerprint, tokens));
+			}
+		} catch (Exception e) {
+			// a broken snapshot is ignored
+			mySnapshot.clear();
+		} finally {
+			if (stream != null) {
+				try {
+					stream.close();
+				} catch (IOException e) {
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,255 @@
+/*
+ * Copyright (C) 2007-2015 FBReader.ORG Limited <contact@fbreader.org>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA.
+ */
+
+
+package org.geometerplus.fbreader.book;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+
+import org.geometerplus.zlibrary.core.filesystem.ZLFile;
+import org.geometerplus.zlibrary.core.util.RationalNumber;
+
+/**
+ * Compact copy of the library, written after each successful build.
+ * On the next start the books are shown from the snapshot at once
+ * and replaced by the complete database books during the build.
+ * Uids are not stored, the books read them from the database on demand.
+ */
+final class BookSnapshot {
+	private static final int FORMAT_VERSION = 1;
+
+	private static final int HAS_BOOKMARK = 1;
+	private static final int HAS_PROGRESS = 2;
+
+	private static final class Writer {
+		final Map<String,Integer> Indices = new HashMap<String,Integer>();
+		final List<String> Table = new ArrayList<String>();
+		final ByteArrayOutputStream Bytes = new ByteArrayOutputStream();
+		final DataOutputStream Records = new DataOutputStream(Bytes);
+
+		void writeString(String s) throws IOException {
+			if (s == null) {
+				Records.writeInt(-1);
+				return;
+			}
+			Integer index = Indices.get(s);
+			if (index == null) {
+				index = Table.size();
+				Indices.put(s, index);
+				Table.add(s);
+			}
+			Records.writeInt(index);
+		}
+
+		void writeBook(DbBook book) throws IOException {
+			Records.writeLong(book.getId());
+			writeString(book.getPath());
+			writeString(book.getTitle());
+			writeString(book.getEncodingNoDetection());
+			writeString(book.getLanguage());
+
+			final List<Author> authors = book.authors();
+			Records.writeInt(authors.size());
+			for (Author a : authors) {
+				writeString(a.DisplayName);
+				writeString(a.SortKey);
+			}
+
+			final List<Tag> tags = book.tags();
+			Records.writeInt(tags.size());
+			for (Tag t : tags) {
+				final LinkedList<String> names = new LinkedList<String>();
+				for (; t != null; t = t.Parent) {
+					names.addFirst(t.Name);
+				}
+				Records.writeInt(names.size());
+				for (String n : names) {
+					writeString(n);
+				}
+			}
+
+			final List<Label> labels = book.labels();
+			Records.writeInt(labels.size());
+			for (Label l : labels) {
+				writeString(l.Uid);
+				writeString(l.Name);
+			}
+
+			final SeriesInfo info = book.getSeriesInfo();
+			writeString(info != null ? info.Series.getTitle() : null);
+			writeString(info != null && info.Index != null ? info.Index.toPlainString() : null);
+
+			final RationalNumber progress = book.getProgress();
+			Records.writeByte(
+				(book.HasBookmark ? HAS_BOOKMARK : 0) | (progress != null ? HAS_PROGRESS : 0)
+			);
+			if (progress != null) {
+				Records.writeLong(progress.Numerator);
+				Records.writeLong(progress.Denominator);
+			}
+		}
+	}
+
+	/**
+	 * Serializes the books in the given order; is called under the books lock,
+	 * the result is written to the file outside it
+	 */
+	static byte[] serialize(Collection<DbBook> books) {
+		try {
+			final Writer writer = new Writer();
+			for (DbBook b : books) {
+				writer.writeBook(b);
+			}
+			writer.Records.flush();
+
+			final ByteArrayOutputStream bytes = new ByteArrayOutputStream(writer.Bytes.size() + 1024);
+			final DataOutputStream stream = new DataOutputStream(bytes);
+			stream.writeInt(FORMAT_VERSION);
+			stream.writeInt(writer.Table.size());
+			for (String s : writer.Table) {
+				stream.writeInt(s.length());
+				stream.writeChars(s);
+			}
+			stream.writeInt(books.size());
+			writer.Bytes.writeTo(stream);
+			stream.flush();
+			return bytes.toByteArray();
+		} catch (IOException e) {
+			return null;
+		}
+	}
+
+	static void write(File file, byte[] data) {
+		if (data == null) {
+			return;
+		}
+		file.getParentFile().mkdirs();
+		final File tempFile = new File(file.getPath() + ".tmp");
+		OutputStream stream = null;
+		try {
+			stream = new FileOutputStream(tempFile);
+			stream.write(data);
+			stream.close();
+			stream = null;
+			tempFile.renameTo(file);
+		} catch (IOException e) {
+			// snapshot is optional
+		} finally {
+			if (stream != null) {
+				try {
+					stream.close();
+				} catch (IOException e) {
+				}
+			}
+			tempFile.delete();
+		}
+	}
+
+	/**
+	 * Returns the snapshot books in the stored order;
+	 * an empty list if there is no snapshot or it cannot be read
+	 */
+	static List<DbBook> read(File file) {
+		if (!file.exists()) {
+			return Collections.emptyList();
+		}
+		RandomAccessFile raf = null;
+		try {
+			raf = new RandomAccessFile(file, "r");
+			final ByteBuffer buffer =
+				raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+			if (buffer.getInt() != FORMAT_VERSION) {
+				return Collections.emptyList();
+			}
+			final String[] table = new String[buffer.getInt()];
+			for (int i = 0; i < table.length; ++i) {
+				final char[] chars = new char[buffer.getInt()];
+				buffer.asCharBuffer().get(chars);
+				buffer.position(buffer.position() + 2 * chars.length);
+				table[i] = new String(chars);
+			}
+			final int count = buffer.getInt();
+			final List<DbBook> books = new ArrayList<DbBook>(count);
+			for (int i = 0; i < count; ++i) {
+				books.add(readBook(buffer, table));
+			}
+			return books;
+		} catch (Exception e) {
+			// broken or truncated snapshot
+			return Collections.emptyList();
+		} finally {
+			if (raf != null) {
+				try {
+					raf.close();
+				} catch (IOException e) {
+				}
+			}
+		}
+	}
+
+	private static String readString(ByteBuffer buffer, String[] table) {
+		final int index = buffer.getInt();
+		return index >= 0 ? table[index] : null;
+	}
+
+	private static DbBook readBook(ByteBuffer buffer, String[] table) {
+		final long id = buffer.getLong();
+		final ZLFile file = ZLFile.createFileByPath(readString(buffer, table));
+		final String title = readString(buffer, table);
+		final String encoding = readString(buffer, table);
+		final String language = readString(buffer, table);
+		final DbBook book = new DbBook(id, file, title, encoding, language);
+
+		for (int count = buffer.getInt(); count > 0; --count) {
+			final String name = readString(buffer, table);
+			final String sortKey = readString(buffer, table);
+			book.addAuthorWithNoCheck(new Author(name, sortKey));
+		}
+
+		for (int count = buffer.getInt(); count > 0; --count) {
+			final String[] names = new String[buffer.getInt()];
+			for (int i = 0; i < names.length; ++i) {
+				names[i] = readString(buffer, table);
+			}
+			book.addTagWithNoCheck(Tag.getTag(names));
+		}
+
+		for (int count = buffer.getInt(); count > 0; --count) {
+			final String uid = readString(buffer, table);
+			final String name = readString(buffer, table);
+			book.addLabelWithNoCheck(new Label(uid, name));
+		}
+
+		final String series = readString(buffer, table);
+		final String index = readString(buffer, table);
+		book.setSeriesInfoWithNoCheck(series, index);
+
+		final int flags = buffer.get();
+		book.HasBookmark = (flags & HAS_BOOKMARK) != 0;
+		if ((flags & HAS_PROGRESS) != 0) {
+			final long numerator = buffer.getLong();
+			final long denominator = buffer.getLong();
+			book.setProgressWithNoCheck(RationalNumber.create(numerator, denominator));
+		}
+		return book;
+	}
+}
@@ -32,6 +32,8 @@ public final class DbBook extends AbstractBook {
 	public final ZLFile File;
 
 	private Set<String> myVisitedHyperlinks;
+	// set for the books read from the collection snapshot, that has no uids
+	private volatile BooksDatabase myUidsDatabase;
 
 	DbBook(long id, ZLFile file, String title, String encoding, String language) {
 		super(id, title, encoding, language);
@@ -52,6 +54,50 @@ public final class DbBook extends AbstractBook {
 		return File.getPath();
 	}
 
+	void loadUidsOnDemand(BooksDatabase database) {
+		myUidsDatabase = database;
+	}
+
+	private void loadUids() {
+		if (myUidsDatabase == null) {
+			return;
+		}
+		synchronized (this) {
+			final BooksDatabase database = myUidsDatabase;
+			if (database != null) {
+				myUids = database.listUids(myId);
+				myUidsDatabase = null;
+			}
+		}
+	}
+
+	@Override
+	public List<UID> uids() {
+		loadUids();
+		return super.uids();
+	}
+
+	@Override
+	public void addUid(UID uid) {
+		loadUids();
+		super.addUid(uid);
+	}
+
+	@Override
+	public boolean matchesUid(UID uid) {
+		loadUids();
+		return super.matchesUid(uid);
+	}
+
+	@Override
+	public void updateFrom(AbstractBook book) {
+		loadUids();
+		if (book instanceof DbBook) {
+			((DbBook)book).loadUids();
+		}
+		super.updateFrom(book);
+	}
+
 	void loadLists(BooksDatabase database, PluginCollection pluginCollection) {
 		myAuthors = database.listAuthors(myId);
 		myTags = database.listTags(myId);
@@ -196,6 +242,8 @@ public final class DbBook extends AbstractBook {
 	}
 
 	boolean hasSameMetainfoAs(DbBook other) {
+		loadUids();
+		other.loadUids();
 		return
 			ComparisonUtil.equal(getTitle(), other.getTitle()) &&
 			ComparisonUtil.equal(myEncoding, other.myEncoding) &&
@@ -206,7 +254,22 @@ public final class DbBook extends AbstractBook {
 			ComparisonUtil.equal(myUids, other.myUids);
 	}
 
+	// the metadata shown in the library
+	boolean hasSameLibraryInfoAs(DbBook other) {
+		return
+			ComparisonUtil.equal(getTitle(), other.getTitle()) &&
+			ComparisonUtil.equal(myAuthors, other.myAuthors) &&
+			MiscUtil.listsEquals(myTags, other.myTags) &&
+			MiscUtil.listsEquals(myLabels, other.myLabels) &&
+			ComparisonUtil.equal(mySeriesInfo, other.mySeriesInfo) &&
+			ComparisonUtil.equal(myProgress, other.myProgress) &&
+			HasBookmark == other.HasBookmark;
+	}
+
 	void merge(DbBook other, DbBook base) {
+		loadUids();
+		other.loadUids();
+		base.loadUids();
 		if (!ComparisonUtil.equal(getTitle(), other.getTitle()) &&
 			ComparisonUtil.equal(getTitle(), base.getTitle())) {
 			setTitle(other.getTitle());
@@ -257,6 +320,8 @@ public final class DbBook extends AbstractBook {
 		if (!File.getShortName().equals(ofile.getShortName())) {
 			return false;
 		}
+		loadUids();
+		obook.loadUids();
 		if (myUids == null || obook.myUids == null) {
 			return false;
 		}
@@ -0,0 +1,130 @@
+/*
+ * Copyright (C) 2007-2015 FBReader.ORG Limited <contact@fbreader.org>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA.
+ */
+
+
+package org.geometerplus.fbreader.book;
+
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.geometerplus.zlibrary.core.filesystem.ZLFile;
+import org.geometerplus.zlibrary.core.filesystem.ZLPhysicalFile;
+
+/**
+ * Walks directory trees in several threads; found files are returned by next()
+ * in no particular order, while the walk is still in progress
+ */
+final class DirectoryWalker {
+	static final class MinPriorityThreadFactory implements ThreadFactory {
+		private final ThreadFactory myDefaultThreadFactory = Executors.defaultThreadFactory();
+
+		public Thread newThread(Runnable r) {
+			final Thread th = myDefaultThreadFactory.newThread(r);
+			th.setPriority(Thread.MIN_PRIORITY);
+			th.setDaemon(true);
+			return th;
+		}
+	}
+
+	// end-of-walk marker
+	private static final ZLPhysicalFile END = new ZLPhysicalFile(new File(""));
+
+	private final ExecutorService myPool;
+	private final ConcurrentHashMap<ZLPhysicalFile,Boolean> myDirectories =
+		new ConcurrentHashMap<ZLPhysicalFile,Boolean>();
+	private final BlockingQueue<ZLPhysicalFile> myFiles = new LinkedBlockingQueue<ZLPhysicalFile>();
+	private final AtomicInteger myPendingTasks = new AtomicInteger();
+	private volatile boolean myIsFinished;
+
+	DirectoryWalker(List<String> paths, int threadsNumber) {
+		myPool = Executors.newFixedThreadPool(threadsNumber, new MinPriorityThreadFactory());
+		myPendingTasks.incrementAndGet();
+		for (String p : paths) {
+			submit(new ZLPhysicalFile(new File(p)));
+		}
+		taskFinished();
+	}
+
+	private void submit(final ZLPhysicalFile entry) {
+		myPendingTasks.incrementAndGet();
+		try {
+			myPool.execute(new Runnable() {
+				public void run() {
+					try {
+						process(entry);
+					} finally {
+						taskFinished();
+					}
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			taskFinished();
+		}
+	}
+
+	private void taskFinished() {
+		if (myPendingTasks.decrementAndGet() == 0) {
+			myPool.shutdown();
+			myFiles.add(END);
+		}
+	}
+
+	private void process(ZLPhysicalFile entry) {
+		if (!entry.exists()) {
+			return;
+		}
+		if (entry.isDirectory()) {
+			if (myDirectories.putIfAbsent(entry, Boolean.TRUE) != null) {
+				return;
+			}
+			for (ZLFile file : entry.children()) {
+				final ZLPhysicalFile physicalFile = (ZLPhysicalFile)file;
+				if (physicalFile.isDirectory()) {
+					submit(physicalFile);
+				} else {
+					myFiles.add(physicalFile);
+				}
+			}
+		} else {
+			myFiles.add(entry);
+		}
+	}
+
+	/**
+	 * Returns next found file, waits if no files are ready yet;
+	 * returns null when the walk is over
+	 */
+	ZLPhysicalFile next() throws InterruptedException {
+		if (myIsFinished) {
+			return null;
+		}
+		final ZLPhysicalFile file = myFiles.take();
+		if (file == END) {
+			myIsFinished = true;
+			return null;
+		}
+		return file;
+	}
+
+	void cancel() {
+		myPool.shutdownNow();
+	}
+}
@@ -43,6 +43,11 @@ public interface IBookCollection<B extends AbstractBook> extends AbstractSeriali
 		void onBuildEvent(Status status);
 	}
 
+	public interface BooksConsumer<B> {
+		// returns false to stop the delivery
+		boolean onBooks(List<B> books);
+	}
+
 	public void addListener(Listener<B> listener);
 	public void removeListener(Listener<B> listener);
 
@@ -51,6 +56,16 @@ public interface IBookCollection<B extends AbstractBook> extends AbstractSeriali
 	int size();
 
 	List<B> books(BookQuery query);
+	/**
+	 * Appends the books matching the query to the list and returns the query
+	 * resuming right after them, or null if there are no more such books
+	 */
+	BookQuery books(BookQuery query, List<B> books);
+	/**
+	 * Delivers all the books matching the query to the consumer
+	 * by portions of query.Limit books
+	 */
+	void streamBooks(BookQuery query, BooksConsumer<B> consumer);
 	boolean hasBooks(Filter filter);
 	List<String> titles(BookQuery query);
 
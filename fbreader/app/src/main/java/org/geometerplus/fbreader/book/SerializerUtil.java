@@ -25,71 +25,98 @@ public abstract class SerializerUtil {
 	private SerializerUtil() {
 	}
 
-	private static final AbstractSerializer defaultSerializer = new XMLSerializer();
+	private static final AbstractSerializer binarySerializer = new BinarySerializer();
+	private static final AbstractSerializer xmlSerializer = new XMLSerializer();
+
+	// plugins built before the binary format can read XML only
+	private static final ThreadLocal<Boolean> ourXmlMode = new ThreadLocal<Boolean>() {
+		@Override
+		protected Boolean initialValue() {
+			return false;
+		}
+	};
+
+	/**
+	 * Makes the serialize methods called in the current thread produce XML
+	 */
+	public static void setXmlMode(boolean xml) {
+		ourXmlMode.set(xml);
+	}
+
+	private static AbstractSerializer serializer() {
+		return ourXmlMode.get() ? xmlSerializer : binarySerializer;
+	}
+
+	// both the formats are accepted
+	private static AbstractSerializer deserializer(String data) {
+		return BinarySerializer.isBinary(data) ? binarySerializer : xmlSerializer;
+	}
 
 	public static String serialize(BookQuery query) {
-		return query != null ? defaultSerializer.serialize(query) : null;
+		return query != null ? serializer().serialize(query) : null;
 	}
 
-	public static BookQuery deserializeBookQuery(String xml) {
-		return xml != null ? defaultSerializer.deserializeBookQuery(xml) : null;
+	public static BookQuery deserializeBookQuery(String data) {
+		return data != null ? deserializer(data).deserializeBookQuery(data) : null;
 	}
 
 	public static String serialize(BookmarkQuery query) {
-		return query != null ? defaultSerializer.serialize(query) : null;
+		return query != null ? serializer().serialize(query) : null;
 	}
 
-	public static BookmarkQuery deserializeBookmarkQuery(String xml, AbstractSerializer.BookCreator<? extends AbstractBook> creator) {
-		return xml != null ? defaultSerializer.deserializeBookmarkQuery(xml, creator) : null;
+	public static BookmarkQuery deserializeBookmarkQuery(String data, AbstractSerializer.BookCreator<? extends AbstractBook> creator) {
+		return data != null ? deserializer(data).deserializeBookmarkQuery(data, creator) : null;
 	}
 
 	public static String serialize(AbstractBook book) {
-		return book != null ? defaultSerializer.serialize(book) : null;
+		return book != null ? serializer().serialize(book) : null;
 	}
 
-	public static <B extends AbstractBook> B deserializeBook(String xml, AbstractSerializer.BookCreator<B> creator) {
-		return xml != null ? defaultSerializer.deserializeBook(xml, creator) : null;
+	public static String serializeAsXml(AbstractBook book) {
+		return book != null ? xmlSerializer.serialize(book) : null;
+	}
+
+	public static <B extends AbstractBook> B deserializeBook(String data, AbstractSerializer.BookCreator<B> creator) {
+		return data != null ? deserializer(data).deserializeBook(data, creator) : null;
 	}
 
 	public static List<String> serializeBookList(List<? extends AbstractBook> books) {
-		final List<String> serialized = new ArrayList<String>(books.size());
-		for (AbstractBook b : books) {
-			serialized.add(defaultSerializer.serialize(b));
-		}
-		return serialized;
+		return serializer().serializeBookList(books);
 	}
 
-	public static <B extends AbstractBook> List<B> deserializeBookList(List<String> xmlList, AbstractSerializer.BookCreator<B> creator) {
-		final List<B> books = new ArrayList<B>(xmlList.size());
-		for (String xml : xmlList) {
-			final B b = defaultSerializer.deserializeBook(xml, creator);
-			if (b != null) {
-				books.add(b);
-			}
+	public static <B extends AbstractBook> List<B> deserializeBookList(List<String> dataList, AbstractSerializer.BookCreator<B> creator) {
+		final List<B> books = new ArrayList<B>(dataList.size());
+		for (String data : dataList) {
+			books.addAll(deserializer(data).deserializeBookList(data, creator));
 		}
 		return books;
 	}
 
 	public static String serialize(Bookmark bookmark) {
-		return bookmark != null ? defaultSerializer.serialize(bookmark) : null;
+		return bookmark != null ? serializer().serialize(bookmark) : null;
+	}
+
+	public static String serializeAsXml(Bookmark bookmark) {
+		return bookmark != null ? xmlSerializer.serialize(bookmark) : null;
 	}
 
-	public static Bookmark deserializeBookmark(String xml) {
-		return xml != null ? defaultSerializer.deserializeBookmark(xml) : null;
+	public static Bookmark deserializeBookmark(String data) {
+		return data != null ? deserializer(data).deserializeBookmark(data) : null;
 	}
 
 	public static List<String> serializeBookmarkList(List<Bookmark> bookmarks) {
+		final AbstractSerializer serializer = serializer();
 		final List<String> serialized = new ArrayList<String>(bookmarks.size());
 		for (Bookmark b : bookmarks) {
-			serialized.add(defaultSerializer.serialize(b));
+			serialized.add(serializer.serialize(b));
 		}
 		return serialized;
 	}
 
-	public static List<Bookmark> deserializeBookmarkList(List<String> xmlList) {
-		final List<Bookmark> bookmarks = new ArrayList<Bookmark>(xmlList.size());
-		for (String xml : xmlList) {
-			final Bookmark b = defaultSerializer.deserializeBookmark(xml);
+	public static List<Bookmark> deserializeBookmarkList(List<String> dataList) {
+		final List<Bookmark> bookmarks = new ArrayList<Bookmark>(dataList.size());
+		for (String data : dataList) {
+			final Bookmark b = deserializer(data).deserializeBookmark(data);
 			if (b != null) {
 				bookmarks.add(b);
 			}
@@ -98,25 +125,26 @@ public abstract class SerializerUtil {
 	}
 
 	public static String serialize(HighlightingStyle style) {
-		return style != null ? defaultSerializer.serialize(style) : null;
+		return style != null ? serializer().serialize(style) : null;
 	}
 
-	public static HighlightingStyle deserializeStyle(String xml) {
-		return xml != null ? defaultSerializer.deserializeStyle(xml) : null;
+	public static HighlightingStyle deserializeStyle(String data) {
+		return data != null ? deserializer(data).deserializeStyle(data) : null;
 	}
 
 	public static List<String> serializeStyleList(List<HighlightingStyle> styles) {
+		final AbstractSerializer serializer = serializer();
 		final List<String> serialized = new ArrayList<String>(styles.size());
 		for (HighlightingStyle s : styles) {
-			serialized.add(defaultSerializer.serialize(s));
+			serialized.add(serializer.serialize(s));
 		}
 		return serialized;
 	}
 
-	public static List<HighlightingStyle> deserializeStyleList(List<String> xmlList) {
-		final List<HighlightingStyle> styles = new ArrayList<HighlightingStyle>(xmlList.size());
-		for (String xml : xmlList) {
-			final HighlightingStyle s = defaultSerializer.deserializeStyle(xml);
+	public static List<HighlightingStyle> deserializeStyleList(List<String> dataList) {
+		final List<HighlightingStyle> styles = new ArrayList<HighlightingStyle>(dataList.size());
+		for (String data : dataList) {
+			final HighlightingStyle s = deserializer(data).deserializeStyle(data);
 			if (s != null) {
 				styles.add(s);
 			}
@@ -43,7 +43,8 @@ class XMLSerializer extends AbstractSerializer {
 		final StringBuilder buffer = builder();
 		appendTag(buffer, "query", false,
 			"limit", String.valueOf(query.Limit),
-			"page", String.valueOf(query.Page)
+			"page", String.valueOf(query.Page),
+			"cursor", query.Cursor != BookQuery.NO_CURSOR ? String.valueOf(query.Cursor) : null
 		);
 		serialize(buffer, query.Filter);
 		closeTag(buffer, "query");
@@ -760,6 +761,7 @@ class XMLSerializer extends AbstractSerializer {
 		private Filter myFilter;
 		private int myLimit = -1;
 		private int myPage = -1;
+		private long myCursor = BookQuery.NO_CURSOR;
 		private BookQuery myQuery;
 
 		public BookQuery getQuery() {
@@ -774,7 +776,7 @@ class XMLSerializer extends AbstractSerializer {
 		@Override
 		public void endDocument() {
 			if (myFilter != null && myLimit > 0 && myPage >= 0) {
-				myQuery = new BookQuery(myFilter, myLimit, myPage);
+				myQuery = new BookQuery(myFilter, myLimit, myPage, myCursor);
 			}
 		}
 
@@ -790,6 +792,7 @@ class XMLSerializer extends AbstractSerializer {
 				if ("query".equals(localName)) {
 					myLimit = parseInt(attributes.getValue("limit"));
 					myPage = parseInt(attributes.getValue("page"));
+					myCursor = parseLongSafe(attributes.getValue("cursor"), BookQuery.NO_CURSOR);
 					myStateStack.add(State.READ_QUERY);
 				} else {
 					throw new SAXException("Unexpected tag " + localName);
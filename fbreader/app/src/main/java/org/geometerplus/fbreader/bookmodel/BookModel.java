@@ -19,6 +19,7 @@
 
 package org.geometerplus.fbreader.bookmodel;
 
+import java.nio.CharBuffer;
 import java.util.*;
 
 import org.geometerplus.zlibrary.core.fonts.*;
@@ -31,9 +32,37 @@ import org.geometerplus.fbreader.formats.*;
 
 public final class BookModel {
 	public static BookModel createModel(Book book, FormatPlugin plugin) throws BookReadingException {
+		return createModel(book, plugin, null, null);
+	}
+
+	public static BookModel createModel(Book book, FormatPlugin plugin, BookModelCache cache, String hash) throws BookReadingException {
 		if (plugin instanceof BuiltinFormatPlugin) {
+			final BuiltinFormatPlugin builtinPlugin = (BuiltinFormatPlugin)plugin;
+			final String key = cache != null && hash != null ? cache.key(book, builtinPlugin, hash) : null;
+			if (key != null) {
+				final BookModel cached = new BookModel(book);
+				cached.myMapsStorages = true;
+				if (cache.load(cached, key)) {
+					return cached;
+				}
+			}
+
 			final BookModel model = new BookModel(book);
-			((BuiltinFormatPlugin)plugin).readModel(model);
+			if (key != null) {
+				model.myCacheDirectory = cache.prepareDirectory(key);
+				model.myMapsStorages = true;
+			}
+			try {
+				builtinPlugin.readModel(model);
+			} catch (BookReadingException e) {
+				if (key != null) {
+					cache.remove(key);
+				}
+				throw e;
+			}
+			if (key != null) {
+				cache.store(model, key);
+			}
 			return model;
 		}
 
@@ -46,7 +75,7 @@ public final class BookModel {
 	public final TOCTree TOCTree = new TOCTree();
 	public final FontManager FontManager = new FontManager();
 
-	protected CachedCharStorage myInternalHyperlinks;
+	protected CharStorage myInternalHyperlinks;
 	protected final HashMap<String,ZLImage> myImageMap = new HashMap<String,ZLImage>();
 	protected ZLTextModel myBookTextModel;
 	protected final HashMap<String,ZLTextModel> myFootnotes = new HashMap<String,ZLTextModel>();
@@ -61,10 +90,61 @@ public final class BookModel {
 		}
 	}
 
+	private String myCacheDirectory;
+	// block files are in a per-book cache directory, see CharStorage.create()
+	private boolean myMapsStorages;
+	// creation parameters, kept for BookModelCache
+	final List<ZLTextModelInfo> myTextModelInfos = new ArrayList<ZLTextModelInfo>();
+	String myLinksDirectoryName;
+	String myLinksFileExtension;
+	int myLinksBlocksNumber;
+
+	static final class ZLTextModelInfo {
+		final String Id;
+		final String Language;
+		final int ParagraphsNumber;
+		final int[] EntryIndices;
+		final int[] EntryOffsets;
+		final int[] ParagraphLengths;
+		final int[] TextSizes;
+		final byte[] ParagraphKinds;
+		final String DirectoryName;
+		final String FileExtension;
+		final int BlocksNumber;
+		ZLTextModel Model;
+
+		ZLTextModelInfo(
+			String id, String language, int paragraphsNumber,
+			int[] entryIndices, int[] entryOffsets,
+			int[] paragraphLengths, int[] textSizes, byte[] paragraphKinds,
+			String directoryName, String fileExtension, int blocksNumber
+		) {
+			Id = id;
+			Language = language;
+			ParagraphsNumber = paragraphsNumber;
+			EntryIndices = entryIndices;
+			EntryOffsets = entryOffsets;
+			ParagraphLengths = paragraphLengths;
+			TextSizes = textSizes;
+			ParagraphKinds = paragraphKinds;
+			DirectoryName = directoryName;
+			FileExtension = fileExtension;
+			BlocksNumber = blocksNumber;
+		}
+	}
+
 	protected BookModel(Book book) {
 		Book = book;
 	}
 
+	/**
+	 * Directory for the files written while reading the model,
+	 * null means the plugin's default (temporary) directory.
+	 */
+	public String getCacheDirectory() {
+		return myCacheDirectory;
+	}
+
 	public interface LabelResolver {
 		List<String> getCandidates(String id);
 	}
@@ -106,12 +186,20 @@ public final class BookModel {
 		int[] paragraphLenghts, int[] textSizes, byte[] paragraphKinds,
 		String directoryName, String fileExtension, int blocksNumber
 	) {
-		return new ZLTextPlainModel(
+		final ZLTextModelInfo info = new ZLTextModelInfo(
 			id, language, paragraphsNumber,
 			entryIndices, entryOffsets,
 			paragraphLenghts, textSizes, paragraphKinds,
-			directoryName, fileExtension, blocksNumber, myImageMap, FontManager
+			directoryName, fileExtension, blocksNumber
 		);
+		info.Model = new ZLTextPlainModel(
+			id, language, paragraphsNumber,
+			entryIndices, entryOffsets,
+			paragraphLenghts, textSizes, paragraphKinds,
+			directoryName, fileExtension, blocksNumber, myMapsStorages, myImageMap, FontManager
+		);
+		myTextModelInfos.add(info);
+		return info.Model;
 	}
 
 	public void setBookTextModel(ZLTextModel model) {
@@ -135,7 +223,13 @@ public final class BookModel {
 	}
 
 	public void initInternalHyperlinks(String directoryName, String fileExtension, int blocksNumber) {
-		myInternalHyperlinks = new CachedCharStorage(directoryName, fileExtension, blocksNumber);
+		myLinksDirectoryName = directoryName;
+		myLinksFileExtension = fileExtension;
+		myLinksBlocksNumber = blocksNumber;
+		myInternalHyperlinks = CharStorage.create(directoryName, fileExtension, blocksNumber, myMapsStorages);
+		synchronized (this) {
+			myLabelBlocks = null;
+		}
 	}
 
 	private TOCTree myCurrentTree = TOCTree;
@@ -153,28 +247,122 @@ public final class BookModel {
 		}
 	}
 
-	private Label getLabelInternal(String id) {
-		final int len = id.length();
+	// open-addressing index over myInternalHyperlinks:
+	// hash code, block number and offset of the label record for each slot;
+	// myLabelBlocks[slot] == -1 marks an empty slot
+	private int[] myLabelHashes;
+	private int[] myLabelBlocks;
+	private int[] myLabelOffsets;
+	private int myLabelMask;
+
+	private synchronized void buildLabelIndex() {
+		if (myLabelBlocks != null) {
+			return;
+		}
+
 		final int size = myInternalHyperlinks.size();
+		int count = 0;
+		for (int i = 0; i < size; ++i) {
+			final CharBuffer block = myInternalHyperlinks.buffer(i);
+			for (int offset = 0; offset < block.limit(); ) {
+				final int labelLength = (int)block.get(offset);
+				if (labelLength == 0) {
+					break;
+				}
+				final int idLength = (int)block.get(offset + labelLength + 1);
+				offset += labelLength + idLength + 4;
+				++count;
+			}
+		}
+
+		int capacity = 16;
+		while (capacity < 2 * count) {
+			capacity <<= 1;
+		}
+		final int mask = capacity - 1;
+		final int[] hashes = new int[capacity];
+		final int[] blocks = new int[capacity];
+		final int[] offsets = new int[capacity];
+		Arrays.fill(blocks, -1);
 
 		for (int i = 0; i < size; ++i) {
-			final char[] block = myInternalHyperlinks.block(i);
-			for (int offset = 0; offset < block.length; ) {
-				final int labelLength = (int)block[offset++];
+			final CharBuffer block = myInternalHyperlinks.buffer(i);
+			for (int offset = 0; offset < block.limit(); ) {
+				final int labelLength = (int)block.get(offset);
 				if (labelLength == 0) {
 					break;
 				}
-				final int idLength = (int)block[offset + labelLength];
-				if (labelLength != len || !id.equals(new String(block, offset, labelLength))) {
-					offset += labelLength + idLength + 3;
-					continue;
+				// same as String.hashCode() for the label
+				int hash = 0;
+				for (int j = 1; j <= labelLength; ++j) {
+					hash = 31 * hash + block.get(offset + j);
+				}
+				int slot = mix(hash) & mask;
+				while (blocks[slot] != -1) {
+					slot = (slot + 1) & mask;
+				}
+				hashes[slot] = hash;
+				blocks[slot] = i;
+				offsets[slot] = offset;
+
+				final int idLength = (int)block.get(offset + labelLength + 1);
+				offset += labelLength + idLength + 4;
+			}
+		}
+
+		myLabelHashes = hashes;
+		myLabelOffsets = offsets;
+		myLabelMask = mask;
+		myLabelBlocks = blocks;
+	}
+
+	private static int mix(int hash) {
+		hash ^= (hash >>> 20) ^ (hash >>> 12);
+		return hash ^ (hash >>> 7) ^ (hash >>> 4);
+	}
+
+	private Label getLabelInternal(String id) {
+		if (myInternalHyperlinks == null) {
+			return null;
+		}
+		buildLabelIndex();
+
+		final int len = id.length();
+		final int hash = id.hashCode();
+		final int[] blocks = myLabelBlocks;
+		final int mask = myLabelMask;
+		for (int slot = mix(hash) & mask; blocks[slot] != -1; slot = (slot + 1) & mask) {
+			if (myLabelHashes[slot] != hash) {
+				continue;
+			}
+			final CharBuffer block = myInternalHyperlinks.buffer(blocks[slot]);
+			int offset = myLabelOffsets[slot];
+			if ((int)block.get(offset++) != len) {
+				continue;
+			}
+			boolean matches = true;
+			for (int j = 0; j < len; ++j) {
+				if (block.get(offset + j) != id.charAt(j)) {
+					matches = false;
+					break;
+				}
+			}
+			if (!matches) {
+				continue;
+			}
+			offset += len;
+			final int idLength = (int)block.get(offset++);
+			String modelId = null;
+			if (idLength > 0) {
+				final char[] data = new char[idLength];
+				for (int j = 0; j < idLength; ++j) {
+					data[j] = block.get(offset + j);
 				}
-				offset += labelLength + 1;
-				final String modelId = (idLength > 0) ? new String(block, offset, idLength) : null;
-				offset += idLength;
-				final int paragraphNumber = (int)block[offset] + (((int)block[offset + 1]) << 16);
-				return new Label(modelId, paragraphNumber);
+				modelId = new String(data);
 			}
+			offset += idLength;
+			final int paragraphNumber = (int)block.get(offset) + (((int)block.get(offset + 1)) << 16);
+			return new Label(modelId, paragraphNumber);
 		}
 		return null;
 	}
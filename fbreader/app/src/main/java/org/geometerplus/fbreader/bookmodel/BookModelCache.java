@@ -0,0 +1,434 @@
+/*
+ * Copyright (C) 2007-2015 FBReader.ORG Limited <contact@fbreader.org>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA.
+ */
+package org.geometerplus.fbreader.bookmodel;
+
+import java.io.*;
+import java.util.*;
+
+import org.geometerplus.zlibrary.core.drm.FileEncryptionInfo;
+import org.geometerplus.zlibrary.core.fonts.*;
+import org.geometerplus.zlibrary.core.image.ZLFileImage;
+import org.geometerplus.zlibrary.core.image.ZLImage;
+import org.geometerplus.zlibrary.text.model.ZLTextModel;
+
+import org.geometerplus.fbreader.book.Book;
+import org.geometerplus.fbreader.formats.BuiltinFormatPlugin;
+
+/**
+ * Keeps parsed book models on disk, one directory per (book hash, plugin
+ * version, language, encoding) key. The plugin writes block files directly
+ * into the key directory; this class adds the model.info file with all
+ * the data the plugin passes to BookModel, so the model can be restored
+ * without parsing. The total size is limited; least recently opened
+ * models are removed first.
+ */
+public final class BookModelCache {
+	private static final int FORMAT_VERSION = 1;
+	private static final String INFO_FILE_NAME = "model.info";
+
+	private final File myRoot;
+	private final long myMaxSize;
+
+	public BookModelCache(String directory, long maxSize) {
+		myRoot = new File(directory);
+		myMaxSize = maxSize;
+	}
+
+	String key(Book book, BuiltinFormatPlugin plugin, String hash) {
+		return hash + "_" + Integer.toHexString(descriptor(book, plugin).hashCode());
+	}
+
+	private String descriptor(Book book, BuiltinFormatPlugin plugin) {
+		return plugin.modelVersion() + "\000" + book.getLanguage() + "\000" + book.getEncodingNoDetection();
+	}
+
+	private File directory(String key) {
+		return new File(myRoot, key);
+	}
+
+	String prepareDirectory(String key) {
+		final File dir = directory(key);
+		removeFiles(dir);
+		dir.mkdirs();
+		return dir.getPath();
+	}
+
+	synchronized void remove(String key) {
+		final File dir = directory(key);
+		removeFiles(dir);
+		dir.delete();
+	}
+
+	public synchronized void clear() {
+		final File[] dirs = myRoot.listFiles();
+		if (dirs != null) {
+			for (File d : dirs) {
+				removeFiles(d);
+				d.delete();
+			}
+		}
+	}
+
+	private static void removeFiles(File dir) {
+		final File[] files = dir.listFiles();
+		if (files != null) {
+			for (File f : files) {
+				f.delete();
+			}
+		}
+	}
+
+	private static boolean sameDirectory(String path, File dir) {
+		return path != null && new File(path).getAbsoluteFile().equals(dir.getAbsoluteFile());
+	}
+
+	synchronized void store(BookModel model, String key) {
+		final File dir = directory(key);
+		final File infoFile = new File(dir, INFO_FILE_NAME);
+		final File tempFile = new File(dir, INFO_FILE_NAME + ".tmp");
+		DataOutputStream stream = null;
+		boolean success = false;
+		try {
+			if (!sameDirectory(model.myLinksDirectoryName, dir)) {
+				return;
+			}
+			for (BookModel.ZLTextModelInfo info : model.myTextModelInfos) {
+				if (!sameDirectory(info.DirectoryName, dir)) {
+					return;
+				}
+			}
+			for (ZLImage image : model.myImageMap.values()) {
+				if (!(image instanceof ZLFileImage)) {
+					return;
+				}
+			}
+
+			stream = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+			stream.writeInt(FORMAT_VERSION);
+			writeString(stream, key);
+
+			writeString(stream, model.myLinksFileExtension);
+			stream.writeInt(model.myLinksBlocksNumber);
+
+			stream.writeInt(model.myImageMap.size());
+			for (Map.Entry<String,ZLImage> entry : model.myImageMap.entrySet()) {
+				final ZLFileImage image = (ZLFileImage)entry.getValue();
+				writeString(stream, entry.getKey());
+				writeString(stream, image.getURI().substring(ZLFileImage.SCHEME.length() + 3));
+				writeEncryptionInfo(stream, image.encryptionInfo());
+			}
+
+			writeTOC(stream, model.TOCTree);
+
+			stream.writeInt(model.myTextModelInfos.size());
+			for (BookModel.ZLTextModelInfo info : model.myTextModelInfos) {
+				stream.writeBoolean(info.Model == model.getTextModel());
+				writeString(stream, info.Id);
+				writeString(stream, info.Language);
+				stream.writeInt(info.ParagraphsNumber);
+				writeIntArray(stream, info.EntryIndices);
+				writeIntArray(stream, info.EntryOffsets);
+				writeIntArray(stream, info.ParagraphLengths);
+				writeIntArray(stream, info.TextSizes);
+				stream.writeInt(info.ParagraphKinds.length);
+				stream.write(info.ParagraphKinds);
+				writeString(stream, info.FileExtension);
+				stream.writeInt(info.BlocksNumber);
+			}
+
+			final List<List<String>> familyLists = model.FontManager.familyLists();
+			stream.writeInt(familyLists.size());
+			for (List<String> families : familyLists) {
+				stream.writeInt(families.size());
+				for (String f : families) {
+					writeString(stream, f);
+				}
+			}
+
+			final Map<String,FontEntry> entries;
+			synchronized (model.FontManager.Entries) {
+				entries = new HashMap<String,FontEntry>(model.FontManager.Entries);
+			}
+			stream.writeInt(entries.size());
+			for (Map.Entry<String,FontEntry> entry : entries.entrySet()) {
+				writeString(stream, entry.getKey());
+				final FontEntry fontEntry = entry.getValue();
+				for (int i = 0; i < 4; ++i) {
+					final FileInfo info = fontEntry.fileInfo((i & 1) != 0, (i & 2) != 0);
+					stream.writeBoolean(info != null);
+					if (info != null) {
+						writeString(stream, info.Path);
+						writeEncryptionInfo(stream, info.EncryptionInfo);
+					}
+				}
+			}
+
+			stream.close();
+			stream = null;
+			success = tempFile.renameTo(infoFile);
+		} catch (IOException e) {
+			e.printStackTrace();
+		} finally {
+			if (stream != null) {
+				try {
+					stream.close();
+				} catch (IOException e) {
+				}
+			}
+			if (!success) {
+				tempFile.delete();
+			}
+		}
+		if (success) {
+			evict(key);
+		}
+	}
+
+	synchronized boolean load(BookModel model, String key) {
+		final File dir = directory(key);
+		final File infoFile = new File(dir, INFO_FILE_NAME);
+		if (!infoFile.exists()) {
+			return false;
+		}
+
+		DataInputStream stream = null;
+		try {
+			stream = new DataInputStream(new BufferedInputStream(new FileInputStream(infoFile)));
+			if (stream.readInt() != FORMAT_VERSION ||
+				!key.equals(readString(stream))) {
+				return false;
+			}
+			final String directoryName = dir.getPath();
+
+			final String linksFileExtension = readString(stream);
+			final int linksBlocksNumber = stream.readInt();
+			if (!blocksExist(dir, linksFileExtension, linksBlocksNumber)) {
+				return false;
+			}
+			model.initInternalHyperlinks(directoryName, linksFileExtension, linksBlocksNumber);
+
+			for (int count = stream.readInt(); count > 0; --count) {
+				final String id = readString(stream);
+				final String path = readString(stream);
+				final ZLFileImage image = ZLFileImage.byUrlPath(path, readEncryptionInfo(stream));
+				if (image != null) {
+					model.addImage(id, image);
+				}
+			}
+
+			readTOC(stream, model);
+
+			for (int count = stream.readInt(); count > 0; --count) {
+				final boolean isMain = stream.readBoolean();
+				final String id = readString(stream);
+				final String language = readString(stream);
+				final int paragraphsNumber = stream.readInt();
+				final int[] entryIndices = readIntArray(stream);
+				final int[] entryOffsets = readIntArray(stream);
+				final int[] paragraphLengths = readIntArray(stream);
+				final int[] textSizes = readIntArray(stream);
+				final byte[] paragraphKinds = new byte[stream.readInt()];
+				stream.readFully(paragraphKinds);
+				final String fileExtension = readString(stream);
+				final int blocksNumber = stream.readInt();
+				if (!blocksExist(dir, fileExtension, blocksNumber)) {
+					return false;
+				}
+				final ZLTextModel textModel = model.createTextModel(
+					id, language, paragraphsNumber,
+					entryIndices, entryOffsets,
+					paragraphLengths, textSizes, paragraphKinds,
+					directoryName, fileExtension, blocksNumber
+				);
+				if (isMain) {
+					model.setBookTextModel(textModel);
+				} else {
+					model.setFootnoteModel(textModel);
+				}
+			}
+			if (model.getTextModel() == null) {
+				return false;
+			}
+
+			for (int count = stream.readInt(); count > 0; --count) {
+				final String[] families = new String[stream.readInt()];
+				for (int i = 0; i < families.length; ++i) {
+					families[i] = readString(stream);
+				}
+				model.registerFontFamilyList(families);
+			}
+
+			for (int count = stream.readInt(); count > 0; --count) {
+				final String family = readString(stream);
+				final FileInfo[] infos = new FileInfo[4];
+				for (int i = 0; i < 4; ++i) {
+					if (stream.readBoolean()) {
+						final String path = readString(stream);
+						infos[i] = new FileInfo(path, readEncryptionInfo(stream));
+					}
+				}
+				model.registerFontEntry(family, infos[0], infos[1], infos[2], infos[3]);
+			}
+
+			infoFile.setLastModified(System.currentTimeMillis());
+			return true;
+		} catch (IOException e) {
+			e.printStackTrace();
+			return false;
+		} finally {
+			if (stream != null) {
+				try {
+					stream.close();
+				} catch (IOException e) {
+				}
+			}
+		}
+	}
+
+	private static boolean blocksExist(File dir, String fileExtension, int blocksNumber) {
+		for (int i = 0; i < blocksNumber; ++i) {
+			if (!new File(dir, i + "." + fileExtension).exists()) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private void evict(String keyToKeep) {
+		if (myMaxSize <= 0) {
+			return;
+		}
+		final File[] dirs = myRoot.listFiles();
+		if (dirs == null) {
+			return;
+		}
+
+		long totalSize = 0;
+		final Map<File,Long> sizes = new HashMap<File,Long>();
+		for (File d : dirs) {
+			long size = 0;
+			final File[] files = d.listFiles();
+			if (files != null) {
+				for (File f : files) {
+					size += f.length();
+				}
+			}
+			sizes.put(d, size);
+			totalSize += size;
+		}
+		if (totalSize <= myMaxSize) {
+			return;
+		}
+
+		Arrays.sort(dirs, new Comparator<File>() {
+			public int compare(File d0, File d1) {
+				final long m0 = new File(d0, INFO_FILE_NAME).lastModified();
+				final long m1 = new File(d1, INFO_FILE_NAME).lastModified();
+				return m0 < m1 ? -1 : (m0 == m1 ? 0 : 1);
+			}
+		});
+		for (File d : dirs) {
+			if (totalSize <= myMaxSize) {
+				break;
+			}
+			if (d.getName().equals(keyToKeep)) {
+				continue;
+			}
+			removeFiles(d);
+			d.delete();
+			totalSize -= sizes.get(d);
+		}
+	}
+
+	private static void writeTOC(DataOutputStream stream, TOCTree tree) throws IOException {
+		final List<TOCTree> subtrees = tree.subtrees();
+		stream.writeInt(subtrees.size());
+		for (TOCTree t : subtrees) {
+			writeString(stream, t.getText());
+			final TOCTree.Reference reference = t.getReference();
+			stream.writeInt(reference != null ? reference.ParagraphIndex : -1);
+			writeTOC(stream, t);
+		}
+	}
+
+	private static void readTOC(DataInputStream stream, BookModel model) throws IOException {
+		for (int count = stream.readInt(); count > 0; --count) {
+			final String text = readString(stream);
+			model.addTOCItem(text, stream.readInt());
+			readTOC(stream, model);
+			model.leaveTOCItem();
+		}
+	}
+
+	private static void writeEncryptionInfo(DataOutputStream stream, FileEncryptionInfo info) throws IOException {
+		stream.writeBoolean(info != null);
+		if (info != null) {
+			writeString(stream, info.Uri);
+			writeString(stream, info.Method);
+			writeString(stream, info.Algorithm);
+			writeString(stream, info.ContentId);
+		}
+	}
+
+	private static FileEncryptionInfo readEncryptionInfo(DataInputStream stream) throws IOException {
+		if (!stream.readBoolean()) {
+			return null;
+		}
+		final String uri = readString(stream);
+		final String method = readString(stream);
+		final String algorithm = readString(stream);
+		return new FileEncryptionInfo(uri, method, algorithm, readString(stream));
+	}
+
+	private static void writeIntArray(DataOutputStream stream, int[] array) throws IOException {
+		stream.writeInt(array.length);
+		for (int value : array) {
+			stream.writeInt(value);
+		}
+	}
+
+	private static int[] readIntArray(DataInputStream stream) throws IOException {
+		final int[] array = new int[stream.readInt()];
+		for (int i = 0; i < array.length; ++i) {
+			array[i] = stream.readInt();
+		}
+		return array;
+	}
+
+	private static void writeString(DataOutputStream stream, String value) throws IOException {
+		if (value == null) {
+			stream.writeInt(-1);
+		} else {
+			stream.writeInt(value.length());
+			stream.writeChars(value);
+		}
+	}
+
+	private static String readString(DataInputStream stream) throws IOException {
+		final int length = stream.readInt();
+		if (length < 0) {
+			return null;
+		}
+		final char[] data = new char[length];
+		for (int i = 0; i < length; ++i) {
+			data[i] = stream.readChar();
+		}
+		return new String(data);
+	}
+}
@@ -76,10 +76,14 @@ public final class FBReaderApp extends ZLApplication {
 
 	private final SyncData mySyncData = new SyncData();
 
+	private BookModelCache myModelCache;
+	private int myModelCacheSize;
+
 	public FBReaderApp(SystemInfo systemInfo, final IBookCollection<Book> collection) {
 		super(systemInfo);
 
 		Collection = collection;
+		ZLTextHyphenator.Instance().setCacheDirectory(systemInfo.tempDirectory() + "/hyphenation");
 
 		collection.addListener(new IBookCollection.Listener<Book>() {
 			public void onBookEvent(BookEvent event, Book book) {
@@ -129,6 +133,8 @@ public final class FBReaderApp extends ZLApplication {
 
 		BookTextView = new FBView(this);
 		FootnoteView = new FBView(this);
+		BookTextView.setPageBreaksDirectory(systemInfo.tempDirectory() + "/pages");
+		FootnoteView.setPageBreaksDirectory(systemInfo.tempDirectory() + "/pages");
 
 		setView(BookTextView);
 	}
@@ -263,6 +269,20 @@ public final class FBReaderApp extends ZLApplication {
 		}
 	}
 
+	private BookModelCache getModelCache() {
+		final int size = MiscOptions.ModelCacheSize.getValue();
+		if (size == 0) {
+			return null;
+		}
+		if (myModelCache == null || myModelCacheSize != size) {
+			myModelCache = new BookModelCache(
+				SystemInfo.tempDirectory() + "/models", size * 1024L * 1024L
+			);
+			myModelCacheSize = size;
+		}
+		return myModelCache;
+	}
+
 	public void clearTextCaches() {
 		BookTextView.clearCaches();
 		FootnoteView.clearCaches();
@@ -360,10 +380,13 @@ public final class FBReaderApp extends ZLApplication {
 		}
 
 		try {
-			Model = BookModel.createModel(book, plugin);
+			Model = BookModel.createModel(
+				book, plugin, getModelCache(), Collection.getHash(book, false)
+			);
 			Collection.saveBook(book);
 			ZLTextHyphenator.Instance().load(book.getLanguage());
 			BookTextView.setModel(Model.getTextModel());
+			Model.getTextModel().prepareSearchIndex();
 			setBookmarkHighlightings(BookTextView, null);
 			gotoStoredPosition();
 			if (bookmark == null) {
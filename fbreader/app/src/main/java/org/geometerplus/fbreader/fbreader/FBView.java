@@ -59,6 +59,24 @@ public final class FBView extends ZLTextView {
 		}
 	}
 
+	@Override
+	protected String getPageBreaksKey(ZLTextModel model) {
+		final BookModel bookModel = myReader.Model;
+		if (bookModel == null) {
+			return null;
+		}
+		final boolean isTextModel = bookModel.getTextModel() == model;
+		final String id = model.getId();
+		if (!isTextModel && (id == null || bookModel.getFootnoteModel(id) != model)) {
+			return null;
+		}
+		final String hash = myReader.Collection.getHash(bookModel.Book, false);
+		if (hash == null) {
+			return null;
+		}
+		return isTextModel ? hash : hash + "_" + Integer.toHexString(id.hashCode());
+	}
+
 	private int myStartY;
 	private boolean myIsBrightnessAdjustmentInProgress;
 	private int myStartBrightness;
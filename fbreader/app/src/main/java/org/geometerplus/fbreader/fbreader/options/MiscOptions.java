@@ -41,6 +41,9 @@ public class MiscOptions {
 	public final ZLEnumOption<FootnoteToastEnum> ShowFootnoteToast;
 	public final ZLEnumOption<DurationEnum> FootnoteToastDuration;
 
+	// in megabytes, 0 = do not keep parsed models
+	public final ZLIntegerRangeOption ModelCacheSize;
+
 	public MiscOptions() {
 		AllowScreenBrightnessAdjustment =
 			new ZLBooleanOption("LookNFeel", "AllowScreenBrightnessAdjustment", true);
@@ -61,5 +64,8 @@ public class MiscOptions {
 			new ZLEnumOption<FootnoteToastEnum>("Options", "ShowFootnoteToast", FootnoteToastEnum.footnotesAndSuperscripts);
 		FootnoteToastDuration =
 			new ZLEnumOption<DurationEnum>("Options", "FootnoteToastDuration", DurationEnum.duration5);
+
+		ModelCacheSize =
+			new ZLIntegerRangeOption("Options", "ModelCacheSize", 0, 1024, 64);
 	}
 }
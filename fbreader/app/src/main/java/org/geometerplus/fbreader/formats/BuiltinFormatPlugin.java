@@ -29,4 +29,12 @@ public abstract class BuiltinFormatPlugin extends FormatPlugin {
 	}
 
 	public abstract void readModel(BookModel model) throws BookReadingException;
+
+	/**
+	 * Cached models are invalidated when this value changes;
+	 * plugins should change it when the model layout is changed.
+	 */
+	public String modelVersion() {
+		return supportedFileType();
+	}
 }
@@ -106,7 +106,8 @@ public class NativeFormatPlugin extends BuiltinFormatPlugin {
 	@Override
 	synchronized public void readModel(BookModel model) throws BookReadingException {
 		final int code;
-		final String tempDirectory = SystemInfo.tempDirectory();
+		final String tempDirectory = model.getCacheDirectory() != null
+			? model.getCacheDirectory() : SystemInfo.tempDirectory();
 		synchronized (ourNativeLock) {
 			code = readModelNative(model, tempDirectory);
 		}
@@ -128,6 +129,14 @@ public class NativeFormatPlugin extends BuiltinFormatPlugin {
 
 	private native int readModelNative(BookModel model, String cacheDir);
 
+	// increase when the native model layout is changed
+	private static final int MODEL_VERSION = 1;
+
+	@Override
+	public String modelVersion() {
+		return "native." + supportedFileType() + "." + MODEL_VERSION;
+	}
+
 	@Override
 	public final ZLFileImageProxy readCover(ZLFile file) {
 		return new ZLFileImageProxy(file) {
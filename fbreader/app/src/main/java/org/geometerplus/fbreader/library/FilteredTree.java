@@ -55,15 +55,14 @@ abstract class FilteredTree extends LibraryTree {
 	}
 
 	protected final void createBookSubtrees() {
-		for (BookQuery query = new BookQuery(myFilter, 20); ; query = query.next()) {
-			final List<Book> books = Collection.books(query);
-			if (books.isEmpty()) {
-				break;
+		Collection.streamBooks(new BookQuery(myFilter, 20), new IBookCollection.BooksConsumer<Book>() {
+			public boolean onBooks(List<Book> books) {
+				for (Book b : books) {
+					createSubtree(b);
+				}
+				return true;
 			}
-			for (Book b : books) {
-				createSubtree(b);
-			}
-		}
+		});
 	}
 
 	@Override
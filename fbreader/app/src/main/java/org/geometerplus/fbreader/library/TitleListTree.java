@@ -52,15 +52,14 @@ public class TitleListTree extends FirstLevelTree {
 				createTitleSubtree(l);
 			}
 		} else {
-			for (BookQuery query = new BookQuery(new Filter.Empty(), 20); ; query = query.next()) {
-				final List<Book> books = Collection.books(query);
-				if (books.isEmpty()) {
-					break;
+			Collection.streamBooks(new BookQuery(new Filter.Empty(), 20), new IBookCollection.BooksConsumer<Book>() {
+				public boolean onBooks(List<Book> books) {
+					for (Book b : books) {
+						createBookWithAuthorsSubtree(b);
+					}
+					return true;
 				}
-				for (Book b : books) {
-					createBookWithAuthorsSubtree(b);
-				}
-			}
+			});
 		}
 	}
 
@@ -28,7 +28,8 @@ import org.geometerplus.zlibrary.core.drm.embedding.EmbeddingInputStream;
 import org.geometerplus.zlibrary.core.util.InputStreamHolder;
 
 public abstract class ZLFile implements InputStreamHolder {
-	private final static HashMap<String,ZLFile> ourCachedFiles = new HashMap<String,ZLFile>();
+	private final static Map<String,ZLFile> ourCachedFiles =
+		Collections.synchronizedMap(new HashMap<String,ZLFile>());
 
 	protected interface ArchiveType {
 		int	NONE = 0;
@@ -43,21 +43,59 @@ final class ZLZipEntryFile extends ZLArchiveEntryFile {
 
 	private static HashMap<ZLFile,ZipFile> ourZipFileMap = new HashMap<ZLFile,ZipFile>();
 
+	// not cached physical archives: the central directory index is kept for
+	// a few recently used files, and is dropped if the file has been changed
+	private static final int RECENT_ZIP_FILES_NUMBER = 8;
+	private static final class RecentZipFile {
+		final ZipFile File;
+		final long Size;
+		final long LastModified;
+
+		RecentZipFile(ZipFile file, long size, long lastModified) {
+			File = file;
+			Size = size;
+			LastModified = lastModified;
+		}
+	}
+	private static final LinkedHashMap<ZLFile,RecentZipFile> ourRecentZipFiles =
+		new LinkedHashMap<ZLFile,RecentZipFile>(RECENT_ZIP_FILES_NUMBER, .75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<ZLFile,RecentZipFile> eldest) {
+				return size() > RECENT_ZIP_FILES_NUMBER;
+			}
+		};
+
 	private static ZipFile getZipFile(final ZLFile file) throws IOException {
 		synchronized (ourZipFileMap) {
-			ZipFile zf = file.isCached() ? ourZipFileMap.get(file) : null;
-			if (zf == null) {
-				zf = new ZipFile(file);
-				if (file.isCached()) {
+			if (file.isCached()) {
+				ZipFile zf = ourZipFileMap.get(file);
+				if (zf == null) {
+					zf = new ZipFile(file);
 					ourZipFileMap.put(file, zf);
 				}
+				return zf;
 			}
+
+			if (file.getPhysicalFile() != file) {
+				return new ZipFile(file);
+			}
+			final long size = file.size();
+			final long lastModified = file.lastModified();
+			final RecentZipFile recent = ourRecentZipFiles.get(file);
+			if (recent != null && recent.Size == size && recent.LastModified == lastModified) {
+				return recent.File;
+			}
+			final ZipFile zf = new ZipFile(file);
+			ourRecentZipFiles.put(file, new RecentZipFile(zf, size, lastModified));
 			return zf;
 		}
 	}
 
 	static void removeFromCache(ZLFile file) {
-		ourZipFileMap.remove(file);
+		synchronized (ourZipFileMap) {
+			ourZipFileMap.remove(file);
+			ourRecentZipFiles.remove(file);
+		}
 	}
 
 	ZLZipEntryFile(ZLFile parent, String name) {
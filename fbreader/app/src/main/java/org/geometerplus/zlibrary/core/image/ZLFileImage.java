@@ -33,6 +33,10 @@ public class ZLFileImage implements ZLStreamImage {
 	public static final String ENCODING_BASE64 = "base64";
 
 	public static ZLFileImage byUrlPath(String urlPath) {
+		return byUrlPath(urlPath, null);
+	}
+
+	public static ZLFileImage byUrlPath(String urlPath, FileEncryptionInfo encryptionInfo) {
 		try {
 			final String[] data = urlPath.split("\000");
 			int count = Integer.parseInt(data[2]);
@@ -47,7 +51,7 @@ public class ZLFileImage implements ZLStreamImage {
 				data[1],
 				offsets,
 				lengths,
-				null
+				encryptionInfo
 			);
 		} catch (Exception e) {
 			e.printStackTrace();
@@ -77,6 +81,10 @@ public class ZLFileImage implements ZLStreamImage {
 		this(file, ENCODING_NONE, 0, (int)file.size());
 	}
 
+	public FileEncryptionInfo encryptionInfo() {
+		return myEncryptionInfo;
+	}
+
 	public String getURI() {
 		String result = SCHEME + "://" + myFile.getPath() + "\000" + myEncoding + "\000" + myOffsets.length;
 		for (int offset : myOffsets) {
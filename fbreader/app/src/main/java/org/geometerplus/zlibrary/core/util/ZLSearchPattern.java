@@ -19,24 +19,55 @@
 
 package org.geometerplus.zlibrary.core.util;
 
+import java.util.Arrays;
+
 public class ZLSearchPattern {
+	static final int SHIFT_TABLE_SIZE = 256;
+	// shorter patterns are searched by the first character, see ZLSearchUtil
+	static final int MIN_SKIP_PATTERN_LENGTH = 16;
+
 	final boolean IgnoreCase;
-	final char[] LowerCasePattern;
+	// case-folded if IgnoreCase, see ZLSearchUtil.foldCase()
+	final char[] Pattern;
+	// upper-case Pattern for short patterns if IgnoreCase, null otherwise
 	final char[] UpperCasePattern;
+	// Horspool shifts indexed by the low byte of the (folded) text character;
+	// null for short patterns
+	final int[] Shifts;
 
 	public ZLSearchPattern(String pattern, boolean ignoreCase) {
 		pattern = pattern.replace("\u200b", "");
 		IgnoreCase = ignoreCase;
+		Pattern = pattern.toCharArray();
+		final int length = Pattern.length;
 		if (IgnoreCase) {
-			LowerCasePattern = pattern.toLowerCase().toCharArray();
-			UpperCasePattern = pattern.toUpperCase().toCharArray();
-		} else {
-			LowerCasePattern = pattern.toCharArray();
+			for (int i = 0; i < length; ++i) {
+				Pattern[i] = ZLSearchUtil.foldCase(Pattern[i]);
+			}
+		}
+
+		if (length >= MIN_SKIP_PATTERN_LENGTH) {
 			UpperCasePattern = null;
+			Shifts = new int[SHIFT_TABLE_SIZE];
+			Arrays.fill(Shifts, length);
+			for (int i = 0; i < length - 1; ++i) {
+				Shifts[Pattern[i] & (SHIFT_TABLE_SIZE - 1)] = length - 1 - i;
+			}
+		} else {
+			Shifts = null;
+			if (IgnoreCase) {
+				// per character, so the arrays are aligned
+				UpperCasePattern = new char[length];
+				for (int i = 0; i < length; ++i) {
+					UpperCasePattern[i] = Character.toUpperCase(Pattern[i]);
+				}
+			} else {
+				UpperCasePattern = null;
+			}
 		}
 	}
 
 	public int getLength() {
-		return LowerCasePattern.length;
+		return Pattern.length;
 	}
 }
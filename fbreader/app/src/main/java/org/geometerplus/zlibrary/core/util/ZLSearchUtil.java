@@ -19,7 +19,24 @@
 
 package org.geometerplus.zlibrary.core.util;
 
+/**
+ * Substring search. Short patterns are found by a scan for the first
+ * character, long ones with Boyer-Moore-Horspool skips. Zero-width spaces
+ * in the text are ignored inside a match (but a match never starts with
+ * one). Case-insensitive search compares case-folded characters; for short
+ * patterns, a text character matches the folded pattern character or its
+ * upper case, so rare third variants (like long s) match long patterns only.
+ */
 public abstract class ZLSearchUtil {
+	private static final char ZERO_WIDTH_SPACE = '\u200b';
+
+	private static final char[] ourFoldTable = new char[0x2000];
+	static {
+		for (int i = 0; i < ourFoldTable.length; ++i) {
+			ourFoldTable[i] = Character.toLowerCase(Character.toUpperCase((char)i));
+		}
+	}
+
 	private ZLSearchUtil() {
 	}
 
@@ -33,72 +50,165 @@ public abstract class ZLSearchUtil {
 		}
 	}
 
+	public interface MatchConsumer {
+		// start is relative to the text offset; returns false to stop the search
+		boolean onMatch(int start, int length);
+	}
+
+	public static char foldCase(char ch) {
+		return ch < ourFoldTable.length ? ourFoldTable[ch] : foldCaseOutsideTable(ch);
+	}
+
+	private static char foldCaseOutsideTable(char ch) {
+		// no cased characters there (CJK, kana, hangul)
+		if ((ch >= '\u2d30' && ch < '\ua640') || (ch >= '\uac00' && ch < '\uff21')) {
+			return ch;
+		}
+		return Character.toLowerCase(Character.toUpperCase(ch));
+	}
+
 	public static Result find(char[] text, int offset, int length, final ZLSearchPattern pattern) {
 		return find(text, offset, length, pattern, 0);
 	}
 
 	public static Result find(char[] text, int offset, int length, final ZLSearchPattern pattern, int pos) {
+		final long match = match(text, offset, length, pattern, pos);
+		return match != -1 ? new Result((int)(match >>> 32), (int)match) : null;
+	}
+
+	/**
+	 * Reports all the matches, overlapping ones included, in the text order;
+	 * returns the number of reported matches
+	 */
+	public static int findAll(char[] text, int offset, int length, final ZLSearchPattern pattern, MatchConsumer consumer) {
+		int count = 0;
+		for (long match = match(text, offset, length, pattern, 0); match != -1;
+			match = match(text, offset, length, pattern, (int)(match >>> 32) + 1)) {
+			++count;
+			if (!consumer.onMatch((int)(match >>> 32), (int)match)) {
+				break;
+			}
+		}
+		return count;
+	}
+
+	// returns (start << 32) | length of the first match starting at pos or later, or -1
+	private static long match(char[] text, int offset, int length, final ZLSearchPattern pattern, int pos) {
 		if (pos < 0) {
 			pos = 0;
 		}
-		final char[] lower = pattern.LowerCasePattern;
-		final int patternLength = lower.length;
-		final int end = offset + length;
+		final int patternLength = pattern.Pattern.length;
+		if (patternLength == 0) {
+			return -1;
+		}
+		return pattern.Shifts != null
+			? matchWithSkips(text, offset, offset + pos, offset + length, pattern)
+			: matchByFirstChar(text, offset, offset + pos, offset + length, pattern);
+	}
+
+	private static long matchByFirstChar(char[] text, int offset, int start, int end, final ZLSearchPattern pattern) {
+		final char[] chars = pattern.Pattern;
+		final int patternLength = chars.length;
 		final int lastStart = end - patternLength;
+
 		if (pattern.IgnoreCase) {
 			final char[] upper = pattern.UpperCasePattern;
-			final char firstCharLower = lower[0];
+			final char firstCharLower = chars[0];
 			final char firstCharUpper = upper[0];
-			for (int i = offset + pos; i <= lastStart; ++i) {
+			for (int i = start; i <= lastStart; ++i) {
 				final char current = text[i];
 				if (current == firstCharLower || current == firstCharUpper) {
 					int j = 1;
 					int k = i + 1;
 					for (; j < patternLength; ++k) {
 						final char symbol = text[k];
-						if (symbol == '\u200b') {
-							if (patternLength - j > end - k) {
+						if (symbol == ZERO_WIDTH_SPACE) {
+							if (patternLength - j > end - k - 1) {
 								break;
-							} else {
-								continue;
 							}
+							continue;
 						}
-						if (lower[j] != symbol && upper[j] != symbol) {
+						if (chars[j] != symbol && upper[j] != symbol) {
 							break;
 						}
 						++j;
 					}
 					if (j == patternLength) {
-						return new Result(i - offset, k - i);
+						return ((long)(i - offset) << 32) | (k - i);
 					}
 				}
 			}
 		} else {
-			final char firstChar = lower[0];
-			for (int i = offset + pos; i <= lastStart; i++) {
+			final char firstChar = chars[0];
+			for (int i = start; i <= lastStart; ++i) {
 				if (text[i] == firstChar) {
 					int j = 1;
 					int k = i + 1;
 					for (; j < patternLength; ++k) {
 						final char symbol = text[k];
-						if (symbol == '\u200b') {
-							if (patternLength - j > end - k) {
+						if (symbol == ZERO_WIDTH_SPACE) {
+							if (patternLength - j > end - k - 1) {
 								break;
-							} else {
-								continue;
 							}
+							continue;
 						}
-						if (lower[j] != text[k]) {
+						if (chars[j] != symbol) {
 							break;
 						}
 						++j;
 					}
-					if (j >= patternLength) {
-						return new Result(i - offset, k - i);
+					if (j == patternLength) {
+						return ((long)(i - offset) << 32) | (k - i);
 					}
 				}
 			}
 		}
-		return null;
+		return -1;
+	}
+
+	private static long matchWithSkips(char[] text, int offset, int start, int end, final ZLSearchPattern pattern) {
+		final char[] chars = pattern.Pattern;
+		final int patternLength = chars.length;
+		final int[] shifts = pattern.Shifts;
+		final int mask = ZLSearchPattern.SHIFT_TABLE_SIZE - 1;
+		final boolean ignoreCase = pattern.IgnoreCase;
+		final char lastChar = chars[patternLength - 1];
+
+		// k is the text position aligned with the last pattern character
+		for (int k = start + patternLength - 1; k < end; ) {
+			char current = text[k];
+			if (current == ZERO_WIDTH_SPACE) {
+				++k;
+				continue;
+			}
+			if (ignoreCase) {
+				current = foldCase(current);
+			}
+			if (current == lastChar) {
+				int j = patternLength - 2;
+				int i = k - 1;
+				while (j >= 0 && i >= start) {
+					char symbol = text[i];
+					if (symbol == ZERO_WIDTH_SPACE) {
+						--i;
+						continue;
+					}
+					if (ignoreCase) {
+						symbol = foldCase(symbol);
+					}
+					if (symbol != chars[j]) {
+						break;
+					}
+					--j;
+					--i;
+				}
+				if (j < 0) {
+					return ((long)(i + 1 - offset) << 32) | (k - i);
+				}
+			}
+			// the skip is safe with zero-width spaces too: they only stretch a match
+			k += shifts[current & mask];
+		}
+		return -1;
 	}
 }
@@ -81,11 +81,15 @@ final class DummyPaintContext extends ZLPaintContext {
 		return 1;
 	}
 	@Override
+	public ZLPaintContext createMeasuringContext() {
+		return new DummyPaintContext();
+	}
+	@Override
 	protected int getCharHeightInternal(char chr) {
 		return 1;
 	}
 	@Override
-	public int getStringWidth(char[] string, int offset, int length) {
+	protected int getStringWidthInternal(char[] string, int offset, int length) {
 		return 1;
 	}
 
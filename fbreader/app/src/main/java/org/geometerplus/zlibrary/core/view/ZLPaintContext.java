@@ -59,6 +59,7 @@ abstract public class ZLPaintContext {
 	private boolean myFontIsItalic;
 	private boolean myFontIsUnderlined;
 	private boolean myFontIsStrikedThrough;
+	private int myFontId = -1;
 
 	public final void setFont(List<FontEntry> entries, int size, boolean bold, boolean italic, boolean underline, boolean strikeThrough) {
 		if (entries != null && !entries.equals(myFontEntries)) {
@@ -88,6 +89,8 @@ abstract public class ZLPaintContext {
 		if (myResetFont) {
 			myResetFont = false;
 			setFontInternal(myFontEntries, size, bold, italic, underline, strikeThrough);
+			final ZLStringWidthCache cache = getWidthCache();
+			myFontId = cache != null ? cache.fontId(myFontEntries, size, bold, italic) : -1;
 			mySpaceWidth = -1;
 			myStringHeight = -1;
 			myDescent = -1;
@@ -109,10 +112,44 @@ abstract public class ZLPaintContext {
 	abstract public int getWidth();
 	abstract public int getHeight();
 
+	/**
+	 * Returns a context of the same size and text rendering settings that
+	 * can only measure; it is used for layout on a background thread
+	 */
+	abstract public ZLPaintContext createMeasuringContext();
+
 	public final int getStringWidth(String string) {
 		return getStringWidth(string.toCharArray(), 0, string.length());
 	}
-	abstract public int getStringWidth(char[] string, int offset, int length);
+	public final int getStringWidth(char[] string, int offset, int length) {
+		final ZLStringWidthCache cache = getWidthCache();
+		final int fontId = myFontId;
+		if (cache == null || fontId == -1) {
+			return getStringWidthInternal(string, offset, length);
+		}
+		int width = cache.get(fontId, string, offset, length);
+		if (width == -1) {
+			width = getStringWidthInternal(string, offset, length);
+			cache.put(fontId, string, offset, length, width);
+		}
+		return width;
+	}
+	abstract protected int getStringWidthInternal(char[] string, int offset, int length);
+
+	/**
+	 * Returns the width cache shared by contexts with the same rendering settings,
+	 * or null if widths should not be cached
+	 */
+	protected ZLStringWidthCache getWidthCache() {
+		return null;
+	}
+
+	/**
+	 * Returns the id of the current font in the width cache, or -1 if widths are not cached
+	 */
+	public final int getFontId() {
+		return myFontId;
+	}
 
 	private int mySpaceWidth = -1;
 	public final int getSpaceWidth() {
@@ -0,0 +1,231 @@
+/*
+ * Copyright (C) 2007-2015 FBReader.ORG Limited <contact@fbreader.org>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA.
+ */
+
+package org.geometerplus.zlibrary.core.view;
+
+import java.util.*;
+
+import org.fbreader.util.ComparisonUtil;
+
+import org.geometerplus.zlibrary.core.fonts.FontEntry;
+
+/**
+ * Bounded cache of string widths keyed by the font and the string content.
+ * Fonts are interned into small integer ids; single characters of the Latin,
+ * Greek and Cyrillic blocks are kept in per-font advance tables, longer runs
+ * in an open-addressing table with short linear probing.
+ * Widths depend on the rendering settings, so the cache must be cleared
+ * when they (or the set of available fonts) change.
+ */
+public final class ZLStringWidthCache {
+	private static final int MAX_PROBES = 4;
+	private static final int ADVANCE_TABLE_SIZE = 0x0530;
+	private static final int MAX_FONTS_NUMBER = 1024;
+
+	private static final class FontKey {
+		final List<FontEntry> Entries;
+		final int Size;
+		final boolean Bold;
+		final boolean Italic;
+
+		FontKey(List<FontEntry> entries, int size, boolean bold, boolean italic) {
+			Entries = entries;
+			Size = size;
+			Bold = bold;
+			Italic = italic;
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			if (other == this) {
+				return true;
+			}
+			if (!(other instanceof FontKey)) {
+				return false;
+			}
+			final FontKey key = (FontKey)other;
+			return
+				Size == key.Size &&
+				Bold == key.Bold &&
+				Italic == key.Italic &&
+				ComparisonUtil.equal(Entries, key.Entries);
+		}
+
+		@Override
+		public int hashCode() {
+			return ComparisonUtil.hashCode(Entries) + 31 * Size + (Bold ? 1 : 0) + (Italic ? 2 : 0);
+		}
+	}
+
+	private final HashMap<FontKey,Integer> myFontIds = new HashMap<FontKey,Integer>();
+	private final ArrayList<int[]> myAdvances = new ArrayList<int[]>();
+
+	private final int myMask;
+	private final int[] myHashes;
+	private final int[] myFonts;
+	private final char[][] myStrings;
+	private final int[] myWidths;
+
+	private long myHitCount;
+	private long myMissCount;
+
+	public ZLStringWidthCache(int capacity) {
+		int size = 16;
+		while (size < capacity) {
+			size <<= 1;
+		}
+		myMask = size - 1;
+		myHashes = new int[size];
+		myFonts = new int[size];
+		myStrings = new char[size][];
+		myWidths = new int[size];
+	}
+
+	/**
+	 * Returns a small non-negative id of the font, or -1 if too many fonts are registered
+	 */
+	public synchronized int fontId(List<FontEntry> entries, int size, boolean bold, boolean italic) {
+		final FontKey key = new FontKey(entries, size, bold, italic);
+		final Integer id = myFontIds.get(key);
+		if (id != null) {
+			return id;
+		}
+		if (myFontIds.size() >= MAX_FONTS_NUMBER) {
+			return -1;
+		}
+		final int newId = myFontIds.size();
+		myFontIds.put(key, newId);
+		return newId;
+	}
+
+	private static int hash(int fontId, char[] data, int offset, int length) {
+		int hash = fontId;
+		for (int i = offset; i < offset + length; ++i) {
+			hash = 31 * hash + data[i];
+		}
+		return hash ^ (hash >>> 16);
+	}
+
+	private int[] advances(int fontId) {
+		while (myAdvances.size() <= fontId) {
+			myAdvances.add(null);
+		}
+		int[] table = myAdvances.get(fontId);
+		if (table == null) {
+			table = new int[ADVANCE_TABLE_SIZE];
+			Arrays.fill(table, -1);
+			myAdvances.set(fontId, table);
+		}
+		return table;
+	}
+
+	/**
+	 * Returns the cached width, or -1 if the string is not in the cache
+	 */
+	synchronized int get(int fontId, char[] data, int offset, int length) {
+		if (length == 1 && data[offset] < ADVANCE_TABLE_SIZE) {
+			final int width = advances(fontId)[data[offset]];
+			if (width != -1) {
+				++myHitCount;
+			} else {
+				++myMissCount;
+			}
+			return width;
+		}
+
+		final int hash = hash(fontId, data, offset, length);
+		for (int probe = 0; probe < MAX_PROBES; ++probe) {
+			final int slot = (hash + probe) & myMask;
+			final char[] string = myStrings[slot];
+			if (string == null) {
+				break;
+			}
+			if (myHashes[slot] != hash || myFonts[slot] != fontId || string.length != length) {
+				continue;
+			}
+			boolean matches = true;
+			for (int i = 0; i < length; ++i) {
+				if (string[i] != data[offset + i]) {
+					matches = false;
+					break;
+				}
+			}
+			if (matches) {
+				++myHitCount;
+				return myWidths[slot];
+			}
+		}
+		++myMissCount;
+		return -1;
+	}
+
+	synchronized void put(int fontId, char[] data, int offset, int length, int width) {
+		if (length == 1 && data[offset] < ADVANCE_TABLE_SIZE) {
+			advances(fontId)[data[offset]] = width;
+			return;
+		}
+
+		final int hash = hash(fontId, data, offset, length);
+		// the home slot is overwritten when all the probed slots are busy
+		int slot = hash & myMask;
+		for (int probe = 0; probe < MAX_PROBES; ++probe) {
+			final int s = (hash + probe) & myMask;
+			if (myStrings[s] == null) {
+				slot = s;
+				break;
+			}
+		}
+		final char[] string = new char[length];
+		System.arraycopy(data, offset, string, 0, length);
+		myHashes[slot] = hash;
+		myFonts[slot] = fontId;
+		myStrings[slot] = string;
+		myWidths[slot] = width;
+	}
+
+	/**
+	 * Drops the measured widths; font ids stay valid
+	 */
+	public synchronized void clear() {
+		myAdvances.clear();
+		Arrays.fill(myStrings, null);
+	}
+
+	public int capacity() {
+		return myMask + 1;
+	}
+
+	public synchronized long getHitCount() {
+		return myHitCount;
+	}
+
+	public synchronized long getMissCount() {
+		return myMissCount;
+	}
+
+	public synchronized float getHitRatio() {
+		final long total = myHitCount + myMissCount;
+		return total > 0 ? (float)myHitCount / total : 0f;
+	}
+
+	public synchronized void resetCounters() {
+		myHitCount = 0;
+		myMissCount = 0;
+	}
+}
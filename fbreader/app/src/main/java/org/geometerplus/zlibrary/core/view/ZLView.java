@@ -55,6 +55,11 @@ abstract public class ZLView implements ZLViewEnums {
 	public abstract Animation getAnimationType();
 
 	abstract public void preparePage(ZLPaintContext context, PageIndex pageIndex);
+	/**
+	 * Lays out pages beyond the next/previous ones in advance; called from a background thread
+	 */
+	public void preparePages(ZLPaintContext context, int forwardNumber, int backwardNumber) {
+	}
 	abstract public void paint(ZLPaintContext context, PageIndex pageIndex);
 	abstract public void onScrollingFinished(PageIndex pageIndex);
 
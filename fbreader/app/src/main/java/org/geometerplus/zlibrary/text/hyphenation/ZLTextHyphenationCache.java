@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2007-2015 FBReader.ORG Limited <contact@fbreader.org>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA.
+ */
+package org.geometerplus.zlibrary.text.hyphenation;
+
+/**
+ * Bounded cache of hyphenation results keyed by the word content.
+ * The table is direct-mapped: a new word replaces the one stored in its slot.
+ * Results depend on the patterns, so the cache must be cleared when
+ * the hyphenator language changes.
+ */
+public final class ZLTextHyphenationCache {
+	private final int myMask;
+	private final int[] myHashes;
+	private final char[][] myWords;
+	private final ZLTextHyphenationInfo[] myInfos;
+
+	private long myHitCount;
+	private long myMissCount;
+
+	ZLTextHyphenationCache(int capacity) {
+		int size = 16;
+		while (size < capacity) {
+			size <<= 1;
+		}
+		myMask = size - 1;
+		myHashes = new int[size];
+		myWords = new char[size][];
+		myInfos = new ZLTextHyphenationInfo[size];
+	}
+
+	static int hash(char[] data, int offset, int length) {
+		int hash = 0;
+		for (int i = offset; i < offset + length; ++i) {
+			hash = 31 * hash + data[i];
+		}
+		return hash ^ (hash >>> 16);
+	}
+
+	synchronized ZLTextHyphenationInfo get(int hash, char[] data, int offset, int length) {
+		final int slot = hash & myMask;
+		final char[] word = myWords[slot];
+		if (word != null && myHashes[slot] == hash && word.length == length) {
+			boolean matches = true;
+			for (int i = 0; i < length; ++i) {
+				if (word[i] != data[offset + i]) {
+					matches = false;
+					break;
+				}
+			}
+			if (matches) {
+				++myHitCount;
+				return myInfos[slot];
+			}
+		}
+		++myMissCount;
+		return null;
+	}
+
+	synchronized void put(int hash, char[] data, int offset, int length, ZLTextHyphenationInfo info) {
+		final int slot = hash & myMask;
+		final char[] word = new char[length];
+		System.arraycopy(data, offset, word, 0, length);
+		myHashes[slot] = hash;
+		myWords[slot] = word;
+		myInfos[slot] = info;
+	}
+
+	synchronized void clear() {
+		for (int i = 0; i <= myMask; ++i) {
+			myWords[i] = null;
+			myInfos[i] = null;
+		}
+	}
+
+	public int capacity() {
+		return myMask + 1;
+	}
+
+	public synchronized long getHitCount() {
+		return myHitCount;
+	}
+
+	public synchronized long getMissCount() {
+		return myMissCount;
+	}
+
+	public synchronized float getHitRatio() {
+		final long total = myHitCount + myMissCount;
+		return total > 0 ? (float)myHitCount / total : 0f;
+	}
+
+	public synchronized void resetCounters() {
+		myHitCount = 0;
+		myMissCount = 0;
+	}
+}
@@ -20,13 +20,22 @@
 package org.geometerplus.zlibrary.text.hyphenation;
 
 public final class ZLTextHyphenationInfo {
-	final boolean[] Mask;
+	private final long[] myMask;
+	private final int myLength;
 
-	public ZLTextHyphenationInfo(int length) {
-		Mask = new boolean[length - 1];
+	ZLTextHyphenationInfo(boolean[] mask, int length) {
+		final long[] bits = new long[(length + 63) >> 6];
+		for (int i = 0; i < length; ++i) {
+			if (mask[i]) {
+				bits[i >> 6] |= 1L << i;
+			}
+		}
+		myMask = bits;
+		myLength = length;
 	}
 
 	public boolean isHyphenationPossible(int position) {
-		return (position < Mask.length && Mask[position]);
+		return position >= 0 && position < myLength &&
+			(myMask[position >> 6] & (1L << position)) != 0;
 	}
 }
@@ -0,0 +1,201 @@
+/*
+ * Copyright (C) 2007-2015 FBReader.ORG Limited <contact@fbreader.org>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA.
+ */
+package org.geometerplus.zlibrary.text.hyphenation;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Immutable TeX pattern trie packed into primitive arrays.
+ * Nodes are numbered in breadth-first order, so the children of node n
+ * are the nodes myFirstChild[n] .. myFirstChild[n + 1] - 1, sorted by
+ * myChars (the char on the edge leading to the node).
+ */
+final class ZLTextHyphenationTrie {
+	private static final int FORMAT_VERSION = 1;
+
+	private final char[] myChars;
+	private final int[] myFirstChild;
+	// offset of the pattern values in myValues, -1 if no pattern ends in the node;
+	// a pattern of length n has (n + 1) values
+	private final int[] myValuesOffsets;
+	private final byte[] myValues;
+
+	private ZLTextHyphenationTrie(char[] chars, int[] firstChild, int[] valuesOffsets, byte[] values) {
+		myChars = chars;
+		myFirstChild = firstChild;
+		myValuesOffsets = valuesOffsets;
+		myValues = values;
+	}
+
+	boolean isEmpty() {
+		return myChars.length <= 1;
+	}
+
+	private int child(int node, char ch) {
+		int low = myFirstChild[node];
+		int high = myFirstChild[node + 1] - 1;
+		final char[] chars = myChars;
+		while (low <= high) {
+			final int mid = (low + high) >>> 1;
+			final char midChar = chars[mid];
+			if (midChar < ch) {
+				low = mid + 1;
+			} else if (midChar > ch) {
+				high = mid - 1;
+			} else {
+				return mid;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Applies all the patterns matching word[0 .. length - 1] to values;
+	 * values must have at least (length + 1) elements.
+	 */
+	void apply(char[] word, int length, byte[] values) {
+		final int[] valuesOffsets = myValuesOffsets;
+		final byte[] patternValues = myValues;
+		for (int offset = 0; offset < length - 1; ++offset) {
+			int node = 0;
+			for (int i = offset; i < length; ++i) {
+				node = child(node, word[i]);
+				if (node == -1) {
+					break;
+				}
+				final int valuesOffset = valuesOffsets[node];
+				if (valuesOffset != -1) {
+					for (int j = offset, k = valuesOffset; j <= i + 1; ++j, ++k) {
+						if (values[j] < patternValues[k]) {
+							values[j] = patternValues[k];
+						}
+					}
+				}
+			}
+		}
+	}
+
+	void write(DataOutputStream stream) throws IOException {
+		stream.writeInt(FORMAT_VERSION);
+		stream.writeInt(myChars.length);
+		for (int i = 0; i < myChars.length; ++i) {
+			stream.writeChar(myChars[i]);
+			stream.writeInt(myFirstChild[i]);
+			stream.writeInt(myValuesOffsets[i]);
+		}
+		stream.writeInt(myFirstChild[myChars.length]);
+		stream.writeInt(myValues.length);
+		stream.write(myValues);
+	}
+
+	static ZLTextHyphenationTrie read(DataInputStream stream) throws IOException {
+		if (stream.readInt() != FORMAT_VERSION) {
+			return null;
+		}
+		final int size = stream.readInt();
+		final char[] chars = new char[size];
+		final int[] firstChild = new int[size + 1];
+		final int[] valuesOffsets = new int[size];
+		for (int i = 0; i < size; ++i) {
+			chars[i] = stream.readChar();
+			firstChild[i] = stream.readInt();
+			valuesOffsets[i] = stream.readInt();
+		}
+		firstChild[size] = stream.readInt();
+		final byte[] values = new byte[stream.readInt()];
+		stream.readFully(values);
+		return new ZLTextHyphenationTrie(chars, firstChild, valuesOffsets, values);
+	}
+
+	static final class Builder {
+		private static final class Node {
+			final TreeMap<Character,Node> Children = new TreeMap<Character,Node>();
+			byte[] Values;
+		}
+
+		private final Node myRoot = new Node();
+		private int myNodesNumber = 1;
+		private int myValuesNumber;
+
+		// pattern is in TeX notation, e.g. "1ba2c"
+		void addPattern(char[] pattern, int offset, int length) {
+			int symbolsNumber = 0;
+			for (int i = 0; i < length; ++i) {
+				final char symbol = pattern[offset + i];
+				if (symbol > '9' || symbol < '0') {
+					++symbolsNumber;
+				}
+			}
+			final byte[] values = new byte[symbolsNumber + 1];
+
+			Node node = myRoot;
+			for (int i = 0, k = 0; i < length; ++i) {
+				final char symbol = pattern[offset + i];
+				if (symbol <= '9' && symbol >= '0') {
+					values[k] = (byte)(symbol - '0');
+				} else {
+					Node child = node.Children.get(symbol);
+					if (child == null) {
+						child = new Node();
+						node.Children.put(symbol, child);
+						++myNodesNumber;
+					}
+					node = child;
+					++k;
+				}
+			}
+			if (node.Values == null) {
+				myValuesNumber += values.length;
+			} else {
+				myValuesNumber += values.length - node.Values.length;
+			}
+			node.Values = values;
+		}
+
+		ZLTextHyphenationTrie build() {
+			final int size = myNodesNumber;
+			final char[] chars = new char[size];
+			final int[] firstChild = new int[size + 1];
+			final int[] valuesOffsets = new int[size];
+			final byte[] values = new byte[myValuesNumber];
+
+			final ArrayList<Node> queue = new ArrayList<Node>(size);
+			queue.add(myRoot);
+			int valuesOffset = 0;
+			for (int index = 0; index < queue.size(); ++index) {
+				final Node node = queue.get(index);
+				firstChild[index] = queue.size();
+				for (Map.Entry<Character,Node> entry : node.Children.entrySet()) {
+					chars[queue.size()] = entry.getKey();
+					queue.add(entry.getValue());
+				}
+				if (node.Values != null) {
+					valuesOffsets[index] = valuesOffset;
+					System.arraycopy(node.Values, 0, values, valuesOffset, node.Values.length);
+					valuesOffset += node.Values.length;
+				} else {
+					valuesOffsets[index] = -1;
+				}
+			}
+			firstChild[size] = size;
+			return new ZLTextHyphenationTrie(chars, firstChild, valuesOffsets, values);
+		}
+	}
+}
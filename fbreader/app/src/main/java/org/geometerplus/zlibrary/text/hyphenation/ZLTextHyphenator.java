@@ -40,17 +40,79 @@ public abstract class ZLTextHyphenator {
 		}
 	}
 
+	private volatile String myCacheDirectory;
+
 	protected ZLTextHyphenator() {
 	}
 
+	// directory for the precompiled pattern tables; null disables caching
+	public void setCacheDirectory(String directory) {
+		myCacheDirectory = directory;
+	}
+
+	protected String getCacheDirectory() {
+		return myCacheDirectory;
+	}
+
 	public abstract List<String> languageCodes();
 	public abstract void load(final String languageCode);
 	public abstract void unload();
 
+	private volatile ZLTextHyphenationCache myResultCache = new ZLTextHyphenationCache(4096);
+
+	// results are shared by all the views; capacity is rounded up to a power of 2
+	public void setResultCacheCapacity(int capacity) {
+		if (capacity != myResultCache.capacity()) {
+			myResultCache = new ZLTextHyphenationCache(capacity);
+		}
+	}
+
+	public ZLTextHyphenationCache getResultCache() {
+		return myResultCache;
+	}
+
+	protected final void clearResultCache() {
+		myResultCache.clear();
+	}
+
+	private static final class Buffers {
+		boolean[] IsLetter = new boolean[32];
+		char[] Pattern = new char[34];
+		boolean[] Mask = new boolean[33];
+
+		void ensureCapacity(int length) {
+			if (IsLetter.length < length) {
+				IsLetter = new boolean[length];
+				Pattern = new char[length + 2];
+				Mask = new boolean[length + 1];
+			}
+		}
+	}
+
+	private final ThreadLocal<Buffers> myBuffers = new ThreadLocal<Buffers>() {
+		@Override
+		protected Buffers initialValue() {
+			return new Buffers();
+		}
+	};
+
 	public ZLTextHyphenationInfo getInfo(final ZLTextWord word) {
+		final ZLTextHyphenationCache cache = myResultCache;
+		final int hash = ZLTextHyphenationCache.hash(word.Data, word.Offset, word.Length);
+		ZLTextHyphenationInfo info = cache.get(hash, word.Data, word.Offset, word.Length);
+		if (info == null) {
+			info = computeInfo(word);
+			cache.put(hash, word.Data, word.Offset, word.Length, info);
+		}
+		return info;
+	}
+
+	private ZLTextHyphenationInfo computeInfo(final ZLTextWord word) {
 		final int len = word.Length;
-		final boolean[] isLetter = new boolean[len];
-		final char[] pattern = new char[len + 2];
+		final Buffers buffers = myBuffers.get();
+		buffers.ensureCapacity(len);
+		final boolean[] isLetter = buffers.IsLetter;
+		final char[] pattern = buffers.Pattern;
 		final char[] data = word.Data;
 		pattern[0] = ' ';
 		for (int i = 0, j = word.Offset; i < len; ++i, ++j) {
@@ -59,13 +121,13 @@ public abstract class ZLTextHyphenator {
 				isLetter[i] = true;
 				pattern[i + 1] = Character.toLowerCase(character);
 			} else {
+				isLetter[i] = false;
 				pattern[i + 1] = ' ';
 			}
 		}
 		pattern[len + 1] = ' ';
 
-		final ZLTextHyphenationInfo info = new ZLTextHyphenationInfo(len + 2);
-		final boolean[] mask = info.Mask;
+		final boolean[] mask = buffers.Mask;
 		hyphenate(pattern, mask, len + 2);
 		for (int i = 0, j = word.Offset - 1; i <= len; ++i, ++j) {
 			if ((i < 2) || (i > len - 2)) {
@@ -93,7 +155,7 @@ public abstract class ZLTextHyphenator {
 			}
 		}
 
-		return info;
+		return new ZLTextHyphenationInfo(mask, len + 1);
 	}
 
 	protected abstract void hyphenate(char[] stringToHyphenate, boolean[] mask, int length);
@@ -19,6 +19,7 @@
 
 package org.geometerplus.zlibrary.text.hyphenation;
 
+import java.io.*;
 import java.util.*;
 
 import org.geometerplus.zlibrary.core.language.Language;
@@ -27,17 +28,10 @@ import org.geometerplus.zlibrary.core.filesystem.ZLFile;
 import org.geometerplus.zlibrary.core.filesystem.ZLResourceFile;
 
 final class ZLTextTeXHyphenator extends ZLTextHyphenator {
-	private final HashMap<ZLTextTeXHyphenationPattern,ZLTextTeXHyphenationPattern> myPatternTable =
-		new HashMap<ZLTextTeXHyphenationPattern,ZLTextTeXHyphenationPattern>();
-	private int myMaxPatternLength;
+	private volatile ZLTextHyphenationTrie myTrie;
 	private String myLanguage;
 
-	void addPattern(ZLTextTeXHyphenationPattern pattern) {
-		myPatternTable.put(pattern, pattern);
-		if (myMaxPatternLength < pattern.length()) {
-			myMaxPatternLength = pattern.length();
-		}
-	}
+	private final ThreadLocal<byte[]> myValuesBuffer = new ThreadLocal<byte[]>();
 
 	private List<String> myLanguageCodes;
 	public List<String> languageCodes() {
@@ -68,44 +62,102 @@ final class ZLTextTeXHyphenator extends ZLTextHyphenator {
 		myLanguage = language;
 		unload();
 
-		if (language != null) {
-			new ZLTextHyphenationReader(this).readQuietly(ZLResourceFile.createResourceFile(
-				"hyphenationPatterns/" + language + ".pattern"
-			));
+		final ZLFile file = ZLResourceFile.createResourceFile(
+			"hyphenationPatterns/" + language + ".pattern"
+		);
+		ZLTextHyphenationTrie trie = readCachedTrie(language, file);
+		if (trie == null) {
+			final ZLTextHyphenationTrie.Builder builder = new ZLTextHyphenationTrie.Builder();
+			new ZLTextHyphenationReader(builder).readQuietly(file);
+			trie = builder.build();
+			if (!trie.isEmpty()) {
+				writeCachedTrie(language, file, trie);
+			}
 		}
+		myTrie = trie;
 	}
 
 	public void unload() {
-		myPatternTable.clear();
-		myMaxPatternLength = 0;
+		myTrie = null;
+		clearResultCache();
+	}
+
+	private File cachedTrieFile(String language) {
+		final String directory = getCacheDirectory();
+		return directory != null ? new File(directory, language + ".trie") : null;
+	}
+
+	private ZLTextHyphenationTrie readCachedTrie(String language, ZLFile patternsFile) {
+		final File file = cachedTrieFile(language);
+		if (file == null || !file.exists()) {
+			return null;
+		}
+		DataInputStream stream = null;
+		try {
+			stream = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+			if (stream.readLong() != patternsFile.size()) {
+				return null;
+			}
+			return ZLTextHyphenationTrie.read(stream);
+		} catch (IOException e) {
+			return null;
+		} finally {
+			if (stream != null) {
+				try {
+					stream.close();
+				} catch (IOException e) {
+				}
+			}
+		}
+	}
+
+	private void writeCachedTrie(String language, ZLFile patternsFile, ZLTextHyphenationTrie trie) {
+		final File file = cachedTrieFile(language);
+		if (file == null) {
+			return;
+		}
+		file.getParentFile().mkdirs();
+		final File tempFile = new File(file.getPath() + ".tmp");
+		DataOutputStream stream = null;
+		try {
+			stream = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+			stream.writeLong(patternsFile.size());
+			trie.write(stream);
+			stream.close();
+			stream = null;
+			tempFile.renameTo(file);
+		} catch (IOException e) {
+			// cache is optional
+		} finally {
+			if (stream != null) {
+				try {
+					stream.close();
+				} catch (IOException e) {
+				}
+			}
+			tempFile.delete();
+		}
 	}
 
 	public void hyphenate(char[] stringToHyphenate, boolean[] mask, int length) {
-		if (myPatternTable.isEmpty()) {
+		final ZLTextHyphenationTrie trie = myTrie;
+		if (trie == null || trie.isEmpty()) {
 			for (int i = 0; i < length - 1; i++) {
 				mask[i] = false;
 			}
 			return;
 		}
 
-		byte[] values = new byte[length + 1];
-
-		final HashMap<ZLTextTeXHyphenationPattern,ZLTextTeXHyphenationPattern> table = myPatternTable;
-		ZLTextTeXHyphenationPattern pattern =
-			new ZLTextTeXHyphenationPattern(stringToHyphenate, 0, length, false);
-		for (int offset = 0; offset < length - 1; offset++) {
-			int len = Math.min(length - offset, myMaxPatternLength) + 1;
-			pattern.update(stringToHyphenate, offset, len - 1);
-			while (--len > 0) {
-				pattern.reset(len);
-				ZLTextTeXHyphenationPattern toApply =
-					(ZLTextTeXHyphenationPattern)table.get(pattern);
-				if (toApply != null) {
-					toApply.apply(values, offset);
-				}
-			}
+		byte[] values = myValuesBuffer.get();
+		if (values == null || values.length < length + 1) {
+			values = new byte[Math.max(length + 1, 64)];
+			myValuesBuffer.set(values);
+		} else {
+			Arrays.fill(values, 0, length + 1, (byte)0);
 		}
 
+		trie.apply(stringToHyphenate, length, values);
+
 		for (int i = 0; i < length - 1; i++) {
 			mask[i] = (values[i + 1] % 2) == 1;
 		}
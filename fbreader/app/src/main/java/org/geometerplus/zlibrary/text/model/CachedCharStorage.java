@@ -21,80 +21,255 @@ package org.geometerplus.zlibrary.text.model;
 
 import java.lang.ref.WeakReference;
 import java.io.*;
-import java.util.ArrayList;
-import java.util.Collections;
+import java.nio.CharBuffer;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 
-public final class CachedCharStorage {
+public final class CachedCharStorage extends CharStorage {
+	private static volatile int ourDefaultCacheSize = 4 * 1024 * 1024;
+	private static volatile int ourDefaultReadAheadBlocks = 2;
+
+	// cache size in bytes; each block takes (2 * block.length) bytes
+	public static void setDefaultCacheSize(int size) {
+		ourDefaultCacheSize = Math.max(size, 0);
+	}
+
+	public static void setDefaultReadAheadBlocks(int number) {
+		ourDefaultReadAheadBlocks = Math.max(number, 0);
+	}
+
+	private static final class MinPriorityThreadFactory implements ThreadFactory {
+		private final ThreadFactory myDefaultThreadFactory = Executors.defaultThreadFactory();
+
+		public Thread newThread(Runnable r) {
+			final Thread th = myDefaultThreadFactory.newThread(r);
+			th.setPriority(Thread.MIN_PRIORITY);
+			th.setDaemon(true);
+			return th;
+		}
+	}
+
+	private static final ExecutorService ourReadAheadService =
+		Executors.newSingleThreadExecutor(new MinPriorityThreadFactory());
+
+	// blocks evicted from the LRU part are kept here while GC does not need the memory
 	protected final ArrayList<WeakReference<char[]>> myArray =
 		new ArrayList<WeakReference<char[]>>();
+	private final LinkedHashMap<Integer,char[]> myLRU =
+		new LinkedHashMap<Integer,char[]>(16, .75f, true);
+	private final Set<Integer> myPendingBlocks = new HashSet<Integer>();
+
+	private volatile int myCacheSize;
+	private volatile int myReadAheadBlocks;
+	private int myUsedSize;
+	private int myLastIndex = -1;
 
-	private final String myDirectoryName;
-	private final String myFileExtension;
+	private long myHitCount;
+	private long myMissCount;
+	private long myLoadCount;
+	private long myLoadTime;
 
 	public CachedCharStorage(String directoryName, String fileExtension, int blocksNumber) {
-		myDirectoryName = directoryName + '/';
-		myFileExtension = '.' + fileExtension;
+		super(directoryName, fileExtension);
 		myArray.addAll(Collections.nCopies(blocksNumber, new WeakReference<char[]>(null)));
-	}
-
-	private String fileName(int index) {
-		return myDirectoryName + index + myFileExtension;
+		myCacheSize = ourDefaultCacheSize;
+		myReadAheadBlocks = ourDefaultReadAheadBlocks;
 	}
 
 	public int size() {
 		return myArray.size();
 	}
 
-	private String exceptionMessage(int index, String extra) {
-		final StringBuilder buffer = new StringBuilder("Cannot read " + fileName(index));
-		if (extra != null) {
-			buffer.append("; ").append(extra);
+	public void setCacheSize(int size) {
+		myCacheSize = Math.max(size, 0);
+		synchronized (myLRU) {
+			shrink();
 		}
-		buffer.append("\n");
-		try {
-			final File dir = new File(myDirectoryName);
-			buffer.append("ts = ").append(System.currentTimeMillis()).append("\n");
-			buffer.append("dir exists = ").append(dir.exists()).append("\n");
-			for (File f : dir.listFiles()) {
-				buffer.append(f.getName()).append(" :: ");
-				buffer.append(f.length()).append(" :: ");
-				buffer.append(f.lastModified()).append("\n");
-			}
-		} catch (Throwable t) {
-			buffer.append(t.getClass().getName());
-			buffer.append("\n");
-			buffer.append(t.getMessage());
-		}
-		return buffer.toString();
+	}
+
+	public int getCacheSize() {
+		return myCacheSize;
+	}
+
+	public void setReadAheadBlocks(int number) {
+		myReadAheadBlocks = Math.max(number, 0);
+	}
+
+	public int getReadAheadBlocks() {
+		return myReadAheadBlocks;
+	}
+
+	public synchronized long getHitCount() {
+		return myHitCount;
+	}
+
+	public synchronized long getMissCount() {
+		return myMissCount;
+	}
+
+	// number of blocks read from disk, including read-ahead
+	public synchronized long getLoadCount() {
+		return myLoadCount;
+	}
+
+	// total time spent in reading blocks from disk, in milliseconds
+	public synchronized long getLoadTime() {
+		return myLoadTime;
+	}
+
+	public synchronized void resetCounters() {
+		myHitCount = 0;
+		myMissCount = 0;
+		myLoadCount = 0;
+		myLoadTime = 0;
 	}
 
 	public char[] block(int index) {
 		if (index < 0 || index >= myArray.size()) {
 			return null;
 		}
-		char[] block = myArray.get(index).get();
+
+		final int direction;
+		char[] block;
+		synchronized (myLRU) {
+			direction = myLastIndex == -1 || index == myLastIndex
+				? 0 : (index > myLastIndex ? 1 : -1);
+			myLastIndex = index;
+			block = cachedBlock(index);
+		}
+		synchronized (this) {
+			if (block != null) {
+				++myHitCount;
+			} else {
+				++myMissCount;
+			}
+		}
+		if (block == null) {
+			block = readBlock(index);
+			synchronized (myLRU) {
+				final char[] concurrent = cachedBlock(index);
+				if (concurrent != null) {
+					block = concurrent;
+				} else {
+					store(index, block);
+				}
+			}
+		}
+		if (direction != 0) {
+			scheduleReadAhead(index, direction);
+		}
+		return block;
+	}
+
+	public CharBuffer buffer(int index) {
+		final char[] block = block(index);
+		return block != null ? CharBuffer.wrap(block) : null;
+	}
+
+	// must be called inside synchronized (myLRU)
+	private char[] cachedBlock(int index) {
+		char[] block = myLRU.get(index);
 		if (block == null) {
-			try {
-				File file = new File(fileName(index));
-				int size = (int)file.length();
-				if (size < 0) {
-					throw new CachedCharStorageException(exceptionMessage(index, "size = " + size));
+			block = myArray.get(index).get();
+			if (block != null) {
+				store(index, block);
+			}
+		}
+		return block;
+	}
+
+	// must be called inside synchronized (myLRU)
+	private void store(int index, char[] block) {
+		final char[] old = myLRU.put(index, block);
+		if (old != null) {
+			myUsedSize -= 2 * old.length;
+		}
+		myUsedSize += 2 * block.length;
+		myArray.set(index, new WeakReference<char[]>(block));
+		shrink();
+	}
+
+	// must be called inside synchronized (myLRU)
+	private void shrink() {
+		final Iterator<Map.Entry<Integer,char[]>> it = myLRU.entrySet().iterator();
+		// the most recently used block is always kept, even if it exceeds the limit
+		while (myUsedSize > myCacheSize && myLRU.size() > 1 && it.hasNext()) {
+			myUsedSize -= 2 * it.next().getValue().length;
+			it.remove();
+		}
+	}
+
+	private void scheduleReadAhead(int index, int direction) {
+		final int count = myReadAheadBlocks;
+		for (int i = 1; i <= count; ++i) {
+			final int blockIndex = index + i * direction;
+			if (blockIndex < 0 || blockIndex >= myArray.size()) {
+				break;
+			}
+			synchronized (myLRU) {
+				if (myLRU.containsKey(blockIndex) || myPendingBlocks.contains(blockIndex)) {
+					continue;
 				}
-				block = new char[size / 2];
-				InputStreamReader reader =
-					new InputStreamReader(
-						new FileInputStream(file),
-						"UTF-16LE"
-					);
-				final int rd = reader.read(block);
-				if (rd != block.length) {
-					throw new CachedCharStorageException(exceptionMessage(index, "; " + rd + " != " + block.length));
+				myPendingBlocks.add(blockIndex);
+			}
+			ourReadAheadService.execute(new Runnable() {
+				public void run() {
+					try {
+						synchronized (myLRU) {
+							if (myLRU.containsKey(blockIndex)) {
+								return;
+							}
+						}
+						final char[] block = readBlock(blockIndex);
+						synchronized (myLRU) {
+							// do not push out blocks that were used after the request
+							if (!myLRU.containsKey(blockIndex) &&
+								myUsedSize + 2 * block.length <= myCacheSize) {
+								store(blockIndex, block);
+							} else {
+								myArray.set(blockIndex, new WeakReference<char[]>(block));
+							}
+						}
+					} catch (CachedCharStorageException e) {
+						// will be reported by the next synchronous access
+					} finally {
+						synchronized (myLRU) {
+							myPendingBlocks.remove(blockIndex);
+						}
+					}
 				}
-				reader.close();
-			} catch (IOException e) {
-				throw new CachedCharStorageException(exceptionMessage(index, null), e);
+			});
+		}
+	}
+
+	private char[] readBlock(int index) {
+		final long start = System.currentTimeMillis();
+		final char[] block;
+		try {
+			File file = new File(fileName(index));
+			int size = (int)file.length();
+			if (size < 0) {
+				throw new CachedCharStorageException(exceptionMessage(index, "size = " + size));
 			}
-			myArray.set(index, new WeakReference<char[]>(block));
+			block = new char[size / 2];
+			InputStreamReader reader =
+				new InputStreamReader(
+					new FileInputStream(file),
+					"UTF-16LE"
+				);
+			final int rd = reader.read(block);
+			if (rd != block.length) {
+				throw new CachedCharStorageException(exceptionMessage(index, "; " + rd + " != " + block.length));
+			}
+			reader.close();
+		} catch (IOException e) {
+			throw new CachedCharStorageException(exceptionMessage(index, null), e);
+		}
+		synchronized (this) {
+			++myLoadCount;
+			myLoadTime += System.currentTimeMillis() - start;
 		}
 		return block;
 	}
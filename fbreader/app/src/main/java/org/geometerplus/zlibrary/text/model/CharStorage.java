@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2007-2015 FBReader.ORG Limited <contact@fbreader.org>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA.
+ */
+package org.geometerplus.zlibrary.text.model;
+
+import java.io.File;
+import java.nio.CharBuffer;
+
+public abstract class CharStorage {
+	/**
+	 * Memory-mapped storage reads block files without decoding and without
+	 * allocating a char array per block, but mapped files must not be
+	 * rewritten while the model is in use. It is safe for the per-book
+	 * model cache directories: the files there are deleted and created anew,
+	 * never rewritten in place, so the existing mappings stay valid.
+	 */
+	public static CharStorage create(String directoryName, String fileExtension, int blocksNumber, boolean mapped) {
+		return mapped
+			? new MappedCharStorage(directoryName, fileExtension, blocksNumber)
+			: new CachedCharStorage(directoryName, fileExtension, blocksNumber);
+	}
+
+	protected final String myDirectoryName;
+	protected final String myFileExtension;
+
+	protected CharStorage(String directoryName, String fileExtension) {
+		myDirectoryName = directoryName + '/';
+		myFileExtension = '.' + fileExtension;
+	}
+
+	protected String fileName(int index) {
+		return myDirectoryName + index + myFileExtension;
+	}
+
+	public abstract int size();
+
+	public abstract char[] block(int index);
+
+	/**
+	 * Returned buffer is shared between all the callers; use absolute get methods only.
+	 */
+	public abstract CharBuffer buffer(int index);
+
+	protected String exceptionMessage(int index, String extra) {
+		final StringBuilder buffer = new StringBuilder("Cannot read " + fileName(index));
+		if (extra != null) {
+			buffer.append("; ").append(extra);
+		}
+		buffer.append("\n");
+		try {
+			final File dir = new File(myDirectoryName);
+			buffer.append("ts = ").append(System.currentTimeMillis()).append("\n");
+			buffer.append("dir exists = ").append(dir.exists()).append("\n");
+			for (File f : dir.listFiles()) {
+				buffer.append(f.getName()).append(" :: ");
+				buffer.append(f.length()).append(" :: ");
+				buffer.append(f.lastModified()).append("\n");
+			}
+		} catch (Throwable t) {
+			buffer.append(t.getClass().getName());
+			buffer.append("\n");
+			buffer.append(t.getMessage());
+		}
+		return buffer.toString();
+	}
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright (C) 2007-2015 FBReader.ORG Limited <contact@fbreader.org>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA.
+ */
+package org.geometerplus.zlibrary.text.model;
+
+import java.io.*;
+import java.nio.ByteOrder;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+
+public final class MappedCharStorage extends CharStorage {
+	private final CharBuffer[] myBuffers;
+
+	MappedCharStorage(String directoryName, String fileExtension, int blocksNumber) {
+		super(directoryName, fileExtension);
+		myBuffers = new CharBuffer[blocksNumber];
+	}
+
+	public int size() {
+		return myBuffers.length;
+	}
+
+	public synchronized CharBuffer buffer(int index) {
+		if (index < 0 || index >= myBuffers.length) {
+			return null;
+		}
+		CharBuffer buffer = myBuffers[index];
+		if (buffer == null) {
+			RandomAccessFile file = null;
+			try {
+				file = new RandomAccessFile(fileName(index), "r");
+				final FileChannel channel = file.getChannel();
+				final long size = channel.size();
+				if (size < 0 || size > Integer.MAX_VALUE) {
+					throw new CachedCharStorageException(exceptionMessage(index, "size = " + size));
+				}
+				// block files are written by native code in UTF-16LE
+				buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size)
+					.order(ByteOrder.LITTLE_ENDIAN).asCharBuffer();
+			} catch (IOException e) {
+				throw new CachedCharStorageException(exceptionMessage(index, null), e);
+			} finally {
+				if (file != null) {
+					try {
+						file.close();
+					} catch (IOException e) {
+					}
+				}
+			}
+			myBuffers[index] = buffer;
+		}
+		return buffer;
+	}
+
+	public char[] block(int index) {
+		final CharBuffer buffer = buffer(index);
+		if (buffer == null) {
+			return null;
+		}
+		final char[] block = new char[buffer.limit()];
+		buffer.duplicate().get(block);
+		return block;
+	}
+}
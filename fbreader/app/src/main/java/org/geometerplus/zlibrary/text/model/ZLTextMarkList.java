@@ -0,0 +1,276 @@
+/*
+ * Copyright (C) 2007-2015 FBReader.ORG Limited <contact@fbreader.org>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA.
+ */
+
+package org.geometerplus.zlibrary.text.model;
+
+import java.util.*;
+
+/**
+ * Sorted list of marks kept in parallel primitive arrays. Paragraph ranges
+ * and next/previous lookups are binary searches; marks added in order are
+ * appended in amortized constant time. The List methods create ZLTextMark
+ * objects on access.
+ */
+public final class ZLTextMarkList extends AbstractList<ZLTextMark> implements RandomAccess {
+	private int[] myParagraphs;
+	private int[] myOffsets;
+	private int[] myLengths;
+	private int mySize;
+
+	public ZLTextMarkList() {
+		this(16);
+	}
+
+	public ZLTextMarkList(int capacity) {
+		capacity = Math.max(capacity, 1);
+		myParagraphs = new int[capacity];
+		myOffsets = new int[capacity];
+		myLengths = new int[capacity];
+	}
+
+	@Override
+	public synchronized int size() {
+		return mySize;
+	}
+
+	@Override
+	public synchronized ZLTextMark get(int index) {
+		if (index < 0 || index >= mySize) {
+			throw new IndexOutOfBoundsException(index + " of " + mySize);
+		}
+		return new ZLTextMark(myParagraphs[index], myOffsets[index], myLengths[index]);
+	}
+
+	public synchronized int getParagraphIndex(int index) {
+		return myParagraphs[index];
+	}
+
+	public synchronized int getOffset(int index) {
+		return myOffsets[index];
+	}
+
+	public synchronized int getLength(int index) {
+		return myLengths[index];
+	}
+
+	// index of the first mark not less than (paragraph, offset)
+	private int lowerBound(int paragraph, int offset) {
+		int low = 0;
+		int high = mySize;
+		while (low < high) {
+			final int middle = (low + high) >>> 1;
+			final int p = myParagraphs[middle];
+			if (p < paragraph || (p == paragraph && myOffsets[middle] < offset)) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+
+	private void ensureCapacity(int capacity) {
+		if (capacity > myParagraphs.length) {
+			final int newCapacity = Math.max(capacity, 2 * myParagraphs.length);
+			myParagraphs = Arrays.copyOf(myParagraphs, newCapacity);
+			myOffsets = Arrays.copyOf(myOffsets, newCapacity);
+			myLengths = Arrays.copyOf(myLengths, newCapacity);
+		}
+	}
+
+	public synchronized void add(int paragraph, int offset, int length) {
+		int index = mySize;
+		if (index > 0) {
+			final int last = myParagraphs[index - 1];
+			if (last > paragraph || (last == paragraph && myOffsets[index - 1] > offset)) {
+				// after the marks with the same position
+				index = lowerBound(paragraph, offset + 1);
+			}
+		}
+		ensureCapacity(mySize + 1);
+		if (index < mySize) {
+			final int tail = mySize - index;
+			System.arraycopy(myParagraphs, index, myParagraphs, index + 1, tail);
+			System.arraycopy(myOffsets, index, myOffsets, index + 1, tail);
+			System.arraycopy(myLengths, index, myLengths, index + 1, tail);
+		}
+		myParagraphs[index] = paragraph;
+		myOffsets[index] = offset;
+		myLengths[index] = length;
+		++mySize;
+	}
+
+	@Override
+	public boolean add(ZLTextMark mark) {
+		add(mark.ParagraphIndex, mark.Offset, mark.Length);
+		return true;
+	}
+
+	/**
+	 * Merges the marks into the list; the added marks go after
+	 * the existing marks with the same position
+	 */
+	public synchronized void addAll(ZLTextMarkList marks) {
+		final int[] paragraphs;
+		final int[] offsets;
+		final int[] lengths;
+		final int count;
+		synchronized (marks) {
+			count = marks.mySize;
+			paragraphs = Arrays.copyOf(marks.myParagraphs, count);
+			offsets = Arrays.copyOf(marks.myOffsets, count);
+			lengths = Arrays.copyOf(marks.myLengths, count);
+		}
+		if (count == 0) {
+			return;
+		}
+		if (!isSorted(paragraphs, offsets, count)) {
+			sort(paragraphs, offsets, lengths, count);
+		}
+
+		ensureCapacity(mySize + count);
+		// merge from the end, so every mark is moved only once
+		int i = mySize - 1;
+		int j = count - 1;
+		for (int k = mySize + count - 1; j >= 0; --k) {
+			if (i >= 0 && (myParagraphs[i] > paragraphs[j] ||
+					(myParagraphs[i] == paragraphs[j] && myOffsets[i] > offsets[j]))) {
+				myParagraphs[k] = myParagraphs[i];
+				myOffsets[k] = myOffsets[i];
+				myLengths[k] = myLengths[i];
+				--i;
+			} else {
+				myParagraphs[k] = paragraphs[j];
+				myOffsets[k] = offsets[j];
+				myLengths[k] = lengths[j];
+				--j;
+			}
+		}
+		mySize += count;
+	}
+
+	private static boolean isSorted(int[] paragraphs, int[] offsets, int count) {
+		for (int i = 1; i < count; ++i) {
+			if (paragraphs[i - 1] > paragraphs[i] ||
+				(paragraphs[i - 1] == paragraphs[i] && offsets[i - 1] > offsets[i])) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	// stable, as the marks with the same position keep the order they were added in
+	private static void sort(final int[] paragraphs, final int[] offsets, int[] lengths, int count) {
+		final Integer[] order = new Integer[count];
+		for (int i = 0; i < count; ++i) {
+			order[i] = i;
+		}
+		Arrays.sort(order, new Comparator<Integer>() {
+			public int compare(Integer i0, Integer i1) {
+				final int p0 = paragraphs[i0];
+				final int p1 = paragraphs[i1];
+				if (p0 != p1) {
+					return p0 < p1 ? -1 : 1;
+				}
+				final int o0 = offsets[i0];
+				final int o1 = offsets[i1];
+				return o0 < o1 ? -1 : (o0 == o1 ? 0 : 1);
+			}
+		});
+		final int[] p = Arrays.copyOf(paragraphs, count);
+		final int[] o = Arrays.copyOf(offsets, count);
+		final int[] l = Arrays.copyOf(lengths, count);
+		for (int i = 0; i < count; ++i) {
+			paragraphs[i] = p[order[i]];
+			offsets[i] = o[order[i]];
+			lengths[i] = l[order[i]];
+		}
+	}
+
+	/**
+	 * Removes the marks starting from the given index
+	 */
+	public synchronized void shrink(int size) {
+		if (size < mySize) {
+			mySize = Math.max(size, 0);
+		}
+	}
+
+	@Override
+	public synchronized void clear() {
+		mySize = 0;
+	}
+
+	public synchronized ZLTextMark getFirst() {
+		return mySize > 0 ? get(0) : null;
+	}
+
+	public synchronized ZLTextMark getLast() {
+		return mySize > 0 ? get(mySize - 1) : null;
+	}
+
+	/**
+	 * Returns the first mark not less than the position, or null
+	 */
+	public synchronized ZLTextMark getNext(ZLTextMark position) {
+		final int index = lowerBound(position.ParagraphIndex, position.Offset);
+		return index < mySize ? get(index) : null;
+	}
+
+	/**
+	 * Returns the last mark less than the position, or null
+	 */
+	public synchronized ZLTextMark getPrevious(ZLTextMark position) {
+		final int index = lowerBound(position.ParagraphIndex, position.Offset) - 1;
+		return index >= 0 ? get(index) : null;
+	}
+
+	/**
+	 * Returns the indices of the paragraphs with marks, in order
+	 */
+	public synchronized int[] getParagraphIndices() {
+		int count = 0;
+		for (int i = 0; i < mySize; ++i) {
+			if (i == 0 || myParagraphs[i] != myParagraphs[i - 1]) {
+				++count;
+			}
+		}
+		final int[] indices = new int[count];
+		count = 0;
+		for (int i = 0; i < mySize; ++i) {
+			if (i == 0 || myParagraphs[i] != myParagraphs[i - 1]) {
+				indices[count++] = myParagraphs[i];
+			}
+		}
+		return indices;
+	}
+
+	public synchronized List<ZLTextMark> getParagraphMarks(int paragraphIndex) {
+		final int from = lowerBound(paragraphIndex, Integer.MIN_VALUE);
+		final int to = lowerBound(paragraphIndex + 1, Integer.MIN_VALUE);
+		if (from == to) {
+			return Collections.emptyList();
+		}
+		final ArrayList<ZLTextMark> marks = new ArrayList<ZLTextMark>(to - from);
+		for (int i = from; i < to; ++i) {
+			marks.add(get(i));
+		}
+		return marks;
+	}
+}
@@ -35,10 +35,18 @@ public interface ZLTextModel {
 	ZLTextMark getPreviousMark(ZLTextMark position);
 
 	List<ZLTextMark> getMarks();
+	List<ZLTextMark> getParagraphMarks(int index);
+	// is changed after every change of the paragraph marks, 0 if the paragraph never had marks
+	int getMarksGeneration(int index);
 
 	// text length for paragraphs from 0 to index
 	int getTextLength(int index);
 	int findParagraphByTextLength(int length);
 
 	int search(final String text, int startIndex, int endIndex, boolean ignoreCase);
+	// appends the marks found in paragraphs [startIndex, endIndex) to result, model marks are not changed
+	int search(final String text, int startIndex, int endIndex, boolean ignoreCase, ZLTextMarkList result);
+	void addMarks(ZLTextMarkList marks);
+	// builds the search index in background, search does not wait for it
+	void prepareSearchIndex();
 }
@@ -19,6 +19,8 @@
 
 package org.geometerplus.zlibrary.text.model;
 
+import java.nio.CharBuffer;
+
 public interface ZLTextParagraph {
 	interface Entry {
 		byte TEXT = 1;
@@ -41,6 +43,10 @@ public interface ZLTextParagraph {
 		char[] getTextData();
 		int getTextOffset();
 		int getTextLength();
+		// text occupies getTextLength() chars starting from getTextBufferOffset();
+		// unlike getTextData(), never copies the text
+		CharBuffer getTextBuffer();
+		int getTextBufferOffset();
 
 		byte getControlKind();
 		boolean getControlIsStart();
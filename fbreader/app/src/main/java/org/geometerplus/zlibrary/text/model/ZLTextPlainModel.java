@@ -19,7 +19,9 @@
 
 package org.geometerplus.zlibrary.text.model;
 
+import java.nio.CharBuffer;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicIntegerArray;
 
 import org.geometerplus.zlibrary.core.fonts.FontManager;
 import org.geometerplus.zlibrary.core.image.ZLImage;
@@ -37,10 +39,17 @@ public final class ZLTextPlainModel implements ZLTextModel, ZLTextStyleEntry.Fea
 
 	private int myParagraphsNumber;
 
-	private final CachedCharStorage myStorage;
+	private final CharStorage myStorage;
 	private final Map<String,ZLImage> myImageMap;
 
-	private ArrayList<ZLTextMark> myMarks;
+	private final ZLTextMarkList myMarks = new ZLTextMarkList();
+	// per paragraph, see getMarksGeneration(); allocated with the first marks
+	private volatile AtomicIntegerArray myMarksGenerations;
+	private int myMarksGeneration;
+
+	private final String mySearchIndexFileName;
+	private volatile ZLTextSearchIndex mySearchIndex;
+	private Thread mySearchIndexThread;
 
 	private final FontManager myFontManager;
 
@@ -52,7 +61,12 @@ public final class ZLTextPlainModel implements ZLTextModel, ZLTextStyleEntry.Fea
 		int myDataIndex;
 		int myDataOffset;
 
+		private CharBuffer myBuffer;
+		private int myBufferIndex = -1;
+
 		// TextEntry data
+		private CharBuffer myTextBuffer;
+		private int myTextBufferOffset;
 		private char[] myTextData;
 		private int myTextOffset;
 		private int myTextLength;
@@ -94,12 +108,32 @@ public final class ZLTextPlainModel implements ZLTextModel, ZLTextStyleEntry.Fea
 			return myType;
 		}
 
+		private void ensureTextData() {
+			if (myTextData == null && myTextBuffer != null) {
+				// buffer is not backed by an array (memory-mapped storage)
+				final char[] data = new char[myTextLength];
+				for (int i = 0; i < myTextLength; ++i) {
+					data[i] = myTextBuffer.get(myTextBufferOffset + i);
+				}
+				myTextData = data;
+				myTextOffset = 0;
+			}
+		}
+
 		public char[] getTextData() {
+			ensureTextData();
 			return myTextData;
 		}
 		public int getTextOffset() {
+			ensureTextData();
 			return myTextOffset;
 		}
+		public CharBuffer getTextBuffer() {
+			return myTextBuffer;
+		}
+		public int getTextBufferOffset() {
+			return myTextBufferOffset;
+		}
 		public int getTextLength() {
 			return myTextLength;
 		}
@@ -137,32 +171,40 @@ public final class ZLTextPlainModel implements ZLTextModel, ZLTextStyleEntry.Fea
 			return myFixedHSpaceLength;
 		}
 
+		private CharBuffer buffer(int index) {
+			if (index != myBufferIndex) {
+				myBuffer = myStorage.buffer(index);
+				myBufferIndex = index;
+			}
+			return myBuffer;
+		}
+
 		public boolean next() {
 			if (myCounter >= myLength) {
 				return false;
 			}
 
 			int dataOffset = myDataOffset;
-			char[] data = myStorage.block(myDataIndex);
+			CharBuffer data = buffer(myDataIndex);
 			if (data == null) {
 				return false;
 			}
-			if (dataOffset >= data.length) {
-				data = myStorage.block(++myDataIndex);
+			if (dataOffset >= data.limit()) {
+				data = buffer(++myDataIndex);
 				if (data == null) {
 					return false;
 				}
 				dataOffset = 0;
 			}
-			short first = (short)data[dataOffset];
+			short first = (short)data.get(dataOffset);
 			byte type = (byte)first;
 			if (type == 0) {
-				data = myStorage.block(++myDataIndex);
+				data = buffer(++myDataIndex);
 				if (data == null) {
 					return false;
 				}
 				dataOffset = 0;
-				first = (short)data[0];
+				first = (short)data.get(0);
 				type = (byte)first;
 			}
 			myType = type;
@@ -170,18 +212,24 @@ public final class ZLTextPlainModel implements ZLTextModel, ZLTextStyleEntry.Fea
 			switch (type) {
 				case ZLTextParagraph.Entry.TEXT:
 				{
-					int textLength = (int)data[dataOffset++];
-					textLength += (((int)data[dataOffset++]) << 16);
-					textLength = Math.min(textLength, data.length - dataOffset);
+					int textLength = (int)data.get(dataOffset++);
+					textLength += (((int)data.get(dataOffset++)) << 16);
+					textLength = Math.min(textLength, data.limit() - dataOffset);
 					myTextLength = textLength;
-					myTextData = data;
-					myTextOffset = dataOffset;
+					myTextBuffer = data;
+					myTextBufferOffset = dataOffset;
+					if (data.hasArray()) {
+						myTextData = data.array();
+						myTextOffset = data.arrayOffset() + dataOffset;
+					} else {
+						myTextData = null;
+					}
 					dataOffset += textLength;
 					break;
 				}
 				case ZLTextParagraph.Entry.CONTROL:
 				{
-					short kind = (short)data[dataOffset++];
+					short kind = (short)data.get(dataOffset++);
 					myControlKind = (byte)kind;
 					myControlIsStart = (kind & 0x0100) == 0x0100;
 					myHyperlinkType = 0;
@@ -189,27 +237,27 @@ public final class ZLTextPlainModel implements ZLTextModel, ZLTextStyleEntry.Fea
 				}
 				case ZLTextParagraph.Entry.HYPERLINK_CONTROL:
 				{
-					final short kind = (short)data[dataOffset++];
+					final short kind = (short)data.get(dataOffset++);
 					myControlKind = (byte)kind;
 					myControlIsStart = true;
 					myHyperlinkType = (byte)(kind >> 8);
-					final short labelLength = (short)data[dataOffset++];
-					myHyperlinkId = new String(data, dataOffset, labelLength);
+					final short labelLength = (short)data.get(dataOffset++);
+					myHyperlinkId = string(data, dataOffset, labelLength);
 					dataOffset += labelLength;
 					break;
 				}
 				case ZLTextParagraph.Entry.IMAGE:
 				{
-					final short vOffset = (short)data[dataOffset++];
-					final short len = (short)data[dataOffset++];
-					final String id = new String(data, dataOffset, len);
+					final short vOffset = (short)data.get(dataOffset++);
+					final short len = (short)data.get(dataOffset++);
+					final String id = string(data, dataOffset, len);
 					dataOffset += len;
-					final boolean isCover = data[dataOffset++] != 0;
+					final boolean isCover = data.get(dataOffset++) != 0;
 					myImageEntry = new ZLImageEntry(myImageMap, id, vOffset, isCover);
 					break;
 				}
 				case ZLTextParagraph.Entry.FIXED_HSPACE:
-					myFixedHSpaceLength = (short)data[dataOffset++];
+					myFixedHSpaceLength = (short)data.get(dataOffset++);
 					break;
 				case ZLTextParagraph.Entry.STYLE_CSS:
 				case ZLTextParagraph.Entry.STYLE_OTHER:
@@ -220,17 +268,17 @@ public final class ZLTextPlainModel implements ZLTextModel, ZLTextStyleEntry.Fea
 							? new ZLTextCSSStyleEntry(depth)
 							: new ZLTextOtherStyleEntry();
 
-					final short mask = (short)data[dataOffset++];
+					final short mask = (short)data.get(dataOffset++);
 					for (int i = 0; i < NUMBER_OF_LENGTHS; ++i) {
 						if (ZLTextStyleEntry.isFeatureSupported(mask, i)) {
-							final short size = (short)data[dataOffset++];
-							final byte unit = (byte)data[dataOffset++];
+							final short size = (short)data.get(dataOffset++);
+							final byte unit = (byte)data.get(dataOffset++);
 							entry.setLength(i, size, unit);
 						}
 					}
 					if (ZLTextStyleEntry.isFeatureSupported(mask, ALIGNMENT_TYPE) ||
 						ZLTextStyleEntry.isFeatureSupported(mask, NON_LENGTH_VERTICAL_ALIGN)) {
-						final short value = (short)data[dataOffset++];
+						final short value = (short)data.get(dataOffset++);
 						if (ZLTextStyleEntry.isFeatureSupported(mask, ALIGNMENT_TYPE)) {
 							entry.setAlignmentType((byte)(value & 0xFF));
 						}
@@ -239,10 +287,10 @@ public final class ZLTextPlainModel implements ZLTextModel, ZLTextStyleEntry.Fea
 						}
 					}
 					if (ZLTextStyleEntry.isFeatureSupported(mask, FONT_FAMILY)) {
-						entry.setFontFamilies(myFontManager, (short)data[dataOffset++]);
+						entry.setFontFamilies(myFontManager, (short)data.get(dataOffset++));
 					}
 					if (ZLTextStyleEntry.isFeatureSupported(mask, FONT_STYLE_MODIFIER)) {
-						final short value = (short)data[dataOffset++];
+						final short value = (short)data.get(dataOffset++);
 						entry.setFontModifiers((byte)(value & 0xFF), (byte)((value >> 8) & 0xFF));
 					}
 
@@ -260,13 +308,13 @@ public final class ZLTextPlainModel implements ZLTextModel, ZLTextStyleEntry.Fea
 				case ZLTextParagraph.Entry.VIDEO:
 				{
 					myVideoEntry = new ZLVideoEntry();
-					final short mapSize = (short)data[dataOffset++];
+					final short mapSize = (short)data.get(dataOffset++);
 					for (short i = 0; i < mapSize; ++i) {
-						short len = (short)data[dataOffset++];
-						final String mime = new String(data, dataOffset, len);
+						short len = (short)data.get(dataOffset++);
+						final String mime = string(data, dataOffset, len);
 						dataOffset += len;
-						len = (short)data[dataOffset++];
-						final String src = new String(data, dataOffset, len);
+						len = (short)data.get(dataOffset++);
+						final String src = string(data, dataOffset, len);
 						dataOffset += len;
 						myVideoEntry.addSource(mime, src);
 					}
@@ -274,18 +322,18 @@ public final class ZLTextPlainModel implements ZLTextModel, ZLTextStyleEntry.Fea
 				}
 				case ZLTextParagraph.Entry.EXTENSION:
 				{
-					final short kindLength = (short)data[dataOffset++];
-					final String kind = new String(data, dataOffset, kindLength);
+					final short kindLength = (short)data.get(dataOffset++);
+					final String kind = string(data, dataOffset, kindLength);
 					dataOffset += kindLength;
 
 					final Map<String,String> map = new HashMap<String,String>();
 					final short dataSize = (short)((first >> 8) & 0xFF);
 					for (short i = 0; i < dataSize; ++i) {
-						final short keyLength = (short)data[dataOffset++];
-						final String key = new String(data, dataOffset, keyLength);
+						final short keyLength = (short)data.get(dataOffset++);
+						final String key = string(data, dataOffset, keyLength);
 						dataOffset += keyLength;
-						final short valueLength = (short)data[dataOffset++];
-						map.put(key, new String(data, dataOffset, valueLength));
+						final short valueLength = (short)data.get(dataOffset++);
+						map.put(key, string(data, dataOffset, valueLength));
 						dataOffset += valueLength;
 					}
 					myExtensionEntry = new ExtensionEntry(kind, map);
@@ -298,6 +346,17 @@ public final class ZLTextPlainModel implements ZLTextModel, ZLTextStyleEntry.Fea
 		}
 	}
 
+	private static String string(CharBuffer data, int offset, int length) {
+		if (data.hasArray()) {
+			return new String(data.array(), data.arrayOffset() + offset, length);
+		}
+		final char[] chars = new char[length];
+		for (int i = 0; i < length; ++i) {
+			chars[i] = data.get(offset + i);
+		}
+		return new String(chars);
+	}
+
 	public ZLTextPlainModel(
 		String id,
 		String language,
@@ -310,6 +369,7 @@ public final class ZLTextPlainModel implements ZLTextModel, ZLTextStyleEntry.Fea
 		String directoryName,
 		String fileExtension,
 		int blocksNumber,
+		boolean mappedStorage,
 		Map<String,ZLImage> imageMap,
 		FontManager fontManager
 	) {
@@ -321,7 +381,8 @@ public final class ZLTextPlainModel implements ZLTextModel, ZLTextStyleEntry.Fea
 		myParagraphLengths = paragraphLengths;
 		myTextSizes = textSizes;
 		myParagraphKinds = paragraphKinds;
-		myStorage = new CachedCharStorage(directoryName, fileExtension, blocksNumber);
+		myStorage = CharStorage.create(directoryName, fileExtension, blocksNumber, mappedStorage);
+		mySearchIndexFileName = directoryName + "/search." + fileExtension;
 		myImageMap = imageMap;
 		myFontManager = fontManager;
 	}
@@ -335,86 +396,202 @@ public final class ZLTextPlainModel implements ZLTextModel, ZLTextStyleEntry.Fea
 	}
 
 	public final ZLTextMark getFirstMark() {
-		return (myMarks == null || myMarks.isEmpty()) ? null : myMarks.get(0);
+		return myMarks.getFirst();
 	}
 
 	public final ZLTextMark getLastMark() {
-		return (myMarks == null || myMarks.isEmpty()) ? null : myMarks.get(myMarks.size() - 1);
+		return myMarks.getLast();
 	}
 
 	public final ZLTextMark getNextMark(ZLTextMark position) {
-		if (position == null || myMarks == null) {
-			return null;
-		}
+		return position != null ? myMarks.getNext(position) : null;
+	}
+
+	public final ZLTextMark getPreviousMark(ZLTextMark position) {
+		return position != null ? myMarks.getPrevious(position) : null;
+	}
 
-		ZLTextMark mark = null;
-		for (ZLTextMark current : myMarks) {
-			if (current.compareTo(position) >= 0) {
-				if ((mark == null) || (mark.compareTo(current) > 0)) {
-					mark = current;
+	private static final class TextBuffer {
+		char[] Data = new char[256];
+		int Length;
+	}
+
+	// joins the text entries of the paragraph, offsets are the same as in ZLTextMark
+	private static void readParagraphText(EntryIteratorImpl it, TextBuffer buffer) {
+		buffer.Length = 0;
+		while (it.next()) {
+			if (it.getType() != ZLTextParagraph.Entry.TEXT) {
+				continue;
+			}
+			final int length = it.getTextLength();
+			if (buffer.Length + length > buffer.Data.length) {
+				buffer.Data = Arrays.copyOf(buffer.Data, Math.max(2 * buffer.Data.length, buffer.Length + length));
+			}
+			final CharBuffer data = it.getTextBuffer();
+			final int offset = it.getTextBufferOffset();
+			if (data.hasArray()) {
+				System.arraycopy(data.array(), data.arrayOffset() + offset, buffer.Data, buffer.Length, length);
+			} else {
+				for (int i = 0; i < length; ++i) {
+					buffer.Data[buffer.Length + i] = data.get(offset + i);
 				}
 			}
+			buffer.Length += length;
 		}
-		return mark;
 	}
 
-	public final ZLTextMark getPreviousMark(ZLTextMark position) {
-		if ((position == null) || (myMarks == null)) {
-			return null;
+	private int searchIndexFingerprint() {
+		int hash = myParagraphsNumber;
+		for (int i = 0; i < myParagraphsNumber; ++i) {
+			hash = 31 * (31 * hash + myTextSizes[i]) + myParagraphLengths[i];
 		}
+		return hash;
+	}
 
-		ZLTextMark mark = null;
-		for (ZLTextMark current : myMarks) {
-			if (current.compareTo(position) < 0) {
-				if ((mark == null) || (mark.compareTo(current) < 0)) {
-					mark = current;
+	/**
+	 * Starts loading (or building and storing) the search index in background;
+	 * search works without the index, but scans all the paragraphs
+	 */
+	public final synchronized void prepareSearchIndex() {
+		if (mySearchIndex != null || mySearchIndexThread != null || myParagraphsNumber == 0) {
+			return;
+		}
+		mySearchIndexThread = new Thread("SearchIndex") {
+			public void run() {
+				final int fingerprint = searchIndexFingerprint();
+				ZLTextSearchIndex index = ZLTextSearchIndex.read(mySearchIndexFileName, fingerprint);
+				if (index == null) {
+					final ZLTextSearchIndex.Builder builder = new ZLTextSearchIndex.Builder(fingerprint);
+					final EntryIteratorImpl it = new EntryIteratorImpl(0);
+					final TextBuffer buffer = new TextBuffer();
+					for (int pass = 0; pass < 2; ++pass) {
+						if (pass == 1) {
+							builder.startFilling();
+						}
+						for (int i = 0; i < myParagraphsNumber; ++i) {
+							it.reset(i);
+							readParagraphText(it, buffer);
+							builder.addParagraph(i, buffer.Data, buffer.Length);
+						}
+					}
+					index = builder.build();
+					index.write(mySearchIndexFileName);
 				}
+				mySearchIndex = index;
 			}
-		}
-		return mark;
+		};
+		mySearchIndexThread.setPriority(Thread.MIN_PRIORITY);
+		mySearchIndexThread.start();
 	}
 
 	public final int search(final String text, int startIndex, int endIndex, boolean ignoreCase) {
-		int count = 0;
-		ZLSearchPattern pattern = new ZLSearchPattern(text, ignoreCase);
-		myMarks = new ArrayList<ZLTextMark>();
+		final int[] oldParagraphs = myMarks.getParagraphIndices();
+		myMarks.clear();
+		try {
+			return search(text, startIndex, endIndex, ignoreCase, myMarks);
+		} finally {
+			marksChanged(oldParagraphs);
+			marksChanged(myMarks.getParagraphIndices());
+		}
+	}
+
+	public final int search(final String text, int startIndex, int endIndex, boolean ignoreCase, ZLTextMarkList result) {
+		final ZLSearchPattern pattern = new ZLSearchPattern(text, ignoreCase);
 		if (startIndex > myParagraphsNumber) {
 			startIndex = myParagraphsNumber;
 		}
 		if (endIndex > myParagraphsNumber) {
 			endIndex = myParagraphsNumber;
 		}
-		int index = startIndex;
-		final EntryIteratorImpl it = new EntryIteratorImpl(index);
-		while (true) {
-			int offset = 0;
-			while (it.next()) {
-				if (it.getType() == ZLTextParagraph.Entry.TEXT) {
-					char[] textData = it.getTextData();
-					int textOffset = it.getTextOffset();
-					int textLength = it.getTextLength();
-					for (ZLSearchUtil.Result res = ZLSearchUtil.find(textData, textOffset, textLength, pattern); res != null;
-						res = ZLSearchUtil.find(textData, textOffset, textLength, pattern, res.Start + 1)) {
-						myMarks.add(new ZLTextMark(index, offset + res.Start, res.Length));
-						++count;
-					}
-					offset += textLength;
-				}
+		if (startIndex >= endIndex || pattern.getLength() == 0) {
+			return 0;
+		}
+
+		final ZLTextSearchIndex index = mySearchIndex;
+		final int[] candidates = index != null ? index.candidates(text, startIndex, endIndex) : null;
+		final EntryIteratorImpl it = new EntryIteratorImpl(startIndex);
+		final TextBuffer buffer = new TextBuffer();
+		final MarkCollector collector = new MarkCollector(result);
+		int count = 0;
+		if (candidates != null) {
+			for (int i : candidates) {
+				count += searchInParagraph(it, i, pattern, buffer, collector);
 			}
-			if (++index >= endIndex) {
-				break;
+		} else {
+			for (int i = startIndex; i < endIndex; ++i) {
+				count += searchInParagraph(it, i, pattern, buffer, collector);
 			}
-			it.reset(index);
 		}
 		return count;
 	}
 
+	private static final class MarkCollector implements ZLSearchUtil.MatchConsumer {
+		final ZLTextMarkList Result;
+		int ParagraphIndex;
+
+		MarkCollector(ZLTextMarkList result) {
+			Result = result;
+		}
+
+		public boolean onMatch(int start, int length) {
+			Result.add(ParagraphIndex, start, length);
+			return true;
+		}
+	}
+
+	private int searchInParagraph(EntryIteratorImpl it, int index, ZLSearchPattern pattern, TextBuffer buffer, MarkCollector collector) {
+		it.reset(index);
+		readParagraphText(it, buffer);
+		collector.ParagraphIndex = index;
+		return ZLSearchUtil.findAll(buffer.Data, 0, buffer.Length, pattern, collector);
+	}
+
+	public final void addMarks(ZLTextMarkList marks) {
+		myMarks.addAll(marks);
+		marksChanged(marks.getParagraphIndices());
+	}
+
 	public final List<ZLTextMark> getMarks() {
-		return myMarks != null ? myMarks : Collections.<ZLTextMark>emptyList();
+		return myMarks;
+	}
+
+	public final List<ZLTextMark> getParagraphMarks(int index) {
+		return myMarks.getParagraphMarks(index);
 	}
 
 	public final void removeAllMarks() {
-		myMarks = null;
+		final int[] oldParagraphs = myMarks.getParagraphIndices();
+		myMarks.clear();
+		marksChanged(oldParagraphs);
+	}
+
+	// called after the marks are changed, so a reader that gets
+	// the new generation (before the marks) gets the new marks too
+	private synchronized void marksChanged(int[] paragraphs) {
+		if (paragraphs.length == 0) {
+			return;
+		}
+		final int size = Math.max(myParagraphsNumber, paragraphs[paragraphs.length - 1] + 1);
+		AtomicIntegerArray generations = myMarksGenerations;
+		if (generations == null || generations.length() < size) {
+			final AtomicIntegerArray old = generations;
+			generations = new AtomicIntegerArray(size);
+			if (old != null) {
+				for (int i = 0; i < old.length(); ++i) {
+					generations.set(i, old.get(i));
+				}
+			}
+			myMarksGenerations = generations;
+		}
+		final int generation = ++myMarksGeneration;
+		for (int index : paragraphs) {
+			generations.set(index, generation);
+		}
+	}
+
+	public final int getMarksGeneration(int index) {
+		final AtomicIntegerArray generations = myMarksGenerations;
+		return generations != null && index < generations.length() ? generations.get(index) : 0;
 	}
 
 	public final int getParagraphsNumber() {
@@ -0,0 +1,247 @@
+/*
+ * Copyright (C) 2007-2015 FBReader.ORG Limited <contact@fbreader.org>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA.
+ */
+
+package org.geometerplus.zlibrary.text.model;
+
+import java.io.*;
+import java.util.Arrays;
+
+import org.geometerplus.zlibrary.core.util.ZLSearchUtil;
+
+/**
+ * Trigram postings over the paragraph texts of a model. Every trigram of
+ * the case-folded paragraph text (zero-width spaces skipped, text entries
+ * joined) is hashed into one of BUCKETS_NUMBER buckets; a bucket holds the
+ * sorted list of paragraphs containing any of its trigrams. Lookup results
+ * are candidates only, matches are to be verified on the paragraph text.
+ */
+final class ZLTextSearchIndex {
+	private static final int FORMAT_VERSION = 1;
+	private static final int BUCKETS_SHIFT = 16;
+	private static final int BUCKETS_NUMBER = 1 << BUCKETS_SHIFT;
+
+	private final int myFingerprint;
+	// paragraphs of bucket i are myParagraphs[myBucketStarts[i] .. myBucketStarts[i + 1])
+	private final int[] myBucketStarts;
+	private final int[] myParagraphs;
+
+	private ZLTextSearchIndex(int fingerprint, int[] bucketStarts, int[] paragraphs) {
+		myFingerprint = fingerprint;
+		myBucketStarts = bucketStarts;
+		myParagraphs = paragraphs;
+	}
+
+	private static int bucket(char c0, char c1, char c2) {
+		final int hash = ((c0 << 16) ^ (c1 << 8) ^ c2) * 0x9E3779B1 + c1;
+		return hash >>> (32 - BUCKETS_SHIFT);
+	}
+
+	/**
+	 * Collects distinct buckets of the text trigrams into buckets array;
+	 * returns the (possibly reallocated) array, the number of buckets is stored in count[0]
+	 */
+	private static int[] buckets(char[] text, int length, int[] buckets, int[] count) {
+		int size = 0;
+		char c0 = 0;
+		char c1 = 0;
+		int seen = 0;
+		for (int i = 0; i < length; ++i) {
+			final char ch = text[i];
+			if (ch == '\u200b') {
+				continue;
+			}
+			final char c2 = ZLSearchUtil.foldCase(ch);
+			if (++seen >= 3) {
+				if (size == buckets.length) {
+					buckets = Arrays.copyOf(buckets, 2 * size);
+				}
+				buckets[size++] = bucket(c0, c1, c2);
+			}
+			c0 = c1;
+			c1 = c2;
+		}
+		Arrays.sort(buckets, 0, size);
+		int distinct = 0;
+		for (int i = 0; i < size; ++i) {
+			if (distinct == 0 || buckets[distinct - 1] != buckets[i]) {
+				buckets[distinct++] = buckets[i];
+			}
+		}
+		count[0] = distinct;
+		return buckets;
+	}
+
+	/**
+	 * Returns sorted indices of the paragraphs from [startIndex, endIndex) that may contain
+	 * the pattern, or null if the pattern is too short to use the index
+	 */
+	int[] candidates(String pattern, int startIndex, int endIndex) {
+		final char[] data = pattern.toCharArray();
+		final int[] count = new int[1];
+		final int[] buckets = buckets(data, data.length, new int[Math.max(data.length, 1)], count);
+		if (count[0] == 0) {
+			return null;
+		}
+
+		int shortest = buckets[0];
+		for (int i = 1; i < count[0]; ++i) {
+			final int b = buckets[i];
+			if (bucketSize(b) < bucketSize(shortest)) {
+				shortest = b;
+			}
+		}
+
+		final int from = myBucketStarts[shortest];
+		final int to = myBucketStarts[shortest + 1];
+		final int[] result = new int[to - from];
+		int size = 0;
+		for (int i = from; i < to; ++i) {
+			final int paragraph = myParagraphs[i];
+			if (paragraph < startIndex || paragraph >= endIndex) {
+				continue;
+			}
+			boolean inAll = true;
+			for (int j = 0; j < count[0]; ++j) {
+				final int b = buckets[j];
+				if (b != shortest && Arrays.binarySearch(myParagraphs, myBucketStarts[b], myBucketStarts[b + 1], paragraph) < 0) {
+					inAll = false;
+					break;
+				}
+			}
+			if (inAll) {
+				result[size++] = paragraph;
+			}
+		}
+		return Arrays.copyOf(result, size);
+	}
+
+	private int bucketSize(int bucket) {
+		return myBucketStarts[bucket + 1] - myBucketStarts[bucket];
+	}
+
+	/**
+	 * Two-pass builder: the paragraphs are added once to count postings,
+	 * and then, after startFilling(), once more in the same order.
+	 */
+	static final class Builder {
+		private final int myFingerprint;
+		private final int[] myBucketStarts = new int[BUCKETS_NUMBER + 1];
+		private int[] myPositions;
+		private int[] myParagraphs;
+		private int[] myBuckets = new int[256];
+		private final int[] myCount = new int[1];
+
+		Builder(int fingerprint) {
+			myFingerprint = fingerprint;
+		}
+
+		void addParagraph(int index, char[] text, int length) {
+			myBuckets = buckets(text, length, myBuckets, myCount);
+			final int count = myCount[0];
+			if (myPositions == null) {
+				for (int i = 0; i < count; ++i) {
+					++myBucketStarts[myBuckets[i] + 1];
+				}
+			} else {
+				for (int i = 0; i < count; ++i) {
+					myParagraphs[myPositions[myBuckets[i]]++] = index;
+				}
+			}
+		}
+
+		void startFilling() {
+			for (int i = 0; i < BUCKETS_NUMBER; ++i) {
+				myBucketStarts[i + 1] += myBucketStarts[i];
+			}
+			myPositions = Arrays.copyOf(myBucketStarts, BUCKETS_NUMBER);
+			myParagraphs = new int[myBucketStarts[BUCKETS_NUMBER]];
+		}
+
+		ZLTextSearchIndex build() {
+			return new ZLTextSearchIndex(myFingerprint, myBucketStarts, myParagraphs);
+		}
+	}
+
+	static ZLTextSearchIndex read(String fileName, int fingerprint) {
+		final File file = new File(fileName);
+		if (!file.exists()) {
+			return null;
+		}
+		DataInputStream stream = null;
+		try {
+			stream = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 65536));
+			if (stream.readInt() != FORMAT_VERSION ||
+				stream.readInt() != fingerprint ||
+				stream.readInt() != BUCKETS_NUMBER) {
+				return null;
+			}
+			final int[] bucketStarts = new int[BUCKETS_NUMBER + 1];
+			for (int i = 0; i < BUCKETS_NUMBER; ++i) {
+				bucketStarts[i + 1] = bucketStarts[i] + stream.readInt();
+			}
+			final int[] paragraphs = new int[bucketStarts[BUCKETS_NUMBER]];
+			for (int i = 0; i < paragraphs.length; ++i) {
+				paragraphs[i] = stream.readInt();
+			}
+			return new ZLTextSearchIndex(fingerprint, bucketStarts, paragraphs);
+		} catch (IOException e) {
+			// broken index file is rebuilt
+			return null;
+		} finally {
+			if (stream != null) {
+				try {
+					stream.close();
+				} catch (IOException e) {
+				}
+			}
+		}
+	}
+
+	void write(String fileName) {
+		final File file = new File(fileName);
+		final File tmp = new File(fileName + ".tmp");
+		DataOutputStream stream = null;
+		try {
+			stream = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 65536));
+			stream.writeInt(FORMAT_VERSION);
+			stream.writeInt(myFingerprint);
+			stream.writeInt(BUCKETS_NUMBER);
+			for (int i = 0; i < BUCKETS_NUMBER; ++i) {
+				stream.writeInt(bucketSize(i));
+			}
+			for (int p : myParagraphs) {
+				stream.writeInt(p);
+			}
+			stream.close();
+			stream = null;
+			file.delete();
+			tmp.renameTo(file);
+		} catch (IOException e) {
+			// index file is optional
+		} finally {
+			if (stream != null) {
+				try {
+					stream.close();
+				} catch (IOException e) {
+				}
+			}
+			tmp.delete();
+		}
+	}
+}
@@ -23,6 +23,7 @@ import java.util.ArrayList;
 import java.util.List;
 
 import org.fbreader.util.Boolean3;
+import org.fbreader.util.ComparisonUtil;
 
 import org.geometerplus.zlibrary.core.fonts.FontEntry;
 import org.geometerplus.zlibrary.core.fonts.FontManager;
@@ -77,6 +78,23 @@ public abstract class ZLTextStyleEntry {
 			Unit = unit;
 		}
 
+		@Override
+		public boolean equals(Object other) {
+			if (other == this) {
+				return true;
+			}
+			if (!(other instanceof Length)) {
+				return false;
+			}
+			final Length length = (Length)other;
+			return Size == length.Size && Unit == length.Unit;
+		}
+
+		@Override
+		public int hashCode() {
+			return Size * 8 + Unit;
+		}
+
 		@Override
 		public String toString() {
 			return Size + "." + Unit;
@@ -205,6 +223,42 @@ public abstract class ZLTextStyleEntry {
 		return myVerticalAlignCode;
 	}
 
+	@Override
+	public boolean equals(Object other) {
+		if (other == this) {
+			return true;
+		}
+		if (other == null || other.getClass() != getClass()) {
+			return false;
+		}
+		final ZLTextStyleEntry entry = (ZLTextStyleEntry)other;
+		if (Depth != entry.Depth ||
+			myFeatureMask != entry.myFeatureMask ||
+			myAlignmentType != entry.myAlignmentType ||
+			mySupportedFontModifiers != entry.mySupportedFontModifiers ||
+			myFontModifiers != entry.myFontModifiers ||
+			myVerticalAlignCode != entry.myVerticalAlignCode) {
+			return false;
+		}
+		for (int i = 0; i < Feature.NUMBER_OF_LENGTHS; ++i) {
+			if (!ComparisonUtil.equal(myLengths[i], entry.myLengths[i])) {
+				return false;
+			}
+		}
+		return ComparisonUtil.equal(myFontEntries, entry.myFontEntries);
+	}
+
+	@Override
+	public int hashCode() {
+		int hash = Depth * 31 + myFeatureMask;
+		hash = hash * 31 + myAlignmentType;
+		hash = hash * 31 + myFontModifiers;
+		for (Length length : myLengths) {
+			hash = hash * 31 + ComparisonUtil.hashCode(length);
+		}
+		return hash * 31 + ComparisonUtil.hashCode(myFontEntries);
+	}
+
 	@Override
 	public String toString() {
 		final StringBuilder buffer = new StringBuilder("StyleEntry[");
@@ -19,16 +19,42 @@
 
 package org.geometerplus.zlibrary.text.view;
 
+import java.util.ArrayList;
+import java.util.concurrent.*;
+
 import android.support.v4.util.LruCache;
 
 import org.geometerplus.zlibrary.text.model.ZLTextModel;
 
 final class CursorManager extends LruCache<Integer,ZLTextParagraphCursor> {
+	private static final int PREFETCH_TASK_SIZE = 4;
+
+	// cache size in bytes, see ZLTextParagraphCursor.EstimatedSize
+	private static int cacheSize() {
+		final long size = Runtime.getRuntime().maxMemory() / 32;
+		return (int)Math.max(1024 * 1024, Math.min(size, 16 * 1024 * 1024));
+	}
+
+	private static final class PrefetchThreadFactory implements ThreadFactory {
+		private final ThreadFactory myDefaultThreadFactory = Executors.defaultThreadFactory();
+
+		public Thread newThread(Runnable r) {
+			final Thread th = myDefaultThreadFactory.newThread(r);
+			th.setPriority(Thread.NORM_PRIORITY - 1);
+			th.setDaemon(true);
+			return th;
+		}
+	}
+
+	private static final ExecutorService ourPrefetchService = Executors.newFixedThreadPool(
+		Math.max(Runtime.getRuntime().availableProcessors() - 1, 1), new PrefetchThreadFactory()
+	);
+
 	private final ZLTextModel myModel;
 	final ExtensionElementManager ExtensionManager;
 
 	CursorManager(ZLTextModel model, ExtensionElementManager extManager) {
-		super(200); // max 200 cursors in the cache
+		super(cacheSize());
 		myModel = model;
 		ExtensionManager = extManager;
 	}
@@ -37,4 +63,56 @@ final class CursorManager extends LruCache<Integer,ZLTextParagraphCursor> {
 	protected ZLTextParagraphCursor create(Integer index) {
 		return new ZLTextParagraphCursor(this, myModel, index);
 	}
+
+	@Override
+	protected int sizeOf(Integer index, ZLTextParagraphCursor cursor) {
+		return cursor.EstimatedSize;
+	}
+
+	/**
+	 * Returns the cached cursor for the paragraph, or builds a new one;
+	 * a cursor built before the last change of the paragraph marks
+	 * (e.g. by a prefetch thread that read the marks too early) is discarded
+	 */
+	ZLTextParagraphCursor cursor(int index) {
+		while (true) {
+			final ZLTextParagraphCursor cursor = get(index);
+			if (cursor.MarksGeneration == myModel.getMarksGeneration(cursor.Index)) {
+				return cursor;
+			}
+			remove(index);
+		}
+	}
+
+	/**
+	 * Builds the cursors for paragraphs [from, to) on the prefetch threads
+	 * and waits for them; cached cursors are not rebuilt.
+	 * Must not be called under a lock that the paragraph processing takes.
+	 */
+	void prefetch(int from, int to) {
+		from = Math.max(from, 0);
+		to = Math.min(to, myModel.getParagraphsNumber());
+		final ArrayList<Future<?>> futures = new ArrayList<Future<?>>();
+		for (int start = from; start < to; start += PREFETCH_TASK_SIZE) {
+			final int taskStart = start;
+			final int taskEnd = Math.min(start + PREFETCH_TASK_SIZE, to);
+			futures.add(ourPrefetchService.submit(new Runnable() {
+				public void run() {
+					for (int i = taskStart; i < taskEnd; ++i) {
+						cursor(i);
+					}
+				}
+			}));
+		}
+		for (Future<?> f : futures) {
+			try {
+				f.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			} catch (ExecutionException e) {
+				// the cursor will be built on demand
+			}
+		}
+	}
 }
@@ -23,7 +23,7 @@ public class ZLTextControlElement extends ZLTextElement {
 	private final static ZLTextControlElement[] myStartElements = new ZLTextControlElement[256];
 	private final static ZLTextControlElement[] myEndElements = new ZLTextControlElement[256];
 
-	static ZLTextControlElement get(byte kind, boolean isStart) {
+	static synchronized ZLTextControlElement get(byte kind, boolean isStart) {
 		ZLTextControlElement[] elements = isStart ? myStartElements : myEndElements;
 		ZLTextControlElement element = elements[kind & 0xFF];
 		if (element == null) {
@@ -22,7 +22,7 @@ package org.geometerplus.zlibrary.text.view;
 public class ZLTextFixedHSpaceElement extends ZLTextElement {
 	private final static ZLTextElement[] ourCollection = new ZLTextElement[20];
 
-	public static ZLTextElement getElement(short length) {
+	public static synchronized ZLTextElement getElement(short length) {
 		if (length < 20) {
 			ZLTextElement cached = ourCollection[length];
 			if (cached == null) {
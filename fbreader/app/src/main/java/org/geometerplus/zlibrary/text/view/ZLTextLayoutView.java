@@ -0,0 +1,188 @@
+/*
+ * Copyright (C) 2007-2015 FBReader.ORG Limited <contact@fbreader.org>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA.
+ */
+
+
+package org.geometerplus.zlibrary.text.view;
+
+import org.geometerplus.zlibrary.core.filesystem.ZLFile;
+import org.geometerplus.zlibrary.core.util.ZLColor;
+import org.geometerplus.zlibrary.core.view.ZLPaintContext;
+
+import org.geometerplus.zlibrary.text.model.ZLTextModel;
+import org.geometerplus.zlibrary.text.view.style.ZLTextStyleCollection;
+
+/**
+ * Text view used for layout on a background thread (e.g., pagination).
+ * It measures text with its own paint context that has no canvas and keeps
+ * its own paragraph cursors, styles and line cache, so the original view
+ * is not locked and its state is not touched. Layout settings are taken
+ * from the original view.
+ */
+final class ZLTextLayoutView extends ZLTextView {
+	private final ZLTextView myBase;
+
+	ZLTextLayoutView(ZLTextView base, ZLPaintContext context, ZLTextModel model) {
+		super(base.Application);
+		myBase = base;
+		setContext(context);
+		setLayoutModel(model);
+	}
+
+	@Override
+	public ZLTextStyleCollection getTextStyleCollection() {
+		return myBase.getTextStyleCollection();
+	}
+
+	@Override
+	public ImageFitting getImageFitting() {
+		return myBase.getImageFitting();
+	}
+
+	@Override
+	public int getLeftMargin() {
+		return myBase.getLeftMargin();
+	}
+
+	@Override
+	public int getRightMargin() {
+		return myBase.getRightMargin();
+	}
+
+	@Override
+	public int getTopMargin() {
+		return myBase.getTopMargin();
+	}
+
+	@Override
+	public int getBottomMargin() {
+		return myBase.getBottomMargin();
+	}
+
+	@Override
+	public int getSpaceBetweenColumns() {
+		return myBase.getSpaceBetweenColumns();
+	}
+
+	@Override
+	public boolean twoColumnView() {
+		return myBase.twoColumnView();
+	}
+
+	@Override
+	public ZLFile getWallpaperFile() {
+		return myBase.getWallpaperFile();
+	}
+
+	@Override
+	public ZLPaintContext.FillMode getFillMode() {
+		return myBase.getFillMode();
+	}
+
+	@Override
+	public ZLColor getBackgroundColor() {
+		return myBase.getBackgroundColor();
+	}
+
+	@Override
+	public ZLColor getSelectionBackgroundColor() {
+		return myBase.getSelectionBackgroundColor();
+	}
+
+	@Override
+	public ZLColor getSelectionForegroundColor() {
+		return myBase.getSelectionForegroundColor();
+	}
+
+	@Override
+	public ZLColor getHighlightingBackgroundColor() {
+		return myBase.getHighlightingBackgroundColor();
+	}
+
+	@Override
+	public ZLColor getHighlightingForegroundColor() {
+		return myBase.getHighlightingForegroundColor();
+	}
+
+	@Override
+	public ZLColor getTextColor(ZLTextHyperlink hyperlink) {
+		return myBase.getTextColor(hyperlink);
+	}
+
+	@Override
+	public int scrollbarType() {
+		return myBase.scrollbarType();
+	}
+
+	@Override
+	protected ZLPaintContext.ColorAdjustingMode getAdjustingModeForImages() {
+		return myBase.getAdjustingModeForImages();
+	}
+
+	@Override
+	protected ExtensionElementManager getExtensionManager() {
+		return myBase.getExtensionManager();
+	}
+
+	@Override
+	public FooterArea getFooterArea() {
+		return null;
+	}
+
+	@Override
+	public Animation getAnimationType() {
+		return myBase.getAnimationType();
+	}
+
+	@Override
+	public void onFingerPress(int x, int y) {
+	}
+
+	@Override
+	public void onFingerRelease(int x, int y) {
+	}
+
+	@Override
+	public void onFingerMove(int x, int y) {
+	}
+
+	@Override
+	public boolean onFingerLongPress(int x, int y) {
+		return false;
+	}
+
+	@Override
+	public void onFingerReleaseAfterLongPress(int x, int y) {
+	}
+
+	@Override
+	public void onFingerMoveAfterLongPress(int x, int y) {
+	}
+
+	@Override
+	public void onFingerSingleTap(int x, int y) {
+	}
+
+	@Override
+	public void onFingerDoubleTap(int x, int y) {
+	}
+
+	@Override
+	public void onFingerEventCancelled() {
+	}
+}
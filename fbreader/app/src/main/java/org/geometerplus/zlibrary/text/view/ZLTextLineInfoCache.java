@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2007-2015 FBReader.ORG Limited <contact@fbreader.org>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA.
+ */
+
+
+package org.geometerplus.zlibrary.text.view;
+
+import java.util.*;
+
+/**
+ * Line layout cache shared by all pages of a view. Lines are grouped by
+ * paragraph index, so lines computed while paging forward are found again
+ * when the previous page start is searched from the paragraph beginning.
+ * The cache is valid for a single text width; paragraphs are evicted
+ * in LRU order when the total number of lines exceeds the limit.
+ */
+final class ZLTextLineInfoCache {
+	private static final int MAX_LINES_NUMBER = 2048;
+
+	private static final class ParagraphLines {
+		final ZLTextParagraphCursor Cursor;
+		final HashMap<ZLTextLineInfo,ZLTextLineInfo> Lines = new HashMap<ZLTextLineInfo,ZLTextLineInfo>();
+
+		ParagraphLines(ZLTextParagraphCursor cursor) {
+			Cursor = cursor;
+		}
+	}
+
+	private final LinkedHashMap<Integer,ParagraphLines> myParagraphs =
+		new LinkedHashMap<Integer,ParagraphLines>(64, 0.75f, true);
+	private int myLinesNumber;
+	private int myTextWidth = -1;
+
+	ZLTextLineInfo get(ZLTextLineInfo key, int textWidth) {
+		if (textWidth != myTextWidth) {
+			return null;
+		}
+		final ParagraphLines paragraph = myParagraphs.get(key.ParagraphCursor.Index);
+		if (paragraph == null || paragraph.Cursor != key.ParagraphCursor) {
+			return null;
+		}
+		return paragraph.Lines.get(key);
+	}
+
+	void put(ZLTextLineInfo info, int textWidth) {
+		if (textWidth != myTextWidth) {
+			clear();
+			myTextWidth = textWidth;
+		}
+
+		final Integer index = info.ParagraphCursor.Index;
+		ParagraphLines paragraph = myParagraphs.get(index);
+		if (paragraph == null || paragraph.Cursor != info.ParagraphCursor) {
+			if (paragraph != null) {
+				myLinesNumber -= paragraph.Lines.size();
+			}
+			paragraph = new ParagraphLines(info.ParagraphCursor);
+			myParagraphs.put(index, paragraph);
+		}
+		if (paragraph.Lines.put(info, info) == null) {
+			++myLinesNumber;
+		}
+
+		if (myLinesNumber > MAX_LINES_NUMBER) {
+			final Iterator<ParagraphLines> it = myParagraphs.values().iterator();
+			while (myLinesNumber > MAX_LINES_NUMBER && it.hasNext()) {
+				final ParagraphLines eldest = it.next();
+				if (eldest == paragraph) {
+					break;
+				}
+				myLinesNumber -= eldest.Lines.size();
+				it.remove();
+			}
+		}
+	}
+
+	void clear() {
+		myParagraphs.clear();
+		myLinesNumber = 0;
+	}
+}
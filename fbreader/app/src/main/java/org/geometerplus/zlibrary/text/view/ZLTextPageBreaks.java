@@ -0,0 +1,138 @@
+/*
+ * Copyright (C) 2007-2015 FBReader.ORG Limited <contact@fbreader.org>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA.
+ */
+
+
+package org.geometerplus.zlibrary.text.view;
+
+import java.io.*;
+
+/**
+ * Exact page-break table of a text model for a given layout profile:
+ * start position (paragraph, element, char) and text offset of every page.
+ * The table is filled page by page, so it is usable before pagination is complete.
+ */
+final class ZLTextPageBreaks {
+	private static final int FORMAT_VERSION = 1;
+	private static final int RECORD_SIZE = 4;
+
+	final String Profile;
+
+	private int[] myData = new int[RECORD_SIZE * 64];
+	private int mySize;
+	private volatile boolean myIsComplete;
+
+	ZLTextPageBreaks(String profile) {
+		Profile = profile;
+	}
+
+	synchronized int size() {
+		return mySize;
+	}
+
+	boolean isComplete() {
+		return myIsComplete;
+	}
+
+	void setComplete() {
+		myIsComplete = true;
+	}
+
+	synchronized void add(ZLTextPosition start, int textOffset) {
+		if (myIsComplete) {
+			return;
+		}
+		if (RECORD_SIZE * (mySize + 1) > myData.length) {
+			final int[] data = new int[myData.length * 2];
+			System.arraycopy(myData, 0, data, 0, RECORD_SIZE * mySize);
+			myData = data;
+		}
+		final int base = RECORD_SIZE * mySize++;
+		myData[base] = start.getParagraphIndex();
+		myData[base + 1] = start.getElementIndex();
+		myData[base + 2] = start.getCharIndex();
+		myData[base + 3] = textOffset;
+	}
+
+	// pageIndex is 0-based
+	synchronized ZLTextFixedPosition getPageStart(int pageIndex) {
+		if (pageIndex < 0 || pageIndex >= mySize) {
+			return null;
+		}
+		final int base = RECORD_SIZE * pageIndex;
+		return new ZLTextFixedPosition(myData[base], myData[base + 1], myData[base + 2]);
+	}
+
+	synchronized int getTextOffset(int pageIndex) {
+		return myData[RECORD_SIZE * pageIndex + 3];
+	}
+
+	/**
+	 * Returns the number of page starts strictly before the position
+	 */
+	synchronized int countStartsBefore(ZLTextPosition position) {
+		final int paragraph = position.getParagraphIndex();
+		final int element = position.getElementIndex();
+		final int charIndex = position.getCharIndex();
+		int low = 0;
+		int high = mySize;
+		while (low < high) {
+			final int middle = (low + high) >>> 1;
+			final int base = RECORD_SIZE * middle;
+			int diff = myData[base] - paragraph;
+			if (diff == 0) {
+				diff = myData[base + 1] - element;
+				if (diff == 0) {
+					diff = myData[base + 2] - charIndex;
+				}
+			}
+			if (diff < 0) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+
+	synchronized void write(DataOutputStream stream) throws IOException {
+		stream.writeInt(FORMAT_VERSION);
+		stream.writeInt(mySize);
+		for (int i = 0; i < RECORD_SIZE * mySize; ++i) {
+			stream.writeInt(myData[i]);
+		}
+	}
+
+	static ZLTextPageBreaks read(DataInputStream stream, String profile) throws IOException {
+		if (stream.readInt() != FORMAT_VERSION) {
+			return null;
+		}
+		final int size = stream.readInt();
+		if (size <= 0) {
+			return null;
+		}
+		final ZLTextPageBreaks breaks = new ZLTextPageBreaks(profile);
+		breaks.myData = new int[RECORD_SIZE * size];
+		for (int i = 0; i < breaks.myData.length; ++i) {
+			breaks.myData[i] = stream.readInt();
+		}
+		breaks.mySize = size;
+		breaks.myIsComplete = true;
+		return breaks;
+	}
+}
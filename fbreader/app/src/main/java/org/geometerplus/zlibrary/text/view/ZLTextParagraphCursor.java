@@ -19,6 +19,7 @@
 
 package org.geometerplus.zlibrary.text.view;
 
+import java.nio.CharBuffer;
 import java.util.*;
 
 import org.vimgadgets.linebreak.LineBreaker;
@@ -34,26 +35,20 @@ public final class ZLTextParagraphCursor {
 		private final LineBreaker myLineBreaker;
 		private final ArrayList<ZLTextElement> myElements;
 		private int myOffset;
-		private int myFirstMark;
-		private int myLastMark;
 		private final List<ZLTextMark> myMarks;
+		private final int myTextSize;
+		// copy of the text that is not backed by an array (memory-mapped storage);
+		// the words of the paragraph refer to it
+		private char[] myText;
+		private int myTextLength;
 
-		private Processor(ZLTextParagraph paragraph, ExtensionElementManager extManager, LineBreaker lineBreaker, List<ZLTextMark> marks, int paragraphIndex, ArrayList<ZLTextElement> elements) {
+		private Processor(ZLTextParagraph paragraph, ExtensionElementManager extManager, LineBreaker lineBreaker, List<ZLTextMark> marks, int textSize, ArrayList<ZLTextElement> elements) {
 			myExtManager = extManager;
 			myParagraph = paragraph;
 			myLineBreaker = lineBreaker;
 			myElements = elements;
 			myMarks = marks;
-			final ZLTextMark mark = new ZLTextMark(paragraphIndex, 0, 0);
-			int i;
-			for (i = 0; i < myMarks.size(); i++) {
-				if (((ZLTextMark)myMarks.get(i)).compareTo(mark) >= 0) {
-					break;
-				}
-			}
-			myFirstMark = i;
-			myLastMark = myFirstMark;
-			for (; myLastMark != myMarks.size() && ((ZLTextMark)myMarks.get(myLastMark)).ParagraphIndex == paragraphIndex; myLastMark++);
+			myTextSize = textSize;
 			myOffset = 0;
 		}
 
@@ -65,8 +60,18 @@ public final class ZLTextParagraphCursor {
 			for (ZLTextParagraph.EntryIterator it = myParagraph.iterator(); it.next(); ) {
 				switch (it.getType()) {
 					case ZLTextParagraph.Entry.TEXT:
-						processTextEntry(it.getTextData(), it.getTextOffset(), it.getTextLength(), hyperlink);
+					{
+						final CharBuffer buffer = it.getTextBuffer();
+						final int length = it.getTextLength();
+						if (buffer.hasArray()) {
+							processTextEntry(buffer.array(), buffer.arrayOffset() + it.getTextBufferOffset(), length, hyperlink);
+						} else {
+							// copyText() may replace myText, so it is read after the call
+							final int offset = copyText(buffer, it.getTextBufferOffset(), length);
+							processTextEntry(myText, offset, length, hyperlink);
+						}
 						break;
+					}
 					case ZLTextParagraph.Entry.CONTROL:
 						if (hyperlink != null) {
 							hyperlinkDepth += it.getControlIsStart() ? 1 : -1;
@@ -127,16 +132,38 @@ public final class ZLTextParagraphCursor {
 			}
 		}
 
-		private static byte[] ourBreaks = new byte[1024];
+		// copies the entry text to myText, returns the offset of the copy;
+		// all the text entries of a paragraph usually go to one array
+		private int copyText(CharBuffer buffer, int offset, int length) {
+			if (myText == null || myTextLength + length > myText.length) {
+				myText = new char[Math.max(length, myTextSize - myOffset)];
+				myTextLength = 0;
+			}
+			final CharBuffer source = buffer.duplicate();
+			source.position(offset);
+			source.get(myText, myTextLength, length);
+			final int start = myTextLength;
+			myTextLength += length;
+			return start;
+		}
+
+		// per-thread buffer: paragraphs may be processed on the prefetch threads
+		private static final ThreadLocal<byte[]> ourBreaks = new ThreadLocal<byte[]>() {
+			@Override
+			protected byte[] initialValue() {
+				return new byte[1024];
+			}
+		};
 		private static final int NO_SPACE = 0;
 		private static final int SPACE = 1;
 		private static final int NON_BREAKABLE_SPACE = 2;
 		private void processTextEntry(final char[] data, final int offset, final int length, ZLTextHyperlink hyperlink) {
 			if (length != 0) {
-				if (ourBreaks.length < length) {
-					ourBreaks = new byte[length];
+				byte[] breaks = ourBreaks.get();
+				if (breaks.length < length) {
+					breaks = new byte[length];
+					ourBreaks.set(breaks);
 				}
-				final byte[] breaks = ourBreaks;
 				myLineBreaker.setLineBreaks(data, offset, length, breaks);
 
 				final ZLTextElement hSpace = ZLTextElement.HSpace;
@@ -203,8 +230,7 @@ public final class ZLTextParagraphCursor {
 
 		private final void addWord(char[] data, int offset, int len, int paragraphOffset, ZLTextHyperlink hyperlink) {
 			ZLTextWord word = new ZLTextWord(data, offset, len, paragraphOffset);
-			for (int i = myFirstMark; i < myLastMark; ++i) {
-				final ZLTextMark mark = (ZLTextMark)myMarks.get(i);
+			for (ZLTextMark mark : myMarks) {
 				if ((mark.Offset < paragraphOffset + len) && (mark.Offset + mark.Length > paragraphOffset)) {
 					word.addMark(mark.Offset - paragraphOffset, mark.Length);
 				}
@@ -216,10 +242,27 @@ public final class ZLTextParagraphCursor {
 		}
 	}
 
+	private static final HashMap<String,LineBreaker> ourLineBreakers = new HashMap<String,LineBreaker>();
+
+	private static LineBreaker lineBreaker(String language) {
+		synchronized (ourLineBreakers) {
+			LineBreaker breaker = ourLineBreakers.get(language);
+			if (breaker == null) {
+				breaker = new LineBreaker(language);
+				ourLineBreakers.put(language, breaker);
+			}
+			return breaker;
+		}
+	}
+
 	public final int Index;
 	final CursorManager CursorManager;
 	public final ZLTextModel Model;
 	private final ArrayList<ZLTextElement> myElements = new ArrayList<ZLTextElement>();
+	// rough memory footprint in bytes, fixed at creation for the cursor cache accounting
+	final int EstimatedSize;
+	// paragraph marks generation the elements were built against
+	final int MarksGeneration;
 
 	public ZLTextParagraphCursor(ZLTextModel model, int index) {
 		this(new CursorManager(model, null), model, index);
@@ -229,7 +272,10 @@ public final class ZLTextParagraphCursor {
 		CursorManager = cManager;
 		Model = model;
 		Index = Math.min(index, model.getParagraphsNumber() - 1);
+		// read before the marks, so a concurrent change makes the cursor outdated
+		MarksGeneration = model.getMarksGeneration(Index);
 		fill();
+		EstimatedSize = 128 + 64 * myElements.size();
 	}
 
 	private static final char[] SPACE_ARRAY = { ' ' };
@@ -237,7 +283,7 @@ public final class ZLTextParagraphCursor {
 		ZLTextParagraph	paragraph = Model.getParagraph(Index);
 		switch (paragraph.getKind()) {
 			case ZLTextParagraph.Kind.TEXT_PARAGRAPH:
-				new Processor(paragraph, CursorManager.ExtensionManager, new LineBreaker(Model.getLanguage()), Model.getMarks(), Index, myElements).fill();
+				new Processor(paragraph, CursorManager.ExtensionManager, lineBreaker(Model.getLanguage()), Model.getParagraphMarks(Index), textSize(), myElements).fill();
 				break;
 			case ZLTextParagraph.Kind.EMPTY_LINE_PARAGRAPH:
 				myElements.add(new ZLTextWord(SPACE_ARRAY, 0, 1, 0));
@@ -255,6 +301,11 @@ public final class ZLTextParagraphCursor {
 		}
 	}
 
+	// number of chars in the text entries of the paragraph
+	private int textSize() {
+		return Model.getTextLength(Index) - (Index > 0 ? Model.getTextLength(Index - 1) : 0);
+	}
+
 	void clear() {
 		myElements.clear();
 	}
@@ -286,11 +337,11 @@ public final class ZLTextParagraphCursor {
 	}
 
 	public ZLTextParagraphCursor previous() {
-		return isFirst() ? null : CursorManager.get(Index - 1);
+		return isFirst() ? null : CursorManager.cursor(Index - 1);
 	}
 
 	public ZLTextParagraphCursor next() {
-		return isLast() ? null : CursorManager.get(Index + 1);
+		return isLast() ? null : CursorManager.cursor(Index + 1);
 	}
 
 	ZLTextElement getElement(int index) {
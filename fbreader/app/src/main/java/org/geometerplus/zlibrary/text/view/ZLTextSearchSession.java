@@ -0,0 +1,146 @@
+/*
+ * Copyright (C) 2007-2015 FBReader.ORG Limited <contact@fbreader.org>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA.
+ */
+
+package org.geometerplus.zlibrary.text.view;
+
+import org.geometerplus.zlibrary.text.model.ZLTextMarkList;
+import org.geometerplus.zlibrary.text.model.ZLTextModel;
+
+/**
+ * Search running on a worker thread. Paragraphs are searched in chunks
+ * growing from the start paragraph in both directions, so the matches near
+ * the current position come first; found marks are added to the model
+ * chunk by chunk and shown without waiting for the whole book.
+ */
+public final class ZLTextSearchSession {
+	public interface Listener {
+		// called on the worker thread after the marks are added to the model
+		void onMarksFound(ZLTextSearchSession session, int totalCount);
+		void onFinished(ZLTextSearchSession session, int totalCount);
+	}
+
+	private static final int MIN_CHUNK_SIZE = 16;
+	private static final int MAX_CHUNK_SIZE = 1024;
+
+	private final ZLTextView myView;
+	final ZLTextModel Model;
+	private final String myText;
+	private final boolean myIgnoreCase;
+	private final int myStartIndex;
+	private final int myMaxMarksNumber;
+	private final Listener myListener;
+
+	private volatile boolean myIsCancelled;
+	private volatile boolean myIsFinished;
+	private volatile boolean myIsTruncated;
+	private volatile int myMarksNumber;
+
+	ZLTextSearchSession(ZLTextView view, ZLTextModel model, String text, boolean ignoreCase, int startIndex, int maxMarksNumber, Listener listener) {
+		myView = view;
+		Model = model;
+		myText = text;
+		myIgnoreCase = ignoreCase;
+		myStartIndex = startIndex;
+		myMaxMarksNumber = maxMarksNumber;
+		myListener = listener;
+	}
+
+	void start() {
+		final Thread thread = new Thread("Search") {
+			public void run() {
+				try {
+					runSearch();
+				} finally {
+					myIsFinished = true;
+					if (myListener != null) {
+						myListener.onFinished(ZLTextSearchSession.this, myMarksNumber);
+					}
+				}
+			}
+		};
+		thread.setPriority(Thread.NORM_PRIORITY - 1);
+		thread.start();
+	}
+
+	private void runSearch() {
+		final int paragraphsNumber = Model.getParagraphsNumber();
+		final ZLTextMarkList batch = new ZLTextMarkList();
+		// [backward, forward) is already searched
+		int forward = myStartIndex;
+		int backward = myStartIndex;
+		int chunkSize = MIN_CHUNK_SIZE;
+		while (!myIsCancelled && (forward < paragraphsNumber || backward > 0)) {
+			batch.clear();
+			// the backward chunk precedes the forward one, so the marks
+			// are appended to the batch in order and it stays sorted
+			if (backward > 0) {
+				final int start = Math.max(backward - chunkSize, 0);
+				Model.search(myText, start, backward, myIgnoreCase, batch);
+				backward = start;
+			}
+			if (forward < paragraphsNumber && !myIsCancelled) {
+				final int end = Math.min(forward + chunkSize, paragraphsNumber);
+				Model.search(myText, forward, end, myIgnoreCase, batch);
+				forward = end;
+			}
+			chunkSize = Math.min(2 * chunkSize, MAX_CHUNK_SIZE);
+
+			if (batch.isEmpty()) {
+				continue;
+			}
+			if (myMarksNumber + batch.size() > myMaxMarksNumber) {
+				batch.shrink(myMaxMarksNumber - myMarksNumber);
+				myIsTruncated = true;
+			}
+			if (!myView.addSearchMarks(this, batch)) {
+				return;
+			}
+			myMarksNumber += batch.size();
+			if (myListener != null) {
+				myListener.onMarksFound(this, myMarksNumber);
+			}
+			if (myIsTruncated) {
+				return;
+			}
+		}
+	}
+
+	public void cancel() {
+		myIsCancelled = true;
+	}
+
+	public boolean isCancelled() {
+		return myIsCancelled;
+	}
+
+	public boolean isFinished() {
+		return myIsFinished;
+	}
+
+	/**
+	 * Returns true if the search stopped because of the marks number limit
+	 */
+	public boolean isTruncated() {
+		return myIsTruncated;
+	}
+
+	public int getMarksNumber() {
+		return myMarksNumber;
+	}
+}
@@ -19,7 +19,10 @@
 
 package org.geometerplus.zlibrary.text.view;
 
+import java.io.*;
+import java.nio.CharBuffer;
 import java.util.*;
+import java.util.concurrent.*;
 
 import org.geometerplus.zlibrary.core.application.ZLApplication;
 import org.geometerplus.zlibrary.core.filesystem.ZLFile;
@@ -31,6 +34,7 @@ import org.geometerplus.zlibrary.core.view.*;
 
 import org.geometerplus.zlibrary.text.model.*;
 import org.geometerplus.zlibrary.text.hyphenation.*;
+import org.geometerplus.zlibrary.text.view.style.ZLTextBaseStyle;
 import org.geometerplus.zlibrary.text.view.style.ZLTextStyleCollection;
 
 public abstract class ZLTextView extends ZLTextViewBase {
@@ -55,7 +59,7 @@ public abstract class ZLTextView extends ZLTextViewBase {
 	private ZLTextPage myCurrentPage = new ZLTextPage();
 	private ZLTextPage myNextPage = new ZLTextPage();
 
-	private final HashMap<ZLTextLineInfo,ZLTextLineInfo> myLineInfoCache = new HashMap<ZLTextLineInfo,ZLTextLineInfo>();
+	private ZLTextLineInfoCache myLineInfoCache = new ZLTextLineInfoCache();
 
 	private ZLTextRegion.Soul myOutlinedRegionSoul;
 	private boolean myShowOutline = true;
@@ -65,16 +69,40 @@ public abstract class ZLTextView extends ZLTextViewBase {
 		Collections.synchronizedSet(new TreeSet<ZLTextHighlighting>());
 
 	private CursorManager myCursorManager;
+	// paragraphs built in parallel before laying out prepared pages or page breaks
+	private static final int PREFETCH_PARAGRAPHS_NUMBER = 32;
+
+	// laid-out pages following myNextPage and preceding myPreviousPage, nearest first
+	private final LinkedList<ZLTextPage> myForwardPages = new LinkedList<ZLTextPage>();
+	private final LinkedList<ZLTextPage> myBackwardPages = new LinkedList<ZLTextPage>();
+	private int myForwardPagesLimit;
+	private int myBackwardPagesLimit;
+	private volatile int myPreparedPagesGeneration;
+	private int myPageTurnsNumber;
+	private int myPreparedPageHitsNumber;
+
+	private volatile ZLTextPageBreaks myPageBreaks;
+	private volatile int myPaginationGeneration;
+	private volatile String myPageBreaksDirectory;
+	private String myLayoutProfile;
+	private int myLayoutProfileWidth;
+	private int myLayoutProfileHeight;
 
 	public ZLTextView(ZLApplication application) {
 		super(application);
 	}
 
 	public synchronized void setModel(ZLTextModel model) {
+		cancelSearch();
 		myCursorManager = model != null ? new CursorManager(model, getExtensionManager()) : null;
+		myLayoutProfile = null;
 
 		mySelection.clear();
 		myHighlightings.clear();
+		myLineInfoCache.clear();
+		clearStyleCache();
+		resetPagination();
+		resetPreparedPages();
 
 		myModel = model;
 		myCurrentPage.reset();
@@ -83,12 +111,18 @@ public abstract class ZLTextView extends ZLTextViewBase {
 		if (myModel != null) {
 			final int paragraphsNumber = myModel.getParagraphsNumber();
 			if (paragraphsNumber > 0) {
-				myCurrentPage.moveStartCursor(myCursorManager.get(0));
+				myCurrentPage.moveStartCursor(myCursorManager.cursor(0));
 			}
 		}
 		Application.getViewWidget().reset();
 	}
 
+	// for ZLTextLayoutView: no listeners, no widget updates
+	final void setLayoutModel(ZLTextModel model) {
+		myCursorManager = new CursorManager(model, getExtensionManager());
+		myModel = model;
+	}
+
 	public final ZLTextModel getModel() {
 		return myModel;
 	}
@@ -178,6 +212,7 @@ public abstract class ZLTextView extends ZLTextViewBase {
 	}
 
 	public synchronized int search(final String text, boolean ignoreCase, boolean wholeText, boolean backward, boolean thisSectionOnly) {
+		cancelSearch();
 		if (myModel == null || text.length() == 0) {
 			return 0;
 		}
@@ -203,6 +238,83 @@ public abstract class ZLTextView extends ZLTextViewBase {
 		return count;
 	}
 
+	private static final int MAX_SEARCH_MARKS_NUMBER = 10000;
+	private ZLTextSearchSession mySearchSession;
+
+	/**
+	 * Starts searching in background from the current position; marks appear
+	 * on the pages as they are found. The previous session is cancelled.
+	 */
+	public synchronized ZLTextSearchSession startSearch(String text, boolean ignoreCase, ZLTextSearchSession.Listener listener) {
+		cancelSearch();
+		if (myModel == null || text.length() == 0) {
+			return null;
+		}
+		clearFindResults();
+		final ZLTextWordCursor start = myCurrentPage.StartCursor;
+		final int startIndex = start.isNull() ? 0 : start.getParagraphIndex();
+		final ZLTextSearchSession session = new ZLTextSearchSession(
+			this, myModel, text, ignoreCase, startIndex, MAX_SEARCH_MARKS_NUMBER, listener
+		);
+		mySearchSession = session;
+		session.start();
+		return session;
+	}
+
+	public synchronized void cancelSearch() {
+		if (mySearchSession != null) {
+			mySearchSession.cancel();
+			mySearchSession = null;
+		}
+	}
+
+	synchronized boolean addSearchMarks(ZLTextSearchSession session, ZLTextMarkList marks) {
+		if (session != mySearchSession || session.isCancelled() || session.Model != myModel) {
+			return false;
+		}
+		myModel.addMarks(marks);
+
+		final ZLTextWordCursor start = myCurrentPage.StartCursor;
+		final ZLTextWordCursor end = myCurrentPage.EndCursor;
+		boolean onCurrentPage = false;
+		for (int i = 0; i < marks.size(); ++i) {
+			final int paragraphIndex = marks.getParagraphIndex(i);
+			myCursorManager.remove(paragraphIndex);
+			if (!start.isNull() && !end.isNull() &&
+				paragraphIndex >= start.getParagraphIndex() &&
+				paragraphIndex <= end.getParagraphIndex()) {
+				onCurrentPage = true;
+			}
+		}
+		if (onCurrentPage) {
+			rebuildPaintInfo();
+			Application.getViewWidget().reset();
+			Application.getViewWidget().repaint();
+		} else {
+			myPreviousPage.reset();
+			myNextPage.reset();
+			resetPreparedPages();
+			Application.getViewWidget().reset();
+		}
+		return true;
+	}
+
+	/**
+	 * Goes to the first mark after the current page start, or to the last mark before it
+	 */
+	public synchronized void gotoNearestMark() {
+		if (myModel == null) {
+			return;
+		}
+		final ZLTextWordCursor start = myCurrentPage.StartCursor;
+		if (start.isNull()) {
+			gotoMark(myModel.getFirstMark());
+			return;
+		}
+		final ZLTextMark mark = myModel.getNextMark(start.getMark());
+		gotoMark(mark != null ? mark : myModel.getPreviousMark(start.getMark()));
+	}
+
 	public boolean canFindNext() {
 		final ZLTextWordCursor end = myCurrentPage.EndCursor;
 		return !end.isNull() && (myModel != null) && (myModel.getNextMark(end.getMark()) != null);
@@ -228,6 +340,7 @@ public abstract class ZLTextView extends ZLTextViewBase {
 	}
 
 	public void clearFindResults() {
+		cancelSearch();
 		if (!findResultsAreEmpty()) {
 			myModel.removeAllMarks();
 			rebuildPaintInfo();
@@ -247,11 +360,17 @@ public abstract class ZLTextView extends ZLTextViewBase {
 				break;
 			case previous:
 			{
+				countPageTurn(myPreviousPage);
 				final ZLTextPage swap = myNextPage;
 				myNextPage = myCurrentPage;
 				myCurrentPage = myPreviousPage;
-				myPreviousPage = swap;
-				myPreviousPage.reset();
+				myPreviousPage = keepPreparedPage(myForwardPages, myForwardPagesLimit, swap);
+				if (myCurrentPage.PaintState == PaintStateEnum.READY) {
+					final ZLTextPage prepared = takePreparedPage(myBackwardPages, myCurrentPage.StartCursor, false);
+					if (prepared != null) {
+						myPreviousPage = prepared;
+					}
+				}
 				if (myCurrentPage.PaintState == PaintStateEnum.NOTHING_TO_PAINT) {
 					preparePaintInfo(myNextPage);
 					myCurrentPage.EndCursor.setCursor(myNextPage.StartCursor);
@@ -268,11 +387,11 @@ public abstract class ZLTextView extends ZLTextViewBase {
 			}
 			case next:
 			{
+				countPageTurn(myNextPage);
 				final ZLTextPage swap = myPreviousPage;
 				myPreviousPage = myCurrentPage;
 				myCurrentPage = myNextPage;
-				myNextPage = swap;
-				myNextPage.reset();
+				myNextPage = keepPreparedPage(myBackwardPages, myBackwardPagesLimit, swap);
 				switch (myCurrentPage.PaintState) {
 					case PaintStateEnum.NOTHING_TO_PAINT:
 						preparePaintInfo(myPreviousPage);
@@ -280,9 +399,16 @@ public abstract class ZLTextView extends ZLTextViewBase {
 						myCurrentPage.PaintState = PaintStateEnum.START_IS_KNOWN;
 						break;
 					case PaintStateEnum.READY:
-						myNextPage.StartCursor.setCursor(myCurrentPage.EndCursor);
-						myNextPage.PaintState = PaintStateEnum.START_IS_KNOWN;
+					{
+						final ZLTextPage prepared = takePreparedPage(myForwardPages, myCurrentPage.EndCursor, true);
+						if (prepared != null) {
+							myNextPage = prepared;
+						} else {
+							myNextPage.StartCursor.setCursor(myCurrentPage.EndCursor);
+							myNextPage.PaintState = PaintStateEnum.START_IS_KNOWN;
+						}
 						break;
+					}
 				}
 				break;
 			}
@@ -416,6 +542,142 @@ public abstract class ZLTextView extends ZLTextViewBase {
 		preparePaintInfo(getPage(pageIndex));
 	}
 
+	@Override
+	public void preparePages(ZLPaintContext context, int forwardNumber, int backwardNumber) {
+		final int generation;
+		final CursorManager manager;
+		final int startParagraph;
+		final int endParagraph;
+		synchronized (this) {
+			setContext(context);
+			myForwardPagesLimit = forwardNumber;
+			myBackwardPagesLimit = backwardNumber;
+			while (myForwardPages.size() > forwardNumber) {
+				myForwardPages.removeLast();
+			}
+			while (myBackwardPages.size() > backwardNumber) {
+				myBackwardPages.removeLast();
+			}
+			generation = myPreparedPagesGeneration;
+			manager = myCursorManager;
+			startParagraph = myCurrentPage.StartCursor.isNull() ? -1 : myCurrentPage.StartCursor.getParagraphIndex();
+			endParagraph = myCurrentPage.EndCursor.isNull() ? -1 : myCurrentPage.EndCursor.getParagraphIndex();
+		}
+
+		// paragraphs are processed in parallel outside the view lock
+		if (manager != null) {
+			if (forwardNumber > 0 && endParagraph >= 0) {
+				manager.prefetch(endParagraph, endParagraph + PREFETCH_PARAGRAPHS_NUMBER);
+			}
+			if (backwardNumber > 0 && startParagraph >= 0) {
+				manager.prefetch(startParagraph - PREFETCH_PARAGRAPHS_NUMBER / 2, startParagraph);
+			}
+		}
+
+		// one page per lock acquisition, so the UI thread is never blocked for long
+		boolean forward = true;
+		boolean backward = true;
+		while (forward || backward) {
+			synchronized (this) {
+				if (generation != myPreparedPagesGeneration || myModel == null) {
+					return;
+				}
+				if (forward) {
+					forward = prepareForwardPage();
+				} else {
+					backward = prepareBackwardPage();
+				}
+			}
+		}
+	}
+
+	// Called under the view lock
+	private boolean prepareForwardPage() {
+		if (myForwardPages.size() >= myForwardPagesLimit) {
+			return false;
+		}
+		final ZLTextPage base = myForwardPages.isEmpty() ? myNextPage : myForwardPages.getLast();
+		if (base.PaintState != PaintStateEnum.READY ||
+			base.EndCursor.isNull() || base.EndCursor.isEndOfText()) {
+			return false;
+		}
+		final ZLTextPage page = new ZLTextPage();
+		page.StartCursor.setCursor(base.EndCursor);
+		page.PaintState = PaintStateEnum.START_IS_KNOWN;
+		preparePaintInfo(page);
+		myForwardPages.add(page);
+		return true;
+	}
+
+	// Called under the view lock
+	private boolean prepareBackwardPage() {
+		if (myBackwardPages.size() >= myBackwardPagesLimit) {
+			return false;
+		}
+		final ZLTextPage base = myBackwardPages.isEmpty() ? myPreviousPage : myBackwardPages.getLast();
+		if (base.PaintState != PaintStateEnum.READY ||
+			base.StartCursor.isNull() || base.StartCursor.isStartOfText()) {
+			return false;
+		}
+		final ZLTextPage page = new ZLTextPage();
+		page.EndCursor.setCursor(base.StartCursor);
+		page.PaintState = PaintStateEnum.END_IS_KNOWN;
+		preparePaintInfo(page);
+		myBackwardPages.add(page);
+		return true;
+	}
+
+	// Returns the nearest prepared page if it is adjacent to the cursor; drops the list otherwise
+	private ZLTextPage takePreparedPage(LinkedList<ZLTextPage> pages, ZLTextWordCursor cursor, boolean forward) {
+		final ZLTextPage page = pages.poll();
+		if (page == null) {
+			return null;
+		}
+		if (page.PaintState == PaintStateEnum.READY && !cursor.isNull() &&
+			cursor.samePositionAs(forward ? page.StartCursor : page.EndCursor)) {
+			return page;
+		}
+		pages.clear();
+		return null;
+	}
+
+	// Stores a page moved out of the previous/current/next window; returns a page object to reuse
+	private ZLTextPage keepPreparedPage(LinkedList<ZLTextPage> pages, int limit, ZLTextPage page) {
+		if (limit > 0 && page.PaintState == PaintStateEnum.READY) {
+			pages.addFirst(page);
+			while (pages.size() > limit) {
+				pages.removeLast();
+			}
+			return new ZLTextPage();
+		}
+		page.reset();
+		return page;
+	}
+
+	private synchronized void resetPreparedPages() {
+		++myPreparedPagesGeneration;
+		myForwardPages.clear();
+		myBackwardPages.clear();
+	}
+
+	private void countPageTurn(ZLTextPage target) {
+		++myPageTurnsNumber;
+		if (target.PaintState == PaintStateEnum.READY) {
+			++myPreparedPageHitsNumber;
+		}
+	}
+
+	public final synchronized int getPageTurnsNumber() {
+		return myPageTurnsNumber;
+	}
+
+	/**
+	 * Returns the number of page turns to a page that was laid out in advance
+	 */
+	public final synchronized int getPreparedPageHitsNumber() {
+		return myPreparedPageHitsNumber;
+	}
+
 	@Override
 	public synchronized void paint(ZLPaintContext context, PageIndex pageIndex) {
 		setContext(context);
@@ -645,7 +907,10 @@ public abstract class ZLTextView extends ZLTextViewBase {
 			return 1;
 		}
 
-		final float factor = 1.0f / computeCharsPerPage();
+		return computeTextPageNumber(textSize, 1.0f / computeCharsPerPage());
+	}
+
+	private static int computeTextPageNumber(int textSize, float factor) {
 		final float pages = textSize * factor;
 		return Math.max((int)(pages + 1.0f - 0.5f * factor), 1);
 	}
@@ -675,8 +940,11 @@ public abstract class ZLTextView extends ZLTextViewBase {
 					if (it.getType() == ZLTextParagraph.Entry.TEXT) {
 						final int len = Math.min(it.getTextLength(),
 								myLettersBuffer.length - myLettersBufferLength);
-						System.arraycopy(it.getTextData(), it.getTextOffset(),
-								myLettersBuffer, myLettersBufferLength, len);
+						final CharBuffer buffer = it.getTextBuffer();
+						final int offset = it.getTextBufferOffset();
+						for (int i = 0; i < len; ++i) {
+							myLettersBuffer[myLettersBufferLength + i] = buffer.get(offset + i);
+						}
 						myLettersBufferLength += len;
 					}
 				}
@@ -709,6 +977,14 @@ public abstract class ZLTextView extends ZLTextViewBase {
 	}
 
 	public final synchronized PagePosition pagePosition() {
+		final ZLTextPageBreaks breaks = pageBreaks();
+		if (breaks != null) {
+			final PagePosition position = pagePosition(breaks);
+			if (position != null) {
+				return position;
+			}
+		}
+
 		int current = computeTextPageNumber(getCurrentCharNumber(PageIndex.current, false));
 		int total = computeTextPageNumber(sizeOfFullText());
 
@@ -754,6 +1030,39 @@ public abstract class ZLTextView extends ZLTextViewBase {
 		return new PagePosition(current, total);
 	}
 
+	private PagePosition pagePosition(ZLTextPageBreaks breaks) {
+		preparePaintInfo(myCurrentPage);
+		final ZLTextWordCursor end = myCurrentPage.EndCursor;
+		if (end.isNull()) {
+			return null;
+		}
+
+		final int known = breaks.size();
+		if (breaks.isComplete()) {
+			return new PagePosition(Math.max(1, Math.min(breaks.countStartsBefore(end), known)), known);
+		}
+
+		// pages 1..known-1 are laid out, the rest is estimated using their average size
+		final int measuredPages = known - 1;
+		if (measuredPages < MIN_MEASURED_PAGES_NUMBER) {
+			return null;
+		}
+		final int measuredSize = breaks.getTextOffset(measuredPages);
+		if (measuredSize <= 0) {
+			return null;
+		}
+		final float factor = ((float)measuredPages) / measuredSize;
+		int current = breaks.countStartsBefore(end);
+		if (current >= known) {
+			current = measuredPages + computeTextPageNumber(
+				getCurrentCharNumber(PageIndex.current, false) - measuredSize, factor
+			);
+		}
+		current = Math.max(1, current);
+		final int total = measuredPages + computeTextPageNumber(sizeOfFullText() - measuredSize, factor);
+		return new PagePosition(current, Math.max(current, total));
+	}
+
 	public final RationalNumber getProgress() {
 		final PagePosition position = pagePosition();
 		return RationalNumber.create(position.Current, position.Total);
@@ -764,6 +1073,15 @@ public abstract class ZLTextView extends ZLTextViewBase {
 			return;
 		}
 
+		final ZLTextPageBreaks breaks = pageBreaks();
+		if (breaks != null) {
+			final ZLTextFixedPosition start = breaks.getPageStart(page - 1);
+			if (start != null) {
+				gotoPosition(start);
+				return;
+			}
+		}
+
 		final float factor = computeCharsPerPage();
 		final float textSize = page * factor;
 
@@ -935,8 +1253,16 @@ public abstract class ZLTextView extends ZLTextViewBase {
 			resetTextStyle();
 			final ZLTextParagraphCursor paragraphCursor = result.getParagraphCursor();
 			final int wordIndex = result.getElementIndex();
-			applyStyleChanges(paragraphCursor, 0, wordIndex);
-			info = new ZLTextLineInfo(paragraphCursor, wordIndex, result.getCharIndex(), getTextStyle());
+			info = new ZLTextLineInfo(paragraphCursor, wordIndex, result.getCharIndex(), null);
+			// a cached line keeps the style at its start, no need to replay the paragraph beginning
+			final ZLTextLineInfo cachedInfo =
+				wordIndex > 0 ? myLineInfoCache.get(info, page.getTextWidth()) : null;
+			if (cachedInfo != null) {
+				setTextStyle(cachedInfo.StartStyle);
+			} else {
+				applyStyleChanges(paragraphCursor, 0, wordIndex);
+			}
+			info.StartStyle = getTextStyle();
 			final int endIndex = info.ParagraphCursorLength;
 			while (info.EndElementIndex != endIndex) {
 				info = processTextLine(page, paragraphCursor, info.EndElementIndex, info.EndCharIndex, endIndex, previousInfo);
@@ -1020,8 +1346,10 @@ public abstract class ZLTextView extends ZLTextViewBase {
 	) {
 		final ZLPaintContext context = getContext();
 		final ZLTextLineInfo info = new ZLTextLineInfo(paragraphCursor, startIndex, startCharIndex, getTextStyle());
-		final ZLTextLineInfo cachedInfo = myLineInfoCache.get(info);
-		if (cachedInfo != null) {
+		final ZLTextLineInfo cachedInfo = myLineInfoCache.get(info, page.getTextWidth());
+		// a line cached with the previous line's space taken into account
+		// cannot be used as the first line of a page
+		if (cachedInfo != null && (previousInfo != null || !cachedInfo.PreviousInfoUsed)) {
 			cachedInfo.adjust(previousInfo);
 			applyStyleChanges(paragraphCursor, startIndex, cachedInfo.EndElementIndex);
 			return cachedInfo;
@@ -1237,7 +1565,7 @@ public abstract class ZLTextView extends ZLTextViewBase {
 		}
 
 		if (info.EndElementIndex != endIndex || endIndex == info.ParagraphCursorLength) {
-			myLineInfoCache.put(info, info);
+			myLineInfoCache.put(info, page.getTextWidth());
 		}
 
 		return info;
@@ -1352,6 +1680,7 @@ public abstract class ZLTextView extends ZLTextViewBase {
 	}
 
 	public synchronized final void turnPage(boolean forward, int scrollingMode, int value) {
+		resetPreparedPages();
 		preparePaintInfo(myCurrentPage);
 		myPreviousPage.reset();
 		myNextPage.reset();
@@ -1371,6 +1700,7 @@ public abstract class ZLTextView extends ZLTextViewBase {
 	public final synchronized void gotoPosition(int paragraphIndex, int wordIndex, int charIndex) {
 		if (myModel != null && myModel.getParagraphsNumber() > 0) {
 			Application.getViewWidget().reset();
+			resetPreparedPages();
 			myCurrentPage.moveStartCursor(paragraphIndex, wordIndex, charIndex);
 			myPreviousPage.reset();
 			myNextPage.reset();
@@ -1383,6 +1713,7 @@ public abstract class ZLTextView extends ZLTextViewBase {
 
 	private final synchronized void gotoPositionByEnd(int paragraphIndex, int wordIndex, int charIndex) {
 		if (myModel != null && myModel.getParagraphsNumber() > 0) {
+			resetPreparedPages();
 			myCurrentPage.moveEndCursor(paragraphIndex, wordIndex, charIndex);
 			myPreviousPage.reset();
 			myNextPage.reset();
@@ -1407,11 +1738,6 @@ public abstract class ZLTextView extends ZLTextViewBase {
 		}
 		final int oldState = page.PaintState;
 
-		final HashMap<ZLTextLineInfo,ZLTextLineInfo> cache = myLineInfoCache;
-		for (ZLTextLineInfo info : page.LineInfos) {
-			cache.put(info, info);
-		}
-
 		switch (page.PaintState) {
 			default:
 				break;
@@ -1505,8 +1831,6 @@ public abstract class ZLTextView extends ZLTextViewBase {
 				break;
 		}
 		page.PaintState = PaintStateEnum.READY;
-		// TODO: cache?
-		myLineInfoCache.clear();
 
 		if (page == myCurrentPage) {
 			if (oldState != PaintStateEnum.START_IS_KNOWN) {
@@ -1523,11 +1847,239 @@ public abstract class ZLTextView extends ZLTextViewBase {
 		rebuildPaintInfo();
 		Application.getViewWidget().reset();
 		myCharWidth = -1;
+		synchronized (this) {
+			myLayoutProfile = null;
+		}
+		resetPagination();
+	}
+
+	private static final int MIN_MEASURED_PAGES_NUMBER = 3;
+	private static final int MAX_PAGE_BREAKS_FILES = 100;
+
+	// a new pagination waits for the outdated one, that stops at the next page
+	private static final ExecutorService ourPaginationService =
+		Executors.newSingleThreadExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				final Thread thread = new Thread(r, "Pagination");
+				thread.setPriority(Thread.MIN_PRIORITY);
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+
+	public void setPageBreaksDirectory(String directory) {
+		myPageBreaksDirectory = directory;
+	}
+
+	/**
+	 * Returns a string identifying the model contents (e.g., book hash)
+	 * or null if page breaks for the model must not be stored between sessions.
+	 * Called from the pagination thread.
+	 */
+	protected String getPageBreaksKey(ZLTextModel model) {
+		return null;
+	}
+
+	private synchronized void resetPagination() {
+		++myPaginationGeneration;
+		myPageBreaks = null;
+	}
+
+	// is rebuilt after clearCaches() or when the text area size is changed
+	private String layoutProfile() {
+		final int width = getTextColumnWidth();
+		final int height = getTextAreaHeight();
+		if (myLayoutProfile != null &&
+			myLayoutProfileWidth == width && myLayoutProfileHeight == height) {
+			return myLayoutProfile;
+		}
+		final ZLTextBaseStyle baseStyle = getTextStyleCollection().getBaseStyle();
+		final StringBuilder builder = new StringBuilder()
+			.append(width).append('x').append(height)
+			.append(twoColumnView() ? ":2" : ":1")
+			.append(':').append(ZLibrary.Instance().getDisplayDPI())
+			.append(':').append(getImageFitting())
+			.append(':').append(baseStyle.FontFamilyOption.getValue())
+			.append(':').append(baseStyle.FontSizeOption.getValue())
+			.append(':').append(baseStyle.LineSpaceOption.getValue())
+			.append(':').append(baseStyle.AlignmentOption.getValue())
+			.append(':').append(baseStyle.BoldOption.getValue())
+			.append(':').append(baseStyle.ItalicOption.getValue())
+			.append(':').append(baseStyle.AutoHyphenationOption.getValue())
+			.append(':').append(baseStyle.UseCSSFontFamilyOption.getValue())
+			.append(':').append(baseStyle.UseCSSFontSizeOption.getValue())
+			.append(':').append(baseStyle.UseCSSMarginsOption.getValue())
+			.append(':').append(baseStyle.UseCSSTextAlignmentOption.getValue())
+			.append(':').append(myModel.getParagraphsNumber())
+			.append(':').append(sizeOfFullText());
+		myLayoutProfile = builder.toString();
+		myLayoutProfileWidth = width;
+		myLayoutProfileHeight = height;
+		return myLayoutProfile;
+	}
+
+	// Returns page breaks (maybe incomplete) for the current layout; starts pagination if needed
+	private synchronized ZLTextPageBreaks pageBreaks() {
+		if (myModel == null || myModel.getParagraphsNumber() == 0 ||
+			getTextColumnWidth() <= 0 || getTextAreaHeight() <= 0) {
+			return null;
+		}
+		final String profile = layoutProfile();
+		final ZLTextPageBreaks breaks = myPageBreaks;
+		if (breaks != null && breaks.Profile.equals(profile)) {
+			return breaks;
+		}
+
+		resetPagination();
+		final ZLTextPageBreaks newBreaks = new ZLTextPageBreaks(profile);
+		myPageBreaks = newBreaks;
+		final ZLTextModel model = myModel;
+		final int generation = myPaginationGeneration;
+		final ZLPaintContext context = getContext().createMeasuringContext();
+		ourPaginationService.execute(new Runnable() {
+			public void run() {
+				paginate(model, newBreaks, generation, context);
+			}
+		});
+		return newBreaks;
+	}
+
+	/**
+	 * Lays out the pages on the pagination thread using a separate layout view,
+	 * so painting is never blocked; the view is locked only to publish
+	 * the stored breaks. Stops when the pagination generation is changed.
+	 */
+	private void paginate(ZLTextModel model, ZLTextPageBreaks breaks, int generation, ZLPaintContext context) {
+		if (generation != myPaginationGeneration) {
+			return;
+		}
+		final File file = pageBreaksFile(model, breaks.Profile);
+		final ZLTextPageBreaks stored = readPageBreaks(file, breaks.Profile);
+		if (stored != null) {
+			synchronized (this) {
+				if (generation == myPaginationGeneration) {
+					myPageBreaks = stored;
+				}
+			}
+			Application.getViewWidget().repaint();
+			return;
+		}
+
+		final ZLTextView layout = new ZLTextLayoutView(this, context, model);
+		final CursorManager manager = layout.myCursorManager;
+		final ZLTextPage page = new ZLTextPage();
+		page.setSize(layout.getTextColumnWidth(), layout.getTextAreaHeight(), layout.twoColumnView(), false);
+		final ZLTextWordCursor start = new ZLTextWordCursor(manager.cursor(0));
+		final ZLTextWordCursor end = new ZLTextWordCursor();
+		breaks.add(start, 0);
+		int prefetchedParagraph = 0;
+		while (true) {
+			if (generation != myPaginationGeneration) {
+				return;
+			}
+			final int paragraph = start.getParagraphIndex();
+			if (paragraph >= prefetchedParagraph) {
+				prefetchedParagraph = paragraph + PREFETCH_PARAGRAPHS_NUMBER;
+				manager.prefetch(paragraph, prefetchedParagraph);
+			}
+			layout.buildInfos(page, start, end);
+			if (end.isEndOfText() || end.samePositionAs(start)) {
+				breaks.setComplete();
+				break;
+			}
+			start.setCursor(end);
+			breaks.add(start, layout.sizeOfTextBeforeCursor(start));
+		}
+
+		Application.getViewWidget().repaint();
+		writePageBreaks(file, breaks);
+	}
+
+	private File pageBreaksFile(ZLTextModel model, String profile) {
+		final String directory = myPageBreaksDirectory;
+		if (directory == null) {
+			return null;
+		}
+		final String key = getPageBreaksKey(model);
+		if (key == null) {
+			return null;
+		}
+		return new File(directory, key + "_" + Integer.toHexString(profile.hashCode()) + ".pages");
+	}
+
+	private static ZLTextPageBreaks readPageBreaks(File file, String profile) {
+		if (file == null || !file.exists()) {
+			return null;
+		}
+		DataInputStream stream = null;
+		try {
+			stream = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+			if (!profile.equals(stream.readUTF())) {
+				return null;
+			}
+			final ZLTextPageBreaks breaks = ZLTextPageBreaks.read(stream, profile);
+			if (breaks != null) {
+				file.setLastModified(System.currentTimeMillis());
+			}
+			return breaks;
+		} catch (IOException e) {
+			return null;
+		} finally {
+			if (stream != null) {
+				try {
+					stream.close();
+				} catch (IOException e) {
+				}
+			}
+		}
+	}
+
+	private static void writePageBreaks(File file, ZLTextPageBreaks breaks) {
+		if (file == null) {
+			return;
+		}
+		final File directory = file.getParentFile();
+		directory.mkdirs();
+		final File tempFile = new File(file.getPath() + ".tmp");
+		DataOutputStream stream = null;
+		try {
+			stream = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+			stream.writeUTF(breaks.Profile);
+			breaks.write(stream);
+			stream.close();
+			stream = null;
+			tempFile.renameTo(file);
+		} catch (IOException e) {
+			// page breaks file is optional
+		} finally {
+			if (stream != null) {
+				try {
+					stream.close();
+				} catch (IOException e) {
+				}
+			}
+			tempFile.delete();
+		}
+
+		final File[] files = directory.listFiles();
+		if (files != null && files.length > MAX_PAGE_BREAKS_FILES) {
+			Arrays.sort(files, new Comparator<File>() {
+				public int compare(File f0, File f1) {
+					final long m0 = f0.lastModified();
+					final long m1 = f1.lastModified();
+					return m0 < m1 ? -1 : (m0 == m1 ? 0 : 1);
+				}
+			});
+			for (int i = 0; i < files.length - MAX_PAGE_BREAKS_FILES; ++i) {
+				files[i].delete();
+			}
+		}
 	}
 
 	protected synchronized void rebuildPaintInfo() {
 		myPreviousPage.reset();
 		myNextPage.reset();
+		resetPreparedPages();
 		if (myCursorManager != null) {
 			myCursorManager.evictAll();
 		}
@@ -1804,7 +2356,7 @@ public abstract class ZLTextView extends ZLTextViewBase {
 	}
 
 	ZLTextParagraphCursor cursor(int index) {
-		return myCursorManager.get(index);
+		return myCursorManager.cursor(index);
 	}
 
 	protected abstract ExtensionElementManager getExtensionManager();
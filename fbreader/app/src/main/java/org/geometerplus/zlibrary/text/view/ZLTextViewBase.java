@@ -19,6 +19,8 @@
 
 package org.geometerplus.zlibrary.text.view;
 
+import java.util.HashMap;
+
 import org.geometerplus.zlibrary.core.application.ZLApplication;
 import org.geometerplus.zlibrary.core.filesystem.ZLFile;
 import org.geometerplus.zlibrary.core.library.ZLibrary;
@@ -39,6 +41,45 @@ abstract class ZLTextViewBase extends ZLView {
 	private int myWordHeight = -1;
 	private ZLTextMetrics myMetrics;
 
+	// Decorated styles are immutable, so the same (parent, decoration, hyperlink)
+	// triple always produces the same style; interning lets all lines share one
+	// object and its computed values instead of creating a new style per element
+	private static final class StyleKey {
+		ZLTextStyle Parent;
+		Object Decoration;
+		ZLTextHyperlink Hyperlink;
+
+		StyleKey() {
+		}
+
+		StyleKey(StyleKey key) {
+			Parent = key.Parent;
+			Decoration = key.Decoration;
+			Hyperlink = key.Hyperlink;
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			final StyleKey key = (StyleKey)other;
+			return
+				Parent == key.Parent &&
+				Hyperlink == key.Hyperlink &&
+				Decoration.equals(key.Decoration);
+		}
+
+		@Override
+		public int hashCode() {
+			return
+				System.identityHashCode(Parent) +
+				31 * Decoration.hashCode() +
+				System.identityHashCode(Hyperlink);
+		}
+	}
+
+	private static final int MAX_STYLES_NUMBER = 4096;
+	private final HashMap<StyleKey,ZLTextStyle> myStyles = new HashMap<StyleKey,ZLTextStyle>();
+	private final StyleKey myStyleKey = new StyleKey();
+
 	ZLTextViewBase(ZLApplication application) {
 		super(application);
 	}
@@ -53,6 +94,30 @@ abstract class ZLTextViewBase extends ZLView {
 
 	protected void resetMetrics() {
 		myMetrics = null;
+		// interned styles keep values of the style options
+		clearStyleCache();
+	}
+
+	final void clearStyleCache() {
+		myStyles.clear();
+		myStyleKey.Parent = null;
+		myStyleKey.Decoration = null;
+		myStyleKey.Hyperlink = null;
+	}
+
+	private ZLTextStyle findStyle(ZLTextStyle parent, Object decoration, ZLTextHyperlink hyperlink) {
+		final StyleKey key = myStyleKey;
+		key.Parent = parent;
+		key.Decoration = decoration;
+		key.Hyperlink = hyperlink;
+		return myStyles.get(key);
+	}
+
+	private void storeStyle(ZLTextStyle style) {
+		if (myStyles.size() >= MAX_STYLES_NUMBER) {
+			myStyles.clear();
+		}
+		myStyles.put(new StyleKey(myStyleKey), style);
 	}
 
 	protected ZLTextMetrics metrics() {
@@ -172,7 +237,12 @@ abstract class ZLTextViewBase extends ZLView {
 			final ZLTextNGStyleDescription description =
 				getTextStyleCollection().getDescription(control.Kind);
 			if (description != null) {
-				setTextStyle(new ZLTextNGStyle(myTextStyle, description, hyperlink));
+				ZLTextStyle style = findStyle(myTextStyle, description, hyperlink);
+				if (style == null) {
+					style = new ZLTextNGStyle(myTextStyle, description, hyperlink);
+					storeStyle(style);
+				}
+				setTextStyle(style);
 			}
 		} else {
 			setTextStyle(myTextStyle.Parent);
@@ -180,7 +250,12 @@ abstract class ZLTextViewBase extends ZLView {
 	}
 
 	private void applyStyle(ZLTextStyleElement element) {
-		setTextStyle(new ZLTextExplicitlyDecoratedStyle(myTextStyle, element.Entry));
+		ZLTextStyle style = findStyle(myTextStyle, element.Entry, null);
+		if (style == null) {
+			style = new ZLTextExplicitlyDecoratedStyle(myTextStyle, element.Entry);
+			storeStyle(style);
+		}
+		setTextStyle(style);
 	}
 
 	private void applyStyleClose() {
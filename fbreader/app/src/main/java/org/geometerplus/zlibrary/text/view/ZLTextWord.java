@@ -26,6 +26,7 @@ public final class ZLTextWord extends ZLTextElement {
 	public final int Offset;
 	public final int Length;
 	private int myWidth = -1;
+	private int myWidthFontId = -1;
 	private Mark myMark;
 	private int myParagraphOffset;
 
@@ -93,12 +94,12 @@ public final class ZLTextWord extends ZLTextElement {
 	}
 
 	public int getWidth(ZLPaintContext context) {
-		int width = myWidth;
-		if (width <= 1) {
-			width = context.getStringWidth(Data, Offset, Length);
-			myWidth = width;
+		final int fontId = context.getFontId();
+		if (fontId == -1 || fontId != myWidthFontId) {
+			myWidth = context.getStringWidth(Data, Offset, Length);
+			myWidthFontId = fontId;
 		}
-		return width;
+		return myWidth;
 	}
 
 	@Override
@@ -57,6 +57,10 @@ public final class ZLAndroidLibrary extends ZLibrary {
 	public final ZLIntegerRangeOption BatteryLevelToTurnScreenOffOption = new ZLIntegerRangeOption("LookNFeel", "BatteryLevelToTurnScreenOff", 0, 100, 50);
 	public final ZLBooleanOption DontTurnScreenOffDuringChargingOption = new ZLBooleanOption("LookNFeel", "DontTurnScreenOffDuringCharging", true);
 	public final ZLIntegerRangeOption ScreenBrightnessLevelOption = new ZLIntegerRangeOption("LookNFeel", "ScreenBrightnessLevel", 0, 100, 0);
+	public final ZLIntegerRangeOption PreparedPagesForwardOption = new ZLIntegerRangeOption("LookNFeel", "PreparedPagesForward", 0, 10, 3);
+	public final ZLIntegerRangeOption PreparedPagesBackwardOption = new ZLIntegerRangeOption("LookNFeel", "PreparedPagesBackward", 0, 10, 1);
+	// megabytes for pre-rendered page bitmaps
+	public final ZLIntegerRangeOption PreparedBitmapsMemoryOption = new ZLIntegerRangeOption("LookNFeel", "PreparedBitmapsMemory", 0, 64, 8);
 
 	private final Application myApplication;
 
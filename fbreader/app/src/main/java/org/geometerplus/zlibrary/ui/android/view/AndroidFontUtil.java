@@ -316,5 +316,6 @@ public final class AndroidFontUtil {
 		ourTypefaces.clear();
 		ourFileSet = null;
 		ourCachedEmbeddedTypefaces.clear();
+		ZLAndroidPaintContext.widthCache().clear();
 	}
 }
@@ -25,12 +25,26 @@ import org.geometerplus.zlibrary.core.view.ZLView;
 import org.geometerplus.zlibrary.ui.android.view.animation.BitmapManager;
 
 final class BitmapManagerImpl implements BitmapManager {
-	private final int SIZE = 2;
-	private final Bitmap[] myBitmaps = new Bitmap[SIZE];
-	private final ZLView.PageIndex[] myIndexes = new ZLView.PageIndex[SIZE];
+	private final int MAX_SIZE = 3;
+	private final Bitmap[] myBitmaps = new Bitmap[MAX_SIZE];
+	private final ZLView.PageIndex[] myIndexes = new ZLView.PageIndex[MAX_SIZE];
+	// rendered in background and not requested yet
+	private final boolean[] myIsPrepared = new boolean[MAX_SIZE];
+	// 2 = current page + the page being scrolled to; 3 = both neighbours are kept
+	private int mySize = 2;
+	// bitmap for rendering in background, swapped into a slot when ready
+	private Bitmap mySpareBitmap;
+	// changed every time the slots' meaning changes, i.e. background rendering is outdated
+	private int myVersion;
+	// slot the UI thread is painting into
+	private int myDrawingSlot = -1;
 
 	private int myWidth;
 	private int myHeight;
+	private int myMemoryLimit;
+
+	private int myRequestsNumber;
+	private int myHitsNumber;
 
 	private final ZLAndroidWidget myWidget;
 
@@ -38,39 +52,153 @@ final class BitmapManagerImpl implements BitmapManager {
 		myWidget = widget;
 	}
 
-	void setSize(int w, int h) {
+	synchronized void setSize(int w, int h) {
 		if (myWidth != w || myHeight != h) {
 			myWidth = w;
 			myHeight = h;
-			for (int i = 0; i < SIZE; ++i) {
+			for (int i = 0; i < MAX_SIZE; ++i) {
 				myBitmaps[i] = null;
 				myIndexes[i] = null;
 			}
+			mySpareBitmap = null;
+			++myVersion;
+			updateSize();
 			System.gc();
 			System.gc();
 			System.gc();
 		}
 	}
 
+	/**
+	 * Sets memory (in bytes) for the pre-rendered pages; the third slot
+	 * and the background rendering bitmap are used only if both fit
+	 */
+	synchronized void setMemoryLimit(int limit) {
+		if (myMemoryLimit != limit) {
+			myMemoryLimit = limit;
+			updateSize();
+		}
+	}
+
+	private void updateSize() {
+		final long bitmapSize = 2L * myWidth * myHeight;
+		final int size = 2 * bitmapSize <= myMemoryLimit ? MAX_SIZE : 2;
+		if (size < mySize) {
+			for (int i = size; i < MAX_SIZE; ++i) {
+				myBitmaps[i] = null;
+				myIndexes[i] = null;
+			}
+			mySpareBitmap = null;
+			++myVersion;
+		}
+		mySize = size;
+	}
+
 	public Bitmap getBitmap(ZLView.PageIndex index) {
-		for (int i = 0; i < SIZE; ++i) {
+		final Bitmap bitmap;
+		synchronized (this) {
+			final int slot = findSlot(index);
+			if (slot != -1) {
+				if (myIsPrepared[slot]) {
+					myIsPrepared[slot] = false;
+					++myRequestsNumber;
+					++myHitsNumber;
+				}
+				return myBitmaps[slot];
+			}
+			if (index != ZLView.PageIndex.current) {
+				++myRequestsNumber;
+			}
+			final int iIndex = getInternalIndex(index);
+			myIsPrepared[iIndex] = false;
+			myIndexes[iIndex] = index;
+			if (myBitmaps[iIndex] == null) {
+				myBitmaps[iIndex] = createBitmap();
+			}
+			bitmap = myBitmaps[iIndex];
+			myDrawingSlot = iIndex;
+		}
+		// the view is painted outside of the manager lock: view methods call reset() under the view lock
+		try {
+			myWidget.drawOnBitmap(bitmap, index);
+		} finally {
+			synchronized (this) {
+				myDrawingSlot = -1;
+			}
+		}
+		return bitmap;
+	}
+
+	private Bitmap createBitmap() {
+		try {
+			return Bitmap.createBitmap(myWidth, myHeight, Bitmap.Config.RGB_565);
+		} catch (OutOfMemoryError e) {
+			System.gc();
+			System.gc();
+			return Bitmap.createBitmap(myWidth, myHeight, Bitmap.Config.RGB_565);
+		}
+	}
+
+	/**
+	 * Renders the page into a free slot in advance; called from a background thread
+	 */
+	void prepareBitmap(ZLView.PageIndex index) {
+		final Bitmap bitmap;
+		final int version;
+		synchronized (this) {
+			if (mySize < MAX_SIZE || myWidth <= 0 || myHeight <= 0 ||
+				findSlot(index) != -1 || getPreparedSlot() == -1) {
+				return;
+			}
+			if (mySpareBitmap != null) {
+				bitmap = mySpareBitmap;
+				mySpareBitmap = null;
+			} else {
+				try {
+					bitmap = Bitmap.createBitmap(myWidth, myHeight, Bitmap.Config.RGB_565);
+				} catch (OutOfMemoryError e) {
+					return;
+				}
+			}
+			version = myVersion;
+		}
+
+		myWidget.drawOnBitmap(bitmap, index);
+
+		synchronized (this) {
+			if (version == myVersion && findSlot(index) == -1) {
+				final int slot = getPreparedSlot();
+				if (slot != -1) {
+					mySpareBitmap = myBitmaps[slot];
+					myBitmaps[slot] = bitmap;
+					myIndexes[slot] = index;
+					myIsPrepared[slot] = true;
+					return;
+				}
+			}
+			if (version == myVersion) {
+				mySpareBitmap = bitmap;
+			}
+		}
+	}
+
+	private int findSlot(ZLView.PageIndex index) {
+		for (int i = 0; i < mySize; ++i) {
 			if (index == myIndexes[i]) {
-				return myBitmaps[i];
+				return i;
 			}
 		}
-		final int iIndex = getInternalIndex(index);
-		myIndexes[iIndex] = index;
-		if (myBitmaps[iIndex] == null) {
-			try {
-				myBitmaps[iIndex] = Bitmap.createBitmap(myWidth, myHeight, Bitmap.Config.RGB_565);
-			} catch (OutOfMemoryError e) {
-				System.gc();
-				System.gc();
-				myBitmaps[iIndex] = Bitmap.createBitmap(myWidth, myHeight, Bitmap.Config.RGB_565);
+		return -1;
+	}
+
+	// pre-rendered pages never replace pages that could be on the screen
+	private int getPreparedSlot() {
+		for (int i = 0; i < mySize; ++i) {
+			if (myIndexes[i] == null && i != myDrawingSlot) {
+				return i;
 			}
 		}
-		myWidget.drawOnBitmap(myBitmaps[iIndex], index);
-		return myBitmaps[iIndex];
+		return -1;
 	}
 
 	public void drawBitmap(Canvas canvas, int x, int y, ZLView.PageIndex index, Paint paint) {
@@ -78,12 +206,12 @@ final class BitmapManagerImpl implements BitmapManager {
 	}
 
 	private int getInternalIndex(ZLView.PageIndex index) {
-		for (int i = 0; i < SIZE; ++i) {
+		for (int i = 0; i < mySize; ++i) {
 			if (myIndexes[i] == null) {
 				return i;
 			}
 		}
-		for (int i = 0; i < SIZE; ++i) {
+		for (int i = 0; i < mySize; ++i) {
 			if (myIndexes[i] != ZLView.PageIndex.current) {
 				return i;
 			}
@@ -91,18 +219,34 @@ final class BitmapManagerImpl implements BitmapManager {
 		throw new RuntimeException("That's impossible");
 	}
 
-	void reset() {
-		for (int i = 0; i < SIZE; ++i) {
+	synchronized void reset() {
+		for (int i = 0; i < MAX_SIZE; ++i) {
 			myIndexes[i] = null;
 		}
+		++myVersion;
 	}
 
-	void shift(boolean forward) {
-		for (int i = 0; i < SIZE; ++i) {
+	synchronized void shift(boolean forward) {
+		for (int i = 0; i < MAX_SIZE; ++i) {
 			if (myIndexes[i] == null) {
 				continue;
 			}
 			myIndexes[i] = forward ? myIndexes[i].getPrevious() : myIndexes[i].getNext();
 		}
+		++myVersion;
+	}
+
+	/**
+	 * Returns the number of first requests for the neighbour page bitmaps (i.e. page turns)
+	 */
+	synchronized int getRequestsNumber() {
+		return myRequestsNumber;
+	}
+
+	/**
+	 * Returns the number of requests served by an already rendered bitmap
+	 */
+	synchronized int getHitsNumber() {
+		return myHitsNumber;
 	}
 }
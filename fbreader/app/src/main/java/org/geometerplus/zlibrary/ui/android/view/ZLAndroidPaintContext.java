@@ -30,6 +30,7 @@ import org.geometerplus.zlibrary.core.options.ZLBooleanOption;
 import org.geometerplus.zlibrary.core.util.ZLColor;
 import org.geometerplus.zlibrary.core.util.SystemInfo;
 import org.geometerplus.zlibrary.core.view.ZLPaintContext;
+import org.geometerplus.zlibrary.core.view.ZLStringWidthCache;
 
 import org.geometerplus.zlibrary.ui.android.image.ZLAndroidImageData;
 import org.geometerplus.zlibrary.ui.android.util.ZLAndroidColorUtil;
@@ -64,6 +65,14 @@ public final class ZLAndroidPaintContext extends ZLPaintContext {
 	private final int myScrollbarWidth;
 
 	private ZLColor myBackgroundColor = new ZLColor(0, 0, 0);
+	private char[] myCorrectedBuffer = new char[32];
+
+	private static final ZLStringWidthCache ourWidthCache = new ZLStringWidthCache(8192);
+	private static int ourWidthCacheFlags = -1;
+
+	public static ZLStringWidthCache widthCache() {
+		return ourWidthCache;
+	}
 
 	public ZLAndroidPaintContext(SystemInfo systemInfo, Canvas canvas, Geometry geometry, int scrollbarWidth) {
 		super(systemInfo);
@@ -81,6 +90,13 @@ public final class ZLAndroidPaintContext extends ZLPaintContext {
 		}
 		myTextPaint.setDither(DitheringOption.getValue());
 		myTextPaint.setSubpixelText(SubpixelOption.getValue());
+		synchronized (ourWidthCache) {
+			final int flags = myTextPaint.getFlags();
+			if (flags != ourWidthCacheFlags) {
+				ourWidthCacheFlags = flags;
+				ourWidthCache.clear();
+			}
+		}
 
 		myLinePaint.setStyle(Paint.Style.STROKE);
 
@@ -333,7 +349,18 @@ public final class ZLAndroidPaintContext extends ZLPaintContext {
 	}
 
 	@Override
-	public int getStringWidth(char[] string, int offset, int length) {
+	public ZLPaintContext createMeasuringContext() {
+		// no canvas: nothing is drawn during layout
+		return new ZLAndroidPaintContext(getSystemInfo(), null, myGeometry, myScrollbarWidth);
+	}
+
+	@Override
+	protected ZLStringWidthCache getWidthCache() {
+		return ourWidthCache;
+	}
+
+	@Override
+	protected int getStringWidthInternal(char[] string, int offset, int length) {
 		boolean containsSoftHyphen = false;
 		for (int i = offset; i < offset + length; ++i) {
 			if (string[i] == (char)0xAD) {
@@ -342,9 +369,13 @@ public final class ZLAndroidPaintContext extends ZLPaintContext {
 			}
 		}
 		if (!containsSoftHyphen) {
-			return (int)(myTextPaint.measureText(new String(string, offset, length)) + 0.5f);
+			return (int)(myTextPaint.measureText(string, offset, length) + 0.5f);
 		} else {
-			final char[] corrected = new char[length];
+			char[] corrected = myCorrectedBuffer;
+			if (corrected.length < length) {
+				corrected = new char[length];
+				myCorrectedBuffer = corrected;
+			}
 			int len = 0;
 			for (int o = offset; o < offset + length; ++o) {
 				final char chr = string[o];
@@ -21,6 +21,7 @@ package org.geometerplus.zlibrary.ui.android.view;
 
 import java.util.concurrent.Executors;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 import android.content.Context;
 import android.graphics.*;
@@ -29,10 +30,12 @@ import android.view.*;
 
 import org.geometerplus.zlibrary.core.application.ZLApplication;
 import org.geometerplus.zlibrary.core.application.ZLKeyBindings;
+import org.geometerplus.zlibrary.core.library.ZLibrary;
 import org.geometerplus.zlibrary.core.util.SystemInfo;
 import org.geometerplus.zlibrary.core.view.ZLView;
 import org.geometerplus.zlibrary.core.view.ZLViewWidget;
 
+import org.geometerplus.zlibrary.ui.android.library.ZLAndroidLibrary;
 import org.geometerplus.zlibrary.ui.android.view.animation.*;
 
 import org.geometerplus.fbreader.Paths;
@@ -44,6 +47,7 @@ public class ZLAndroidWidget extends MainView implements ZLViewWidget, View.OnLo
 	private final Paint myPaint = new Paint();
 
 	private final BitmapManagerImpl myBitmapManager = new BitmapManagerImpl(this);
+	private volatile Future<?> myPrepareFuture;
 	private Bitmap myFooterBitmap;
 	private final SystemInfo mySystemInfo;
 
@@ -98,6 +102,9 @@ public class ZLAndroidWidget extends MainView implements ZLViewWidget, View.OnLo
 //		final int h = getMainAreaHeight();
 
 		myBitmapManager.setSize(getWidth(), getMainAreaHeight());
+		myBitmapManager.setMemoryLimit(
+			((ZLAndroidLibrary)ZLibrary.Instance()).PreparedBitmapsMemoryOption.getValue() << 20
+		);
 		if (getAnimationProvider().inProgress()) {
 			onDrawInScrolling(canvas);
 		} else {
@@ -168,6 +175,17 @@ public class ZLAndroidWidget extends MainView implements ZLViewWidget, View.OnLo
 		myBitmapManager.reset();
 	}
 
+	/**
+	 * Returns the number of page turns, and the number of turns to an already rendered page
+	 */
+	public int getPageTurnsNumber() {
+		return myBitmapManager.getRequestsNumber();
+	}
+
+	public int getPreparedPageHitsNumber() {
+		return myBitmapManager.getHitsNumber();
+	}
+
 	@Override
 	public void repaint() {
 		postInvalidate();
@@ -296,7 +314,12 @@ public class ZLAndroidWidget extends MainView implements ZLViewWidget, View.OnLo
 		drawFooter(canvas, null);
 		post(new Runnable() {
 			public void run() {
-				PrepareService.execute(new Runnable() {
+				// work prepared for the previous position is useless now
+				final Future<?> previousFuture = myPrepareFuture;
+				if (previousFuture != null) {
+					previousFuture.cancel(false);
+				}
+				myPrepareFuture = PrepareService.submit(new Runnable() {
 					public void run() {
 						final ZLView view = ZLApplication.Instance().getCurrentView();
 						final ZLAndroidPaintContext context = new ZLAndroidPaintContext(
@@ -313,6 +336,19 @@ public class ZLAndroidWidget extends MainView implements ZLViewWidget, View.OnLo
 							view.isScrollbarShown() ? getVerticalScrollbarWidth() : 0
 						);
 						view.preparePage(context, ZLView.PageIndex.next);
+						if (view.canScroll(ZLView.PageIndex.next)) {
+							myBitmapManager.prepareBitmap(ZLView.PageIndex.next);
+						}
+
+						final ZLAndroidLibrary library = (ZLAndroidLibrary)ZLibrary.Instance();
+						view.preparePages(
+							context,
+							library.PreparedPagesForwardOption.getValue(),
+							library.PreparedPagesBackwardOption.getValue()
+						);
+						if (view.canScroll(ZLView.PageIndex.previous)) {
+							myBitmapManager.prepareBitmap(ZLView.PageIndex.previous);
+						}
 					}
 				});
 			}
@@ -51,9 +51,11 @@ void Java_org_amse_ys_zip_DeflatingDecompressor_endInflating(JNIEnv *env, jobjec
 	}
 }
 
-// returns (endFlag << 32) + ((used inLength) << 16) + outLength
+// returns (unusedBits << 34) + (blockBoundaryFlag << 33) + (endFlag << 32) +
+//	((used inLength) << 16) + outLength
+// if stopAtBlock is set, inflating stops at the end of each deflate block
 extern "C"
-jlong Java_org_amse_ys_zip_DeflatingDecompressor_inflate(JNIEnv *env, jobject thiz, jint inflatorId, jbyteArray in, jint inOffset, jint inLength, jbyteArray out) {
+jlong Java_org_amse_ys_zip_DeflatingDecompressor_inflate(JNIEnv *env, jobject thiz, jint inflatorId, jbyteArray in, jint inOffset, jint inLength, jbyteArray out, jboolean stopAtBlock) {
 	if (inflatorId < 0 || inflatorId >= SIZE) {
 		return -1;
 	}
@@ -69,15 +71,44 @@ jlong Java_org_amse_ys_zip_DeflatingDecompressor_inflate(JNIEnv *env, jobject th
 	stream->next_out = (Bytef*)outStart;
 	const int outLength = env->GetArrayLength(out);
 	stream->avail_out = outLength;
-	const int code = inflate(stream, Z_SYNC_FLUSH);
+	const int code = inflate(stream, stopAtBlock ? Z_BLOCK : Z_SYNC_FLUSH);
 	env->ReleaseByteArrayElements(in, inStart, 0);
 	env->ReleaseByteArrayElements(out, outStart, 0);
 	if (code == Z_OK || code == Z_STREAM_END) {
 		jlong result = ((inLength - stream->avail_in) << 16) + outLength - stream->avail_out;
 		if (code == Z_STREAM_END) {
 			result |= ((jlong)1) << 32;
+		} else if ((stream->data_type & 128) != 0 && (stream->data_type & 64) == 0) {
+			result |= ((jlong)1) << 33;
+			result |= ((jlong)(stream->data_type & 7)) << 34;
 		}
 		return result;
 	}
 	return -1024 + code;
 }
+
+// restarts inflating from a block boundary;
+// value is the byte containing bits unused at the boundary (if bits > 0),
+// window is the uncompressed data preceding the boundary (up to 32K)
+extern "C"
+jint Java_org_amse_ys_zip_DeflatingDecompressor_resumeInflating(JNIEnv *env, jobject thiz, jint inflatorId, jint bits, jint value, jbyteArray window) {
+	if (inflatorId < 0 || inflatorId >= SIZE) {
+		return -1;
+	}
+	z_stream *stream = ourStreams[inflatorId];
+	if (stream == 0) {
+		return -2;
+	}
+
+	int code = inflateReset(stream);
+	if (code == Z_OK && bits > 0) {
+		code = inflatePrime(stream, bits, value >> (8 - bits));
+	}
+	const int windowLength = env->GetArrayLength(window);
+	if (code == Z_OK && windowLength > 0) {
+		jbyte* windowStart = env->GetByteArrayElements(window, 0);
+		code = inflateSetDictionary(stream, (const Bytef*)windowStart, windowLength);
+		env->ReleaseByteArrayElements(window, windowStart, JNI_ABORT);
+	}
+	return code;
+}